@@ -0,0 +1,255 @@
+package se.nackademin.messaging.audit;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Per-account totals, updated as entries are stored so a summary never scans the log.
+ * <p>
+ * Striped by account like {@link AccountIndex}, each stripe an open addressing table over a primitive {@code long[]}
+ * key table with one primitive column per total, behind its own lock. A deposit's amount is parsed from its data once,
+ * when the entry is added. Deposits whose data is not {@code "Deposit amount of <n>"} are counted but add nothing to the
+ * sum, which saturates instead of overflowing.
+ */
+class AccountAggregates {
+    private static final int INITIAL_CAPACITY = 64;
+    private static final String DEPOSIT_PREFIX = "Deposit amount of ";
+    private static final long NONE = Long.MIN_VALUE;
+
+    private final Stripe[] stripes = new Stripe[AccountIndex.STRIPES];
+
+    AccountAggregates() {
+        for (int i = 0; i < stripes.length; i++) {
+            stripes[i] = new Stripe();
+        }
+    }
+
+    void add(AuditEntry entry) {
+        long nanos = TimeIndex.epochNanos(entry.getTimestamp());
+        boolean deposit = entry.getType() == AuditEntry.AuditType.DEPOSIT;
+        long amount = deposit ? depositAmount(entry.getData()) : 0;
+        int hash = mix(entry.getAccountId());
+        stripes[stripe(hash)].add(entry.getAccountId(), hash, entry.getType(), nanos, amount);
+    }
+
+    /**
+     * Adds totals kept elsewhere, such as the compacted summaries recovered from the journal.
+     */
+    void add(AccountSummary summary) {
+        int hash = mix(summary.getAccountId());
+        stripes[stripe(hash)].add(summary, hash);
+    }
+
+    AccountSummary get(long accountId) {
+        int hash = mix(accountId);
+        return stripes[stripe(hash)].get(accountId, hash);
+    }
+
+    /**
+     * The totals of every account, one stripe at a time.
+     */
+    List<AccountSummary> all() {
+        List<AccountSummary> summaries = new ArrayList<>();
+        for (Stripe stripe : stripes) {
+            stripe.addTo(summaries);
+        }
+        return summaries;
+    }
+
+    static long depositAmount(String data) {
+        if (data == null || !data.startsWith(DEPOSIT_PREFIX)) {
+            return 0;
+        }
+        try {
+            return Long.parseLong(data, DEPOSIT_PREFIX.length(), data.length(), 10);
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    static long saturatedAdd(long a, long b) {
+        long sum = a + b;
+        // Overflow only if both have the same sign and the sum has the other
+        if (((a ^ sum) & (b ^ sum)) < 0) {
+            return a < 0 ? Long.MIN_VALUE : Long.MAX_VALUE;
+        }
+        return sum;
+    }
+
+    private static long min(long current, long nanos) {
+        return current == NONE ? nanos : Math.min(current, nanos);
+    }
+
+    private static long min(long current, Instant instant) {
+        return instant == null ? current : min(current, TimeIndex.epochNanos(instant));
+    }
+
+    private static Instant toInstant(long epochNanos) {
+        if (epochNanos == NONE) {
+            return null;
+        }
+        return Instant.ofEpochSecond(Math.floorDiv(epochNanos, 1_000_000_000L), Math.floorMod(epochNanos, 1_000_000_000L));
+    }
+
+    private static int stripe(int hash) {
+        return hash >>> (Integer.SIZE - Integer.numberOfTrailingZeros(AccountIndex.STRIPES));
+    }
+
+    private static int mix(long key) {
+        long h = key * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32));
+    }
+
+    private static class Stripe {
+        private final ReadWriteLock lock = new ReentrantReadWriteLock();
+        private long[] keys;
+        private long[] entries;
+        private long[] deposits;
+        private long[] depositSums;
+        private long[] openedNanos;
+        private long[] firstNanos;
+        private long[] lastNanos;
+        private int size;
+
+        Stripe() {
+            allocate(INITIAL_CAPACITY);
+        }
+
+        void add(long accountId, int hash, AuditEntry.AuditType type, long nanos, long amount) {
+            lock.writeLock().lock();
+            try {
+                int slot = insert(accountId, hash);
+                entries[slot]++;
+                if (type == AuditEntry.AuditType.DEPOSIT) {
+                    deposits[slot]++;
+                    depositSums[slot] = saturatedAdd(depositSums[slot], amount);
+                } else if (type == AuditEntry.AuditType.OPEN_ACCOUNT) {
+                    openedNanos[slot] = min(openedNanos[slot], nanos);
+                }
+                firstNanos[slot] = min(firstNanos[slot], nanos);
+                lastNanos[slot] = Math.max(lastNanos[slot], nanos);
+            } finally {
+                lock.writeLock().unlock();
+            }
+        }
+
+        void add(AccountSummary summary, int hash) {
+            if (summary.getEntries() == 0) {
+                return;
+            }
+            lock.writeLock().lock();
+            try {
+                int slot = insert(summary.getAccountId(), hash);
+                entries[slot] += summary.getEntries();
+                deposits[slot] += summary.getDeposits();
+                depositSums[slot] = saturatedAdd(depositSums[slot], summary.getDepositSum());
+                openedNanos[slot] = min(openedNanos[slot], summary.getOpenedAt());
+                firstNanos[slot] = min(firstNanos[slot], summary.getFirstAt());
+                if (summary.getLastAt() != null) {
+                    lastNanos[slot] = Math.max(lastNanos[slot], TimeIndex.epochNanos(summary.getLastAt()));
+                }
+            } finally {
+                lock.writeLock().unlock();
+            }
+        }
+
+        AccountSummary get(long accountId, int hash) {
+            lock.readLock().lock();
+            try {
+                int slot = slotFor(accountId, hash);
+                if (entries[slot] == 0) {
+                    return AccountSummary.empty(accountId);
+                }
+                return summary(slot);
+            } finally {
+                lock.readLock().unlock();
+            }
+        }
+
+        void addTo(List<AccountSummary> summaries) {
+            lock.readLock().lock();
+            try {
+                for (int slot = 0; slot < keys.length; slot++) {
+                    if (entries[slot] != 0) {
+                        summaries.add(summary(slot));
+                    }
+                }
+            } finally {
+                lock.readLock().unlock();
+            }
+        }
+
+        private AccountSummary summary(int slot) {
+            return new AccountSummary(keys[slot], entries[slot], deposits[slot], depositSums[slot],
+                    toInstant(openedNanos[slot]), toInstant(firstNanos[slot]), toInstant(lastNanos[slot]));
+        }
+
+        /**
+         * The account's slot, taken for it if it has none yet.
+         */
+        private int insert(long accountId, int hash) {
+            int slot = slotFor(accountId, hash);
+            if (entries[slot] == 0) {
+                if ((size + 1) * 2 > keys.length) {
+                    rehash(keys.length * 2);
+                    slot = slotFor(accountId, hash);
+                }
+                keys[slot] = accountId;
+                size++;
+            }
+            return slot;
+        }
+
+        private int slotFor(long accountId, int hash) {
+            int mask = keys.length - 1;
+            int slot = hash & mask;
+            while (entries[slot] != 0 && keys[slot] != accountId) {
+                slot = (slot + 1) & mask;
+            }
+            return slot;
+        }
+
+        private void rehash(int capacity) {
+            long[] oldKeys = keys;
+            long[] oldEntries = entries;
+            long[] oldDeposits = deposits;
+            long[] oldDepositSums = depositSums;
+            long[] oldOpenedNanos = openedNanos;
+            long[] oldFirstNanos = firstNanos;
+            long[] oldLastNanos = lastNanos;
+            allocate(capacity);
+            for (int i = 0; i < oldKeys.length; i++) {
+                if (oldEntries[i] != 0) {
+                    int slot = slotFor(oldKeys[i], mix(oldKeys[i]));
+                    keys[slot] = oldKeys[i];
+                    entries[slot] = oldEntries[i];
+                    deposits[slot] = oldDeposits[i];
+                    depositSums[slot] = oldDepositSums[i];
+                    openedNanos[slot] = oldOpenedNanos[i];
+                    firstNanos[slot] = oldFirstNanos[i];
+                    lastNanos[slot] = oldLastNanos[i];
+                }
+            }
+        }
+
+        private void allocate(int capacity) {
+            keys = new long[capacity];
+            entries = new long[capacity];
+            deposits = new long[capacity];
+            depositSums = new long[capacity];
+            openedNanos = filled(capacity);
+            firstNanos = filled(capacity);
+            lastNanos = filled(capacity);
+        }
+
+        private static long[] filled(int capacity) {
+            long[] column = new long[capacity];
+            Arrays.fill(column, NONE);
+            return column;
+        }
+    }
+}
@@ -0,0 +1,216 @@
+package se.nackademin.messaging.audit;
+
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Maps an accountId to the log positions of its entries, in append order.
+ * <p>
+ * Accounts are spread over {@value #STRIPES} stripes by hash, each an open addressing table over a primitive
+ * {@code long[]} key table, so lookups never box, behind its own lock. Writers only contend when their accounts share a
+ * stripe, so listener threads storing different accounts rarely wait for each other. Posting lists only grow at the
+ * end, a reader holding a {@link Postings} keeps seeing the same positions even if the account gets more entries
+ * afterwards. {@link #removeBefore} drops postings from the front, which keeps the index of every remaining posting: a
+ * posting list is numbered from the account's first entry ever.
+ */
+class AccountIndex {
+    static final int STRIPES = 64;
+    private static final int INITIAL_CAPACITY = 64;
+    private static final int INITIAL_POSTINGS = 4;
+    private static final int REMOVE_BATCH = 1024;
+    private static final long[] DRAINED = new long[0];
+
+    private final Stripe[] stripes = new Stripe[STRIPES];
+
+    AccountIndex() {
+        for (int i = 0; i < STRIPES; i++) {
+            stripes[i] = new Stripe();
+        }
+    }
+
+    void add(long accountId, long position) {
+        int hash = mix(accountId);
+        stripes[stripe(hash)].add(accountId, hash, position);
+    }
+
+    Postings get(long accountId) {
+        int hash = mix(accountId);
+        return stripes[stripe(hash)].get(accountId, hash);
+    }
+
+    /**
+     * Drops the postings before {@code position} from the front of every posting list. A stripe's lock is taken for a
+     * batch of its slots at a time, so adds are only held up briefly. A posting that is behind a later one is kept.
+     */
+    void removeBefore(long position) {
+        for (Stripe stripe : stripes) {
+            stripe.removeBefore(position);
+        }
+    }
+
+    private static int stripe(int hash) {
+        // The table slot comes from the low bits, so the stripe takes the high ones
+        return hash >>> (Integer.SIZE - Integer.numberOfTrailingZeros(STRIPES));
+    }
+
+    private static int mix(long key) {
+        long h = key * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32));
+    }
+
+    private static class Stripe {
+        private final ReadWriteLock lock = new ReentrantReadWriteLock();
+        private long[] keys;
+        // Null for a free slot. Postings of a slot are positions[starts..counts), numbered from bases
+        private long[][] postings;
+        private int[] bases;
+        private int[] starts;
+        private int[] counts;
+        private int size;
+
+        Stripe() {
+            allocate(INITIAL_CAPACITY);
+        }
+
+        void add(long accountId, int hash, long position) {
+            lock.writeLock().lock();
+            try {
+                int slot = slotFor(accountId, hash);
+                if (postings[slot] == null) {
+                    if ((size + 1) * 2 > keys.length) {
+                        rehash(keys.length * 2);
+                        slot = slotFor(accountId, hash);
+                    }
+                    keys[slot] = accountId;
+                    postings[slot] = new long[INITIAL_POSTINGS];
+                    size++;
+                }
+                long[] positions = postings[slot];
+                if (counts[slot] == positions.length) {
+                    // Removed postings are left behind, a new array so readers of the old one are not disturbed
+                    int live = counts[slot] - starts[slot];
+                    positions = new long[Math.max(INITIAL_POSTINGS, live * 2)];
+                    System.arraycopy(postings[slot], starts[slot], positions, 0, live);
+                    postings[slot] = positions;
+                    bases[slot] += starts[slot];
+                    starts[slot] = 0;
+                    counts[slot] = live;
+                }
+                positions[counts[slot]++] = position;
+            } finally {
+                lock.writeLock().unlock();
+            }
+        }
+
+        Postings get(long accountId, int hash) {
+            lock.readLock().lock();
+            try {
+                int slot = slotFor(accountId, hash);
+                if (postings[slot] == null) {
+                    return Postings.EMPTY;
+                }
+                return new Postings(postings[slot], bases[slot], starts[slot], counts[slot]);
+            } finally {
+                lock.readLock().unlock();
+            }
+        }
+
+        void removeBefore(long position) {
+            for (int from = 0; ; from += REMOVE_BATCH) {
+                lock.writeLock().lock();
+                try {
+                    if (from >= keys.length) {
+                        return;
+                    }
+                    for (int slot = from; slot < Math.min(keys.length, from + REMOVE_BATCH); slot++) {
+                        long[] positions = postings[slot];
+                        if (positions == null) {
+                            continue;
+                        }
+                        int start = starts[slot];
+                        while (start < counts[slot] && positions[start] < position) {
+                            start++;
+                        }
+                        if (start == counts[slot]) {
+                            postings[slot] = DRAINED;
+                            bases[slot] += start;
+                            starts[slot] = 0;
+                            counts[slot] = 0;
+                        } else {
+                            starts[slot] = start;
+                        }
+                    }
+                } finally {
+                    lock.writeLock().unlock();
+                }
+            }
+        }
+
+        private int slotFor(long accountId, int hash) {
+            int mask = keys.length - 1;
+            int slot = hash & mask;
+            while (postings[slot] != null && keys[slot] != accountId) {
+                slot = (slot + 1) & mask;
+            }
+            return slot;
+        }
+
+        private void rehash(int capacity) {
+            long[] oldKeys = keys;
+            long[][] oldPostings = postings;
+            int[] oldBases = bases;
+            int[] oldStarts = starts;
+            int[] oldCounts = counts;
+            allocate(capacity);
+            for (int i = 0; i < oldKeys.length; i++) {
+                if (oldPostings[i] != null) {
+                    int slot = slotFor(oldKeys[i], mix(oldKeys[i]));
+                    keys[slot] = oldKeys[i];
+                    postings[slot] = oldPostings[i];
+                    bases[slot] = oldBases[i];
+                    starts[slot] = oldStarts[i];
+                    counts[slot] = oldCounts[i];
+                }
+            }
+        }
+
+        private void allocate(int capacity) {
+            keys = new long[capacity];
+            postings = new long[capacity][];
+            bases = new int[capacity];
+            starts = new int[capacity];
+            counts = new int[capacity];
+        }
+    }
+
+    /**
+     * Postings {@code first() <= index < count()} of an account, numbered from its first entry ever.
+     */
+    static class Postings {
+        static final Postings EMPTY = new Postings(new long[0], 0, 0, 0);
+
+        private final long[] positions;
+        private final int base;
+        private final int start;
+        private final int count;
+
+        Postings(long[] positions, int base, int start, int count) {
+            this.positions = positions;
+            this.base = base;
+            this.start = start;
+            this.count = count;
+        }
+
+        long position(int index) {
+            return positions[index - base];
+        }
+
+        int first() {
+            return base + start;
+        }
+
+        int count() {
+            return base + count;
+        }
+    }
+}
@@ -0,0 +1,90 @@
+package se.nackademin.messaging.audit;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+import java.time.Instant;
+
+/**
+ * Totals of one account's audit entries, as kept up to date by {@link AccountAggregates}. Timestamps are null while
+ * the account has no such entry.
+ */
+public class AccountSummary {
+    private final long accountId;
+    private final long entries;
+    private final long deposits;
+    private final long depositSum;
+    private final Instant openedAt;
+    private final Instant firstAt;
+    private final Instant lastAt;
+
+    @JsonCreator
+    public AccountSummary(@JsonProperty("accountId") long accountId,
+                          @JsonProperty("entries") long entries,
+                          @JsonProperty("deposits") long deposits,
+                          @JsonProperty("depositSum") long depositSum,
+                          @JsonProperty("openedAt") Instant openedAt,
+                          @JsonProperty("firstAt") Instant firstAt,
+                          @JsonProperty("lastAt") Instant lastAt) {
+        this.accountId = accountId;
+        this.entries = entries;
+        this.deposits = deposits;
+        this.depositSum = depositSum;
+        this.openedAt = openedAt;
+        this.firstAt = firstAt;
+        this.lastAt = lastAt;
+    }
+
+    static AccountSummary empty(long accountId) {
+        return new AccountSummary(accountId, 0, 0, 0, null, null, null);
+    }
+
+    /**
+     * Both summaries of the same account together, for an account whose entries are spread over several nodes.
+     */
+    AccountSummary plus(AccountSummary other) {
+        return new AccountSummary(accountId,
+                entries + other.entries,
+                deposits + other.deposits,
+                AccountAggregates.saturatedAdd(depositSum, other.depositSum),
+                min(openedAt, other.openedAt),
+                min(firstAt, other.firstAt),
+                max(lastAt, other.lastAt));
+    }
+
+    public long getAccountId() {
+        return accountId;
+    }
+
+    public long getEntries() {
+        return entries;
+    }
+
+    public long getDeposits() {
+        return deposits;
+    }
+
+    public long getDepositSum() {
+        return depositSum;
+    }
+
+    public Instant getOpenedAt() {
+        return openedAt;
+    }
+
+    public Instant getFirstAt() {
+        return firstAt;
+    }
+
+    public Instant getLastAt() {
+        return lastAt;
+    }
+
+    private static Instant min(Instant a, Instant b) {
+        return a == null ? b : b == null || a.isBefore(b) ? a : b;
+    }
+
+    private static Instant max(Instant a, Instant b) {
+        return a == null ? b : b == null || a.isAfter(b) ? a : b;
+    }
+}
@@ -2,18 +2,49 @@ package se.nackademin.messaging.audit;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.apache.coyote.ProtocolHandler;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.amqp.core.Binding;
+import org.springframework.amqp.core.Declarable;
+import org.springframework.amqp.core.Declarables;
+import org.springframework.amqp.core.DirectExchange;
 import org.springframework.amqp.core.FanoutExchange;
 import org.springframework.amqp.core.Queue;
+import org.springframework.amqp.rabbit.config.SimpleRabbitListenerContainerFactory;
 import org.springframework.amqp.rabbit.connection.ConnectionFactory;
 import org.springframework.amqp.rabbit.core.RabbitTemplate;
+import org.springframework.amqp.support.converter.ContentTypeDelegatingMessageConverter;
 import org.springframework.amqp.support.converter.Jackson2JsonMessageConverter;
+import org.springframework.amqp.support.converter.MessageConverter;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.amqp.SimpleRabbitListenerContainerFactoryConfigurer;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.web.embedded.tomcat.TomcatProtocolHandlerCustomizer;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Primary;
+import se.nackademin.messaging.common.VirtualThreads;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
 
 
 @Configuration
 public class ApplicationConfiguration {
+    private static final Logger LOG = LoggerFactory.getLogger(ApplicationConfiguration.class);
+    static final String AUDIT_QUEUE = "audit-log";
+    static final String SHARD_EXCHANGE = "audit-shards";
 
     /*
     TODO: Uppgift 1: Configuration
@@ -24,8 +55,115 @@ public class ApplicationConfiguration {
      */
 
     @Bean
-    public AuditLogRepository auditLogRepository() {
-        return new AuditLogRepository();
+    public AuditJournal auditJournal(@Value("${audit.storage.enabled}") boolean enabled,
+                                     @Value("${audit.storage.directory}") Path directory,
+                                     @Value("${audit.storage.segment-size-mb}") int segmentSizeMb,
+                                     @Value("${audit.storage.fsync}") MappedAuditJournal.FsyncPolicy fsync,
+                                     @Value("${audit.storage.fsync-batch-size}") int fsyncBatchSize,
+                                     @Value("${audit.storage.fsync-interval-ms}") long fsyncIntervalMs) {
+        if (!enabled) {
+            return AuditJournal.NONE;
+        }
+        // A segment is mapped as one buffer, which an int indexes
+        if (segmentSizeMb < 1 || (long) segmentSizeMb << 20 > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("audit.storage.segment-size-mb must be between 1 and " + (Integer.MAX_VALUE >> 20) + ", was " + segmentSizeMb);
+        }
+        return new MappedAuditJournal(directory, segmentSizeMb << 20, fsync, fsyncBatchSize, Duration.ofMillis(fsyncIntervalMs));
+    }
+
+    @Bean
+    public AuditLogRepository auditLogRepository(AuditJournal auditJournal, MeterRegistry meterRegistry,
+                                                 @Value("${audit.storage.hot-segments}") int hotSegments,
+                                                 @Value("${audit.storage.off-heap}") boolean offHeap) throws IOException {
+        AuditLogRepository repository = new AuditLogRepository(auditJournal, hotSegments, offHeap);
+        long start = System.nanoTime();
+        long recovered = repository.recover();
+        LOG.info("Recovered {} audit entries in {} ms", recovered, (System.nanoTime() - start) / 1_000_000);
+        Gauge.builder("audit.repository.size", repository, AuditLogRepository::size)
+                .description("Entries in the audit log")
+                .register(meterRegistry);
+        Gauge.builder("audit.repository.cold.bytes", repository, AuditLogRepository::coldBytes)
+                .description("Heap taken by sealed, compressed segments of the audit log")
+                .baseUnit("bytes")
+                .register(meterRegistry);
+        Gauge.builder("audit.repository.off-heap.bytes", repository, AuditLogRepository::offHeapBytes)
+                .description("Direct memory taken by off-heap hot segments of the audit log")
+                .baseUnit("bytes")
+                .register(meterRegistry);
+        Gauge.builder("audit.repository.dropped", repository, AuditLogRepository::first)
+                .description("Entries dropped from the audit log by retention")
+                .register(meterRegistry);
+        return repository;
+    }
+
+    @Bean
+    public ConsumeMetrics consumeMetrics(MeterRegistry meterRegistry) {
+        return new ConsumeMetrics(meterRegistry);
+    }
+
+    /**
+     * Seeded with the ids of the newest recovered entries, so events redelivered after a restart are still dropped.
+     * Tombstones of entries that were never stored have no id to seed.
+     */
+    @Bean
+    public DedupWindow dedupWindow(AuditLogRepository auditLogRepository,
+                                   @Value("${audit.dedup.capacity}") int capacity,
+                                   @Value("${audit.dedup.max-age-ms}") long maxAgeMs) {
+        DedupWindow dedupWindow = new DedupWindow(capacity, maxAgeMs, TimeUnit.MILLISECONDS);
+        long size = auditLogRepository.size();
+        for (long position = Math.max(auditLogRepository.first(), size - capacity); position < size; position++) {
+            AuditEntry entry = auditLogRepository.retained(position);
+            if (entry != null) {
+                dedupWindow.add(entry.idHigh(), entry.idLow());
+            }
+        }
+        return dedupWindow;
+    }
+
+    @Bean(destroyMethod = "close")
+    public AuditRetention auditRetention(AuditLogRepository auditLogRepository,
+                                         @Value("${audit.retention.max-age-ms}") long maxAgeMs,
+                                         @Value("${audit.retention.max-entries}") long maxEntries,
+                                         @Value("${audit.retention.max-bytes}") long maxBytes,
+                                         @Value("${audit.retention.compact}") boolean compact,
+                                         @Value("${audit.retention.check-interval-ms}") long checkIntervalMs) {
+        AuditRetention auditRetention = new AuditRetention(auditLogRepository, Duration.ofMillis(maxAgeMs), maxEntries, maxBytes, compact);
+        auditRetention.start(Duration.ofMillis(checkIntervalMs));
+        return auditRetention;
+    }
+
+    @Bean(destroyMethod = "close")
+    public AuditTail auditTail(AuditLogRepository auditLogRepository,
+                               @Value("${audit.stream.sender-threads}") int senderThreads,
+                               @Value("${audit.stream.max-subscribers}") int maxSubscribers,
+                               @Value("${audit.stream.max-batch}") int maxBatch,
+                               @Value("${audit.stream.heartbeat-ms}") long heartbeatMs,
+                               @Value("${audit.stream.poll-interval-ms}") long pollIntervalMs) {
+        AuditTail auditTail = new AuditTail(auditLogRepository, senderThreads, maxSubscribers, maxBatch, Duration.ofMillis(heartbeatMs));
+        auditTail.start(Duration.ofMillis(pollIntervalMs));
+        return auditTail;
+    }
+
+    /**
+     * Without {@code audit.cluster.nodes} this is the only node. Otherwise the list holds the base URL of every node,
+     * this one included at {@code audit.cluster.node-index}.
+     */
+    @Bean
+    public AuditCluster auditCluster(AuditLogRepository auditLogRepository, ObjectMapper objectMapper,
+                                     @Value("${audit.cluster.nodes}") List<URI> nodes,
+                                     @Value("${audit.cluster.node-index}") int nodeIndex,
+                                     @Value("${audit.cluster.timeout-ms}") long timeoutMs) {
+        if (nodes.isEmpty()) {
+            return new AuditCluster(auditLogRepository);
+        }
+        Duration timeout = Duration.ofMillis(timeoutMs);
+        HttpClient client = HttpClient.newBuilder().connectTimeout(timeout).build();
+        List<AuditNode> auditNodes = new ArrayList<>(nodes.size());
+        for (int i = 0; i < nodes.size(); i++) {
+            auditNodes.add(i == nodeIndex ? new LocalAuditNode(auditLogRepository) : new HttpAuditNode(nodes.get(i), client, objectMapper, timeout));
+        }
+        LOG.info("Audit node {} of {}", nodeIndex, nodes);
+        return new AuditCluster(auditLogRepository, auditNodes, nodeIndex);
     }
 
     // Detta för att testfallet ska fungera
@@ -35,13 +173,85 @@ public class ApplicationConfiguration {
     }
 
     @Bean
-    public Queue myQueue() {
-        return new Queue("audit-log");
+    public AuditRetries auditRetries(RabbitTemplate rabbitTemplate,
+                                     @Value("${audit.retry.max-retries}") int maxRetries,
+                                     @Value("${audit.retry.initial-backoff-ms}") long initialBackoffMs) {
+        return new AuditRetries(rabbitTemplate, maxRetries, initialBackoffMs);
+    }
+
+    /**
+     * One shard is the classic audit-log queue on the fanout exchange. With more, the fanout exchange feeds the direct
+     * exchange audit-shards, which routes each event to the queue audit-log.&lt;routing key&gt;. The business service
+     * picks the routing key from the accountId and declares the same topology. Shard queues allow a single active
+     * consumer, so two nodes that both think they own a shard never split it. The retry and parking lot queues of
+     * {@link AuditRetries} come on top.
+     */
+    @Bean
+    public Declarables auditTopology(@Value("${audit.shards}") int shards, AuditRetries auditRetries) {
+        List<Declarable> declarables = new ArrayList<>();
+        if (shards == 1) {
+            declarables.add(new Queue(AUDIT_QUEUE));
+            declarables.add(new Binding(AUDIT_QUEUE, Binding.DestinationType.QUEUE, "exchange", "", null));
+        } else {
+            declarables.add(new DirectExchange(SHARD_EXCHANGE));
+            declarables.add(new Binding(SHARD_EXCHANGE, Binding.DestinationType.EXCHANGE, "exchange", "", null));
+            for (int shard = 0; shard < shards; shard++) {
+                String queue = AUDIT_QUEUE + "." + shard;
+                declarables.add(new Queue(queue, true, false, false, Map.of("x-single-active-consumer", true)));
+                declarables.add(new Binding(queue, Binding.DestinationType.QUEUE, SHARD_EXCHANGE, Integer.toString(shard), null));
+            }
+        }
+        declarables.addAll(auditRetries.topology(auditQueues(shards)));
+        return new Declarables(declarables);
+    }
+
+    static List<String> auditQueues(int shards) {
+        if (shards == 1) {
+            return List.of(AUDIT_QUEUE);
+        }
+        List<String> queues = new ArrayList<>(shards);
+        for (int shard = 0; shard < shards; shard++) {
+            queues.add(AUDIT_QUEUE + "." + shard);
+        }
+        return queues;
+    }
+
+    /**
+     * Container factory that hands the listener up to {@code batch-size} messages at a time, a smaller batch is
+     * delivered when no message arrives within {@code receive-timeout-ms}.
+     */
+    @Bean
+    public SimpleRabbitListenerContainerFactory batchListenerContainerFactory(SimpleRabbitListenerContainerFactoryConfigurer configurer,
+                                                                              ConnectionFactory connectionFactory,
+                                                                              @Value("${audit.listener.batch-size}") int batchSize,
+                                                                              @Value("${audit.listener.receive-timeout-ms}") long receiveTimeoutMs,
+                                                                              @Value("${threads.virtual.enabled}") boolean virtualThreads) {
+        SimpleRabbitListenerContainerFactory factory = new SimpleRabbitListenerContainerFactory();
+        configurer.configure(factory, connectionFactory);
+        factory.setBatchListener(true);
+        factory.setConsumerBatchEnabled(true);
+        factory.setBatchSize(batchSize);
+        factory.setPrefetchCount(Math.max(batchSize, 250));
+        factory.setReceiveTimeout(receiveTimeoutMs);
+        if (virtualThreads) {
+            factory.setTaskExecutor(virtualThreadExecutor("amqp-virtual-"));
+        }
+        return factory;
     }
 
+    /**
+     * Runs every HTTP request on its own virtual thread.
+     */
     @Bean
-    public Binding declareBindingGeneric() {
-        return new Binding("audit-log", Binding.DestinationType.QUEUE,"exchange","",null);
+    @ConditionalOnProperty("threads.virtual.enabled")
+    public TomcatProtocolHandlerCustomizer<ProtocolHandler> virtualThreadRequests() {
+        ExecutorService executor = virtualThreadExecutor("http-virtual-");
+        return protocolHandler -> protocolHandler.setExecutor(executor);
+    }
+
+    private static ExecutorService virtualThreadExecutor(String namePrefix) {
+        return VirtualThreads.newExecutor(namePrefix)
+                .orElseThrow(() -> new IllegalStateException("threads.virtual.enabled needs Java 21 or later"));
     }
 
     @Bean
@@ -51,6 +261,17 @@ public class ApplicationConfiguration {
         return rt;
     }
 
+    /**
+     * Used by the listeners, reads the binary wire format by content type and everything else as JSON.
+     */
+    @Bean
+    @Primary
+    public MessageConverter auditEventMessageConverter(Jackson2JsonMessageConverter json) {
+        ContentTypeDelegatingMessageConverter converter = new ContentTypeDelegatingMessageConverter(json);
+        converter.addDelegate(AuditEventBinaryConverter.CONTENT_TYPE, new AuditEventBinaryConverter());
+        return converter;
+    }
+
     @Bean
     public Jackson2JsonMessageConverter producerJackson2MessageConverter(ObjectMapper objectMapper) {
         objectMapper.registerModule(new JavaTimeModule());
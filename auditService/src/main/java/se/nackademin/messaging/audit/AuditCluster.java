@@ -0,0 +1,193 @@
+package se.nackademin.messaging.audit;
+
+import java.nio.ByteBuffer;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
+/**
+ * The audit nodes that together hold the log. Node {@code i} of {@code n} consumes the shards {@code s} with
+ * {@code s % n == i} and keeps their entries, so every entry lives on exactly one node.
+ * <p>
+ * Queries go to all nodes at once and the answers are merged by timestamp, ties broken by node and then log position,
+ * which gives one global order. A page cursor holds the last key of that order, from which every node can work out
+ * where its part of the next page starts, so paging needs no state on any node. If a node does not answer the query
+ * fails rather than returning a partial log. With a single node everything is answered by the local repository.
+ */
+public class AuditCluster {
+    private static final Base64.Encoder ENCODER = Base64.getUrlEncoder().withoutPadding();
+    private static final Base64.Decoder DECODER = Base64.getUrlDecoder();
+    private static final Comparator<Ranked> ORDER = Comparator.comparing((Ranked r) -> r.record.getTimestamp())
+            .thenComparingInt(r -> r.node)
+            .thenComparingLong(r -> r.record.getPosition());
+
+    private final AuditLogRepository local;
+    private final List<AuditNode> nodes;
+    private final int self;
+
+    public AuditCluster(AuditLogRepository local) {
+        this(local, List.of(new LocalAuditNode(local)), 0);
+    }
+
+    AuditCluster(AuditLogRepository local, List<AuditNode> nodes, int self) {
+        if (self < 0 || self >= nodes.size()) {
+            throw new IllegalArgumentException("Node index " + self + " is not one of the " + nodes.size() + " nodes");
+        }
+        this.local = local;
+        this.nodes = nodes;
+        this.self = self;
+    }
+
+    public boolean owns(int shard) {
+        return shard % nodes.size() == self;
+    }
+
+    public int size() {
+        return nodes.size();
+    }
+
+    /**
+     * @throws IllegalArgumentException if the cursor is malformed
+     * @throws IllegalStateException    if a node could not be queried
+     */
+    public AuditPage page(Instant from, Instant to, String cursor, int size) {
+        if (nodes.size() == 1) {
+            return local.page(from, to, cursor, size);
+        }
+        if (size < 1) {
+            throw new IllegalArgumentException("Page size must be positive, was " + size);
+        }
+        Cursor after = cursor == null ? null : Cursor.parse(cursor);
+        List<CompletableFuture<List<AuditRecord>>> answers = new ArrayList<>(nodes.size());
+        for (int node = 0; node < nodes.size(); node++) {
+            // One more than asked for, so the merge can tell whether there is a next page
+            answers.add(nodes.get(node).page(from, to, after == null ? null : after.boundFor(node), size + 1));
+        }
+        List<Ranked> merged = merge(answers);
+        List<AuditEntry> entries = new ArrayList<>(Math.min(size, merged.size()));
+        for (int i = 0; i < merged.size() && i < size; i++) {
+            entries.add(merged.get(i).record.toEntry());
+        }
+        String nextCursor = merged.size() > size ? merged.get(size - 1).toCursor() : null;
+        return new AuditPage(entries, nextCursor);
+    }
+
+    /**
+     * @throws IllegalStateException if a node could not be queried
+     */
+    public List<AuditEntry> findByAccountId(long accountId) {
+        if (nodes.size() == 1) {
+            return local.findByAccountId(accountId);
+        }
+        List<CompletableFuture<List<AuditRecord>>> answers = new ArrayList<>(nodes.size());
+        for (AuditNode node : nodes) {
+            answers.add(node.account(accountId));
+        }
+        List<Ranked> merged = merge(answers);
+        List<AuditEntry> entries = new ArrayList<>(merged.size());
+        for (Ranked ranked : merged) {
+            entries.add(ranked.record.toEntry());
+        }
+        return entries;
+    }
+
+    /**
+     * An account's entries are all on the node owning its shard, so adding up every node's summary gives the totals.
+     *
+     * @throws IllegalStateException if a node could not be queried
+     */
+    public AccountSummary summary(long accountId) {
+        if (nodes.size() == 1) {
+            return local.summary(accountId);
+        }
+        List<CompletableFuture<AccountSummary>> answers = new ArrayList<>(nodes.size());
+        for (AuditNode node : nodes) {
+            answers.add(node.summary(accountId));
+        }
+        AccountSummary summary = AccountSummary.empty(accountId);
+        for (int node = 0; node < answers.size(); node++) {
+            try {
+                summary = summary.plus(answers.get(node).join());
+            } catch (CompletionException e) {
+                throw new IllegalStateException("Audit node " + nodes.get(node) + " could not be queried", e.getCause());
+            }
+        }
+        return summary;
+    }
+
+    private List<Ranked> merge(List<CompletableFuture<List<AuditRecord>>> answers) {
+        List<Ranked> merged = new ArrayList<>();
+        for (int node = 0; node < answers.size(); node++) {
+            try {
+                for (AuditRecord record : answers.get(node).join()) {
+                    merged.add(new Ranked(node, record));
+                }
+            } catch (CompletionException e) {
+                throw new IllegalStateException("Audit node " + nodes.get(node) + " could not be queried", e.getCause());
+            }
+        }
+        merged.sort(ORDER);
+        return merged;
+    }
+
+    private static class Ranked {
+        private final int node;
+        private final AuditRecord record;
+
+        Ranked(int node, AuditRecord record) {
+            this.node = node;
+            this.record = record;
+        }
+
+        String toCursor() {
+            ByteBuffer buffer = ByteBuffer.allocate(20)
+                    .putLong(TimeIndex.epochNanos(record.getTimestamp()))
+                    .putInt(node)
+                    .putLong(record.getPosition());
+            return ENCODER.encodeToString(buffer.array());
+        }
+    }
+
+    private static class Cursor {
+        private final long epochNanos;
+        private final int node;
+        private final long position;
+
+        Cursor(long epochNanos, int node, long position) {
+            this.epochNanos = epochNanos;
+            this.node = node;
+            this.position = position;
+        }
+
+        static Cursor parse(String cursor) {
+            byte[] bytes;
+            try {
+                bytes = DECODER.decode(cursor);
+            } catch (IllegalArgumentException e) {
+                throw new IllegalArgumentException("Malformed cursor " + cursor, e);
+            }
+            if (bytes.length != 20) {
+                throw new IllegalArgumentException("Malformed cursor " + cursor);
+            }
+            ByteBuffer buffer = ByteBuffer.wrap(bytes);
+            return new Cursor(buffer.getLong(), buffer.getInt(), buffer.getLong());
+        }
+
+        /**
+         * The last local key of {@code node} that is not after this cursor in the global order.
+         */
+        TimeIndex.Key boundFor(int node) {
+            if (node < this.node) {
+                return new TimeIndex.Key(epochNanos, Long.MAX_VALUE);
+            }
+            if (node > this.node) {
+                return new TimeIndex.Key(epochNanos, Long.MIN_VALUE);
+            }
+            return new TimeIndex.Key(epochNanos, position);
+        }
+    }
+}
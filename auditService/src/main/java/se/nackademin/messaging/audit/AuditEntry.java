@@ -1,23 +1,44 @@
 package se.nackademin.messaging.audit;
 
 import java.time.Instant;
+import java.util.UUID;
 
 public class AuditEntry {
     private final AuditType type;
     private final long accountId;
     private final Instant timestamp;
     private final String data;
+    private final long idHigh;
+    private final long idLow;
 
     public AuditEntry(AuditType type, long accountId, Instant timestamp, String data) {
+        this(type, accountId, timestamp, data, 0, 0);
+    }
+
+    /**
+     * An entry with the id of the event it was made from, {@code 0, 0} when the event had none.
+     */
+    public AuditEntry(AuditType type, long accountId, Instant timestamp, String data, long idHigh, long idLow) {
         this.type = type;
         this.accountId = accountId;
         this.timestamp = timestamp;
         this.data = data;
+        this.idHigh = idHigh;
+        this.idLow = idLow;
+    }
+
+    /**
+     * For views that read their fields from elsewhere and override every getter, see {@link OffHeapSegment}.
+     */
+    AuditEntry() {
+        this(null, 0, null, null, 0, 0);
     }
 
     public enum AuditType {
         OPEN_ACCOUNT,
-        DEPOSIT
+        DEPOSIT,
+        /** Stands for an account's entries removed by retention with compaction, never stored in the log. */
+        SUMMARY
     }
 
     public AuditType getType() {
@@ -35,6 +56,25 @@ public class AuditEntry {
     public String getData() {
         return data;
     }
+
+    /**
+     * The event id as a UUID, or null if the event had none.
+     */
+    public String getId() {
+        return hasId() ? new UUID(idHigh(), idLow()).toString() : null;
+    }
+
+    boolean hasId() {
+        return idHigh() != 0 || idLow() != 0;
+    }
+
+    long idHigh() {
+        return idHigh;
+    }
+
+    long idLow() {
+        return idLow;
+    }
 }
 
 
@@ -1,9 +1,18 @@
 package se.nackademin.messaging.audit;
 
 import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonIgnore;
 import com.fasterxml.jackson.annotation.JsonProperty;
 
+import java.time.Instant;
+import java.util.UUID;
+
 public class AuditEvent {
+    /**
+     * Producer assigned UUID, null for events from producers that do not set one.
+     */
+    @JsonProperty
+    public String id;
     @JsonProperty
     public long accountId;
     @JsonProperty
@@ -12,13 +21,66 @@ public class AuditEvent {
     public String type;
     @JsonProperty
     public String timestamp;
+    @JsonIgnore
+    private Instant instant;
+    @JsonIgnore
+    private long idHigh;
+    @JsonIgnore
+    private long idLow;
+
+    public AuditEvent(long accountId, String data, String type, String timestamp) {
+        this(null, accountId, data, type, timestamp);
+    }
 
     @JsonCreator
-    public AuditEvent(@JsonProperty("accountId") long accountId, @JsonProperty("data") String data, @JsonProperty("type") String type, @JsonProperty("timestamp") String timestamp) {
+    public AuditEvent(@JsonProperty("id") String id, @JsonProperty("accountId") long accountId, @JsonProperty("data") String data, @JsonProperty("type") String type, @JsonProperty("timestamp") String timestamp) {
+        this.id = id;
         this.accountId = accountId;
         this.data = data;
         this.type = type;
         this.timestamp = timestamp;
+        if (id != null) {
+            UUID uuid = UUID.fromString(id);
+            this.idHigh = uuid.getMostSignificantBits();
+            this.idLow = uuid.getLeastSignificantBits();
+        }
+    }
+
+    public AuditEvent(long accountId, String data, String type, Instant instant) {
+        this(0, 0, accountId, data, type, instant);
+    }
+
+    /**
+     * For decoders that already have the id as two longs and the timestamp as an instant, the strings are only built
+     * if asked for. An id of {@code 0, 0} means there is none.
+     */
+    public AuditEvent(long idHigh, long idLow, long accountId, String data, String type, Instant instant) {
+        this.idHigh = idHigh;
+        this.idLow = idLow;
+        this.accountId = accountId;
+        this.data = data;
+        this.type = type;
+        this.instant = instant;
+    }
+
+    public String getId() {
+        if (id == null && hasId()) {
+            id = new UUID(idHigh, idLow).toString();
+        }
+        return id;
+    }
+
+    @JsonIgnore
+    public boolean hasId() {
+        return idHigh != 0 || idLow != 0;
+    }
+
+    long idHigh() {
+        return idHigh;
+    }
+
+    long idLow() {
+        return idLow;
     }
 
     public long getAccountId() {
@@ -34,16 +96,31 @@ public class AuditEvent {
     }
 
     public String getTimestamp() {
+        if (timestamp == null && instant != null) {
+            timestamp = instant.toString();
+        }
         return timestamp;
     }
 
+    /**
+     * The timestamp, parsed at most once.
+     */
+    @JsonIgnore
+    public Instant getInstant() {
+        if (instant == null && timestamp != null) {
+            instant = Instant.parse(timestamp);
+        }
+        return instant;
+    }
+
     @Override
     public String toString() {
         return "AuditEvent{" +
-                "accountId=" + accountId +
+                "id='" + getId() + '\'' +
+                ", accountId=" + accountId +
                 ", data='" + data + '\'' +
                 ", type='" + type + '\'' +
-                ", timestamp='" + timestamp + '\'' +
+                ", timestamp='" + getTimestamp() + '\'' +
                 '}';
     }
 }
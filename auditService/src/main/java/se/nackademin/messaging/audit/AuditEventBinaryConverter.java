@@ -0,0 +1,91 @@
+package se.nackademin.messaging.audit;
+
+import org.springframework.amqp.core.Message;
+import org.springframework.amqp.core.MessageProperties;
+import org.springframework.amqp.support.converter.MessageConversionException;
+import org.springframework.amqp.support.converter.MessageConverter;
+
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+
+/**
+ * Reads {@link AuditEvent}s in the binary layout of the business service,
+ * {@code [byte type][long idHigh][long idLow][long accountId][long epochNanos][int length][utf-8 data]}.
+ * The id is only there when the type code has {@link #HAS_ID} set, which older producers do not.
+ */
+public class AuditEventBinaryConverter implements MessageConverter {
+    public static final String CONTENT_TYPE = "application/x-audit-event";
+    static final byte OPEN_ACCOUNT = 1;
+    static final byte DEPOSIT = 2;
+    static final byte HAS_ID = (byte) 0x80;
+    private static final int FIXED_SIZE = 1 + 8 + 8 + 4;
+    private static final int ID_SIZE = 8 + 8;
+
+    @Override
+    public Message toMessage(Object object, MessageProperties messageProperties) {
+        if (!(object instanceof AuditEvent)) {
+            throw new MessageConversionException("Can only write AuditEvent, got " + object.getClass().getName());
+        }
+        AuditEvent event = (AuditEvent) object;
+        byte[] data = event.getData().getBytes(StandardCharsets.UTF_8);
+        ByteBuffer body = ByteBuffer.allocate(FIXED_SIZE + (event.hasId() ? ID_SIZE : 0) + data.length);
+        if (event.hasId()) {
+            body.put((byte) (typeCode(event.getType()) | HAS_ID)).putLong(event.idHigh()).putLong(event.idLow());
+        } else {
+            body.put(typeCode(event.getType()));
+        }
+        body.putLong(event.getAccountId())
+                .putLong(TimeIndex.epochNanos(event.getInstant()))
+                .putInt(data.length)
+                .put(data);
+        messageProperties.setContentType(CONTENT_TYPE);
+        messageProperties.setContentLength(body.capacity());
+        return new Message(body.array(), messageProperties);
+    }
+
+    @Override
+    public Object fromMessage(Message message) {
+        ByteBuffer body = ByteBuffer.wrap(message.getBody());
+        try {
+            byte code = body.get();
+            String type = typeName((byte) (code & ~HAS_ID));
+            long idHigh = (code & HAS_ID) != 0 ? body.getLong() : 0;
+            long idLow = (code & HAS_ID) != 0 ? body.getLong() : 0;
+            long accountId = body.getLong();
+            long epochNanos = body.getLong();
+            int length = body.getInt();
+            if (length < 0 || length != body.remaining()) {
+                throw new MessageConversionException("Data length " + length + " does not match the " + body.remaining() + " bytes left");
+            }
+            String data = new String(body.array(), body.position(), length, StandardCharsets.UTF_8);
+            return new AuditEvent(idHigh, idLow, accountId, data, type,
+                    Instant.ofEpochSecond(Math.floorDiv(epochNanos, 1_000_000_000L), Math.floorMod(epochNanos, 1_000_000_000L)));
+        } catch (BufferUnderflowException e) {
+            throw new MessageConversionException("Truncated audit event of " + message.getBody().length + " bytes", e);
+        }
+    }
+
+    private static byte typeCode(String type) {
+        switch (type) {
+            case "OPEN_ACCOUNT":
+                return OPEN_ACCOUNT;
+            case "DEPOSIT":
+                return DEPOSIT;
+            default:
+                throw new MessageConversionException("No wire code for event type " + type);
+        }
+    }
+
+    private static String typeName(byte code) {
+        switch (code) {
+            case OPEN_ACCOUNT:
+                return "OPEN_ACCOUNT";
+            case DEPOSIT:
+                return "DEPOSIT";
+            default:
+                throw new MessageConversionException("Unknown event type code " + code);
+        }
+    }
+}
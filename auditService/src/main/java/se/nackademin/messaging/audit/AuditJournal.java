@@ -0,0 +1,64 @@
+package se.nackademin.messaging.audit;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Durable record of every {@link AuditEntry} added to the {@link AuditLogRepository}, each with its log position.
+ */
+public interface AuditJournal extends Closeable {
+
+    AuditJournal NONE = new AuditJournal() {
+        @Override
+        public long recover(Recovery recovery) {
+            return 0;
+        }
+
+        @Override
+        public void append(long position, AuditEntry entry) {
+        }
+
+        @Override
+        public void close() {
+        }
+    };
+
+    /**
+     * Hands the last {@link #truncate} and then every stored entry at or after its position, with that position, to
+     * {@code recovery}, in the order they were appended, which may differ from position order, and prepares the journal
+     * for appends.
+     *
+     * @return number of recovered entries
+     */
+    long recover(Recovery recovery) throws IOException;
+
+    void append(long position, AuditEntry entry);
+
+    /**
+     * Appends entries at consecutive positions from {@code firstPosition}.
+     */
+    default void appendAll(long firstPosition, List<AuditEntry> entries) {
+        for (int i = 0; i < entries.size(); i++) {
+            append(firstPosition + i, entries.get(i));
+        }
+    }
+
+    /**
+     * Records that the log now starts at {@code first}, together with the summaries of every entry compacted so far,
+     * and lets go of entries before it. Recovery starts at {@code first} from then on.
+     */
+    default void truncate(long first, List<AccountSummary> compacted) throws IOException {
+    }
+
+    @FunctionalInterface
+    interface Recovery {
+        /**
+         * Called first, if the journal was truncated.
+         */
+        default void truncated(long first, List<AccountSummary> compacted) {
+        }
+
+        void recovered(long position, AuditEntry entry);
+    }
+}
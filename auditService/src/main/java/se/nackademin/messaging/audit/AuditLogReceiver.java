@@ -3,12 +3,16 @@ package se.nackademin.messaging.audit;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-import org.springframework.amqp.rabbit.annotation.RabbitListener;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Component;
+import se.nackademin.messaging.common.RateLimitedLog;
 
-import java.io.IOException;
+import java.time.Duration;
 import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.function.IntConsumer;
 
 @Component
 public class AuditLogReceiver {
@@ -17,14 +21,54 @@ public class AuditLogReceiver {
     @Autowired
     AuditLogRepository auditLogRepository;
 
-    @RabbitListener(queues = "audit-log")
-    public void receiveMessage(AuditEvent event) throws IOException {
-        LOG.info("Received message! {}", event);
-        auditLogRepository.add
-                (new AuditEntry(AuditEntry.AuditType.valueOf(event.getType()),
-                        event.getAccountId(),
-                        Instant.parse(event.getTimestamp()),
-                        event.getData()));
+    @Autowired
+    DedupWindow dedupWindow;
+
+    @Autowired
+    ConsumeMetrics metrics;
+
+    private final RateLimitedLog stored = new RateLimitedLog(Duration.ofSeconds(10));
+
+    /**
+     * Called by the listener of each audit queue, see {@link AuditShardListeners}.
+     * <p>
+     * Events whose id was stored recently are redeliveries and dropped. Each id is remembered as soon as its entry is
+     * stored, so a batch that failed partway only stores the rest when it comes back. Events without an id are never
+     * recognised, the caller retries only those {@code handled} was not called for.
+     *
+     * @param handled called with the index of each event once it is stored or dropped as a redelivery
+     */
+    public void receiveMessages(List<AuditEvent> events, IntConsumer handled) {
+        LOG.debug("Received {} messages", events.size());
+        metrics.batchSize.record(events.size());
+        List<AuditEntry> entries = new ArrayList<>(events.size());
+        int[] indexes = new int[events.size()];
+        for (int i = 0; i < events.size(); i++) {
+            AuditEvent event = events.get(i);
+            if (dedupWindow.contains(event.idHigh(), event.idLow())) {
+                LOG.debug("Dropping redelivered audit event {}", event.getId());
+                metrics.duplicates.increment();
+                handled.accept(i);
+                continue;
+            }
+            indexes[entries.size()] = i;
+            entries.add(toEntry(event));
+        }
+        long start = System.nanoTime();
+        auditLogRepository.addAll(entries, index -> {
+            AuditEvent event = events.get(indexes[index]);
+            dedupWindow.add(event.idHigh(), event.idLow());
+            handled.accept(indexes[index]);
+        });
+        metrics.append.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        long now = TimeIndex.epochNanos(Instant.now());
+        for (AuditEntry entry : entries) {
+            metrics.endToEnd.record(Math.max(0, now - TimeIndex.epochNanos(entry.getTimestamp())), TimeUnit.NANOSECONDS);
+        }
+        long count = stored.add(entries.size());
+        if (count > 0) {
+            LOG.info("Stored {} audit events since the last report", count);
+        }
 
 
         /* TODO: Uppgift 2: Spara eventet!
@@ -42,4 +86,29 @@ public class AuditLogReceiver {
             För att se att allt fungerar kör testet AuditApplicationTest
          */
     }
+
+    /**
+     * Stores the events, see {@link #receiveMessages(List, IntConsumer)}.
+     */
+    public void receiveMessages(List<AuditEvent> events) {
+        receiveMessages(events, index -> {
+        });
+    }
+
+    /**
+     * @throws IllegalArgumentException if the event has no audit type that can be stored
+     */
+    static AuditEntry toEntry(AuditEvent event) {
+        AuditEntry.AuditType type = AuditEntry.AuditType.valueOf(event.getType());
+        if (type == AuditEntry.AuditType.SUMMARY) {
+            // Only made up by the log for compacted entries, one from a producer would look like one
+            throw new IllegalArgumentException("Audit events of type " + type + " cannot be stored");
+        }
+        return new AuditEntry(type,
+                event.getAccountId(),
+                event.getInstant(),
+                event.getData(),
+                event.idHigh(),
+                event.idLow());
+    }
 }
@@ -1,25 +1,802 @@
 package se.nackademin.messaging.audit;
 
 
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.time.Instant;
+import java.util.AbstractList;
 import java.util.ArrayList;
+import java.util.Iterator;
 import java.util.List;
-import java.util.concurrent.atomic.AtomicReference;
+import java.util.RandomAccess;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.IntConsumer;
 
-public class AuditLogRepository {
-    private final AtomicReference<List<AuditEntry>> db;
+/**
+ * Append-only audit log stored in fixed-size segments.
+ * <p>
+ * Writers claim a position by advancing a single atomic tail index and then publish the entry into its slot, so
+ * concurrent listener threads never block each other on the log itself. Everything that can fail, the capacity check
+ * and the journal write, happens around the claim so that a claimed slot is always filled: with the entry, or with a
+ * tombstone that readers skip if storing it failed after all. A reader that finds a claimed slot still empty waits a
+ * bounded time. Readers get a snapshot view bounded by the tail at the time of the call; entries are never copied. A
+ * secondary {@link AccountIndex} answers per-account lookups without scanning the log, {@link AccountAggregates} keeps
+ * per-account totals and a {@link TimeIndex} serves time ordered pages. The account structures are locked in stripes by
+ * account, so writers of different accounts seldom wait on them. Entries are written to an {@link AuditJournal} with
+ * their positions before they become visible, {@link #recover()} puts them back at the same positions and rebuilds the
+ * indexes, so positions handed to clients stay valid across a restart.
+ * <p>
+ * Only the newest {@code hotSegments} segments keep their entries as objects. When a new segment is started, the one
+ * that falls out of that window is sealed in the background into a {@link ColdSegment}, which takes a fraction of the
+ * heap, and its objects are dropped. Reads go to whichever tier holds the position, entries of cold segments are
+ * decoded on every read.
+ * <p>
+ * With {@code offHeap} the hot segments are {@link OffHeapSegment}s, which keep their entries in direct memory columns
+ * and hand out views that read them, instead of holding the objects that were added.
+ * <p>
+ * Segments are also the unit of retention, see {@link AuditRetention}. {@link #dropOldestSegment} removes the oldest
+ * one whole by clearing its slot and moving {@link #first()} past it, reads stop at the new start right away.
+ * Positions are never reused, the segment slots form a ring of {@value #MAX_SEGMENTS}. The time index of a dropped
+ * segment goes with it, its account postings are removed by {@link #removeDropped()}, until then readers skip them. Dropped entries can be compacted into one summary per account, which {@link #findByAccountId} lists first.
+ * {@link #removeDropped()} also truncates the journal, which keeps the new start and the summaries, so a restart only
+ * replays the retained entries.
+ */
+public class AuditLogRepository implements Closeable {
+    static final int SEGMENT_SHIFT = 14;
+    static final int SEGMENT_SIZE = 1 << SEGMENT_SHIFT;
+    private static final int SEGMENT_MASK = SEGMENT_SIZE - 1;
+    static final int MAX_SEGMENTS = 1 << 16;
+    private static final int RING_MASK = MAX_SEGMENTS - 1;
+    private static final int STORE_SPINS = 1000;
+    private static final long STORE_PARK_NANOS = TimeUnit.MICROSECONDS.toNanos(100);
+    private static final long STORE_TIMEOUT_NANOS = TimeUnit.SECONDS.toNanos(5);
+
+    private final AtomicReferenceArray<HotSegment> segments;
+    private final AtomicReferenceArray<ColdSegment> coldSegments;
+    private final AtomicLong coldBytes = new AtomicLong();
+    private final AtomicLong tail;
+    private final AtomicLong head = new AtomicLong();
+    // Sealing and dropping segments, never taken by writers or readers
+    private final ReentrantLock maintenance = new ReentrantLock();
+    private final AccountIndex accountIndex;
+    private final AccountAggregates accountAggregates;
+    private final AccountAggregates compacted;
+    private final TimeIndex timeIndex;
+    private final AuditJournal journal;
+    private final int hotSegments;
+    private final boolean offHeap;
+    private final Executor sealer;
 
     public AuditLogRepository() {
-        db = new AtomicReference<>(new ArrayList<>());
+        this(AuditJournal.NONE);
+    }
+
+    public AuditLogRepository(AuditJournal journal) {
+        this(journal, 0, false, null);
+    }
+
+    /**
+     * @param hotSegments segments of {@value #SEGMENT_SIZE} entries kept as objects, older ones are sealed. 0 never
+     *                    seals
+     * @param offHeap     keep the entries of hot segments in direct memory
+     */
+    public AuditLogRepository(AuditJournal journal, int hotSegments, boolean offHeap) {
+        this(journal, hotSegments, offHeap, hotSegments > 0 ? Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "audit-segment-sealer");
+            thread.setDaemon(true);
+            return thread;
+        }) : null);
+    }
+
+    AuditLogRepository(AuditJournal journal, int hotSegments, boolean offHeap, Executor sealer) {
+        this.journal = journal;
+        this.hotSegments = hotSegments;
+        this.offHeap = offHeap;
+        this.sealer = sealer;
+        segments = new AtomicReferenceArray<>(MAX_SEGMENTS);
+        coldSegments = new AtomicReferenceArray<>(MAX_SEGMENTS);
+        tail = new AtomicLong();
+        accountIndex = new AccountIndex();
+        accountAggregates = new AccountAggregates();
+        compacted = new AccountAggregates();
+        timeIndex = new TimeIndex(this::timestamps);
     }
 
+    /**
+     * A view of the positions from {@link #first()} to {@link #size()} at the time of the call. Reading one that
+     * retention has dropped since, or that holds no entry, throws {@link IllegalStateException}; queries that must not
+     * fail while retention runs use {@link #page} or {@link #findByAccountId}.
+     */
     public List<AuditEntry> getAll() {
-        return List.copyOf(db.get());
+        return new Snapshot(this, first(), size());
+    }
+
+    /**
+     * The account's entries, after one summary of its compacted entries if it has any. The list is filled here, so
+     * retention running while it is read changes nothing.
+     */
+    public List<AuditEntry> findByAccountId(long accountId) {
+        AccountIndex.Postings postings = postings(accountId);
+        int firstRetained = firstRetained(postings);
+        List<AuditEntry> entries = new ArrayList<>(postings.count() - firstRetained + 1);
+        AuditEntry summary = compactedSummary(accountId);
+        if (summary != null) {
+            entries.add(summary);
+        }
+        for (int i = firstRetained; i < postings.count(); i++) {
+            AuditEntry entry = retained(postings.position(i));
+            if (entry != null) {
+                entries.add(entry);
+            }
+        }
+        return entries;
+    }
+
+    /**
+     * Totals of the account's entries, kept up to date as entries are added. Dropped entries still count, after a
+     * restart only those that were compacted.
+     */
+    public AccountSummary summary(long accountId) {
+        return accountAggregates.get(accountId);
+    }
+
+    AccountIndex.Postings postings(long accountId) {
+        return accountIndex.get(accountId);
+    }
+
+    /**
+     * Returns up to {@code size} entries with {@code from <= timestamp < to} ordered by timestamp, starting after
+     * {@code cursor}. Bounds and cursor are optional.
+     *
+     * @throws IllegalArgumentException if the cursor was not produced by this repository
+     */
+    public AuditPage page(Instant from, Instant to, String cursor, int size) {
+        if (size < 1) {
+            throw new IllegalArgumentException("Page size must be positive, was " + size);
+        }
+        TimeIndex.Key after = cursor == null ? null : TimeIndex.Key.fromCursor(cursor);
+        Iterator<TimeIndex.Key> keys = timeIndex.range(from, to, after, first(), size());
+        List<AuditEntry> entries = new ArrayList<>(Math.min(size, 1024));
+        TimeIndex.Key last = null;
+        while (entries.size() < size && keys.hasNext()) {
+            TimeIndex.Key key = keys.next();
+            AuditEntry entry = retained(key.position());
+            if (entry != null) {
+                last = key;
+                entries.add(entry);
+            }
+        }
+        return new AuditPage(entries, keys.hasNext() ? last.toCursor() : null);
+    }
+
+    /**
+     * Like {@link #page}, but with the entries' log positions and the bound as a key, for merging across nodes.
+     */
+    List<AuditRecord> records(Instant from, Instant to, TimeIndex.Key after, int size) {
+        if (size < 1) {
+            throw new IllegalArgumentException("Page size must be positive, was " + size);
+        }
+        List<AuditRecord> records = new ArrayList<>(Math.min(size, 1024));
+        Iterator<TimeIndex.Key> keys = timeIndex.range(from, to, after, first(), size());
+        while (records.size() < size && keys.hasNext()) {
+            long position = keys.next().position();
+            AuditEntry entry = retained(position);
+            if (entry != null) {
+                records.add(new AuditRecord(position, entry));
+            }
+        }
+        return records;
+    }
+
+    List<AuditRecord> accountRecords(long accountId) {
+        AccountIndex.Postings postings = postings(accountId);
+        int firstRetained = firstRetained(postings);
+        List<AuditRecord> records = new ArrayList<>(postings.count() - firstRetained + 1);
+        AuditEntry summary = compactedSummary(accountId);
+        if (summary != null) {
+            // Its timestamp is that of the newest compacted entry, so it sorts before the ones still in the log
+            records.add(new AuditRecord(-1, summary));
+        }
+        for (int i = firstRetained; i < postings.count(); i++) {
+            AuditEntry entry = retained(postings.position(i));
+            if (entry != null) {
+                records.add(new AuditRecord(postings.position(i), entry));
+            }
+        }
+        return records;
+    }
+
+    /**
+     * Loads every entry of the journal, must be called once before the repository is used.
+     *
+     * @return number of recovered entries
+     */
+    public long recover() throws IOException {
+        long recovered = journal.recover(new AuditJournal.Recovery() {
+            @Override
+            public void truncated(long first, List<AccountSummary> summaries) {
+                // Retention only drops whole segments, so this is where one starts
+                head.set(first);
+                tail.set(first);
+                for (AccountSummary summary : summaries) {
+                    compacted.add(summary);
+                    accountAggregates.add(summary);
+                }
+            }
+
+            @Override
+            public void recovered(long position, AuditEntry entry) {
+                restore(position, entry);
+            }
+        });
+        // Claimed positions whose journal write failed or was lost in a crash
+        for (long position = first(); position < size(); position++) {
+            if (!filled(position)) {
+                tombstone(position, 1);
+            }
+        }
+        if (hotSegments > 0 && size() > 0) {
+            // The segments that had gaps while they were recovered
+            long coldIndex = ((size() - 1) >>> SEGMENT_SHIFT) - hotSegments;
+            sealer.execute(() -> sealUpTo(coldIndex));
+        }
+        return recovered;
+    }
+
+    /**
+     * Stores a recovered entry at the position it had, which may be ahead of the tail or fill a slot skipped earlier.
+     */
+    private void restore(long position, AuditEntry auditEntry) {
+        if (position < first() || position < size() && filled(position)) {
+            return;
+        }
+        if (position >= size()) {
+            claim(Math.toIntExact(position + 1 - size()));
+        }
+        store(position, auditEntry);
     }
 
+    /**
+     * @throws IllegalStateException if the log is full
+     */
     public void add(AuditEntry auditEntry) {
-        db.getAndUpdate(l -> {
-            l.add(auditEntry);
-            return l;
+        long position = claim(1);
+        try {
+            journal.append(position, auditEntry);
+        } catch (RuntimeException e) {
+            tombstone(position, 1);
+            throw e;
+        }
+        store(position, auditEntry);
+    }
+
+    /**
+     * Appends the entries in order, the whole batch claims its positions with a single update of the tail.
+     *
+     * @throws IllegalStateException if the log is full
+     */
+    public void addAll(List<AuditEntry> auditEntries) {
+        addAll(auditEntries, index -> {
         });
     }
+
+    /**
+     * Like {@link #addAll(List)}, and calls {@code stored} with the index of each entry once it is in the log. When
+     * this throws, the entries it was called for are stored all the same.
+     */
+    void addAll(List<AuditEntry> auditEntries, IntConsumer stored) {
+        if (auditEntries.isEmpty()) {
+            return;
+        }
+        long first = claim(auditEntries.size());
+        try {
+            journal.appendAll(first, auditEntries);
+        } catch (RuntimeException e) {
+            tombstone(first, auditEntries.size());
+            throw e;
+        }
+        RuntimeException failure = null;
+        for (int i = 0; i < auditEntries.size(); i++) {
+            try {
+                store(first + i, auditEntries.get(i));
+                stored.accept(i);
+            } catch (RuntimeException e) {
+                // The rest of the batch is still stored, every claimed slot gets filled
+                if (failure == null) {
+                    failure = e;
+                } else {
+                    failure.addSuppressed(e);
+                }
+            }
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    /**
+     * Claims {@code count} consecutive positions, unless they would not fit in the ring of segments.
+     */
+    private long claim(int count) {
+        while (true) {
+            long first = tail.get();
+            long lastIndex = (first + count - 1) >>> SEGMENT_SHIFT;
+            if (lastIndex - (first() >>> SEGMENT_SHIFT) >= MAX_SEGMENTS) {
+                throw new IllegalStateException("Audit log is full, capacity is " + ((long) MAX_SEGMENTS << SEGMENT_SHIFT) + " entries");
+            }
+            if (tail.compareAndSet(first, first + count)) {
+                return first;
+            }
+        }
+    }
+
+    /**
+     * Stores the entry in its claimed slot, or a tombstone if that fails.
+     */
+    private void store(long position, AuditEntry auditEntry) {
+        HotSegment segment = segmentFor(position);
+        try {
+            segment.set((int) (position & SEGMENT_MASK), auditEntry);
+        } catch (RuntimeException e) {
+            segment.tombstone((int) (position & SEGMENT_MASK));
+            throw e;
+        }
+        accountIndex.add(auditEntry.getAccountId(), position);
+        accountAggregates.add(auditEntry);
+        timeIndex.add(auditEntry.getTimestamp(), position);
+    }
+
+    /**
+     * Whether the claimed position holds an entry or a tombstone, without waiting. A sealed segment is full.
+     */
+    private boolean filled(long position) {
+        HotSegment segment = segments.get(ring(position >>> SEGMENT_SHIFT));
+        if (segment != null) {
+            return segment.get((int) (position & SEGMENT_MASK)) != null;
+        }
+        return coldSegments.get(ring(position >>> SEGMENT_SHIFT)) != null;
+    }
+
+    private void tombstone(long first, int count) {
+        for (long position = first; position < first + count; position++) {
+            segmentFor(position).tombstone((int) (position & SEGMENT_MASK));
+        }
+    }
+
+    /**
+     * Positions handed out so far, the position the next entry gets.
+     */
+    public long size() {
+        return tail.get();
+    }
+
+    /**
+     * Position of the oldest entry still in the log, 0 until retention has dropped a segment.
+     */
+    public long first() {
+        return head.get();
+    }
+
+    /**
+     * Heap taken by the columns of the sealed segments.
+     */
+    public long coldBytes() {
+        return coldBytes.get();
+    }
+
+    /**
+     * Entries held in sealed segments.
+     */
+    public long coldEntries() {
+        long count = 0;
+        for (long index = first() >>> SEGMENT_SHIFT; index < segmentsInUse(); index++) {
+            if (coldSegments.get(ring(index)) != null) {
+                count += SEGMENT_SIZE;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Direct memory taken by off-heap hot segments.
+     */
+    public long offHeapBytes() {
+        long bytes = 0;
+        for (long index = first() >>> SEGMENT_SHIFT; index < segmentsInUse(); index++) {
+            HotSegment segment = segments.get(ring(index));
+            if (segment != null) {
+                bytes += segment.offHeapBytes();
+            }
+        }
+        return bytes;
+    }
+
+    /**
+     * Memory taken by the entries in the log, not counting the indexes. Sealed and off-heap segments count what they
+     * allocated, entries kept as objects {@value HotSegment#ESTIMATED_OBJECT_BYTES} bytes each.
+     */
+    public long retainedBytes() {
+        long bytes = 0;
+        for (long index = first() >>> SEGMENT_SHIFT; index < segmentsInUse(); index++) {
+            bytes += segmentBytes(index);
+        }
+        return bytes;
+    }
+
+    /**
+     * Newest timestamp in the oldest segment in epoch nanos, or {@link Long#MAX_VALUE} if that segment cannot be
+     * dropped yet because it is still being filled.
+     */
+    long oldestSegmentNewestNanos() {
+        maintenance.lock();
+        try {
+            long index = first() >>> SEGMENT_SHIFT;
+            if (!droppable(index)) {
+                return Long.MAX_VALUE;
+            }
+            long newest = Long.MIN_VALUE;
+            for (int slot = 0; slot < SEGMENT_SIZE; slot++) {
+                AuditEntry entry = stored((index << SEGMENT_SHIFT) + slot);
+                if (entry != null) {
+                    newest = Math.max(newest, TimeIndex.epochNanos(entry.getTimestamp()));
+                }
+            }
+            return newest;
+        } finally {
+            maintenance.unlock();
+        }
+    }
+
+    /**
+     * Drops the oldest segment if every position in it has been stored. Its entries are gone from reads at once, their
+     * account postings stay until {@link #removeDropped()}.
+     *
+     * @param compact add the segment's entries to the summaries of their accounts first
+     * @return whether a segment was dropped
+     */
+    boolean dropOldestSegment(boolean compact) {
+        maintenance.lock();
+        try {
+            long index = first() >>> SEGMENT_SHIFT;
+            if (!droppable(index)) {
+                return false;
+            }
+            long start = index << SEGMENT_SHIFT;
+            if (compact) {
+                for (int slot = 0; slot < SEGMENT_SIZE; slot++) {
+                    AuditEntry entry = stored(start + slot);
+                    if (entry != null) {
+                        compacted.add(entry);
+                    }
+                }
+            }
+            // Cleared before the head moves, so a writer that sees the new head can reuse the slot
+            ColdSegment cold = coldSegments.getAndSet(ring(index), null);
+            if (cold != null) {
+                coldBytes.addAndGet(-cold.bytes());
+            }
+            segments.set(ring(index), null);
+            head.set(start + SEGMENT_SIZE);
+            timeIndex.remove(index);
+            return true;
+        } finally {
+            maintenance.unlock();
+        }
+    }
+
+    /**
+     * Removes the account postings of dropped entries and truncates the journal to the new start of the log, with the
+     * summaries compacted so far.
+     */
+    void removeDropped() {
+        long start;
+        List<AccountSummary> summaries;
+        maintenance.lock();
+        try {
+            start = first();
+            summaries = compacted.all();
+        } finally {
+            maintenance.unlock();
+        }
+        accountIndex.removeBefore(start);
+        try {
+            journal.truncate(start, summaries);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not truncate the audit journal to position " + start, e);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (sealer instanceof ExecutorService) {
+            ExecutorService executor = (ExecutorService) sealer;
+            executor.shutdown();
+            try {
+                executor.awaitTermination(10, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        journal.close();
+    }
+
+    /**
+     * @throws IllegalStateException if the entry has been dropped, storing it failed or it was not stored in time
+     */
+    AuditEntry get(long position) {
+        AuditEntry entry = stored(position);
+        if (entry == null) {
+            throw new IllegalStateException("Audit log position " + position + " holds no entry, storing it failed");
+        }
+        return entry;
+    }
+
+    /**
+     * The entry, or null for a tombstone. A position that is claimed but not stored yet is waited for, spinning
+     * briefly and then parking, for at most {@code STORE_TIMEOUT_NANOS}.
+     *
+     * @throws IllegalStateException if the entry has been dropped, was never claimed or was not stored in time
+     */
+    private AuditEntry stored(long position) {
+        if (position >= size()) {
+            throw new IllegalStateException("Audit log position " + position + " has not been written, the log ends at " + size());
+        }
+        int index = ring(position >>> SEGMENT_SHIFT);
+        int slot = (int) (position & SEGMENT_MASK);
+        long deadline = 0;
+        for (int spins = 0; ; spins++) {
+            if (position < head.get()) {
+                throw new IllegalStateException("Audit log position " + position + " has been dropped, the log starts at " + head.get());
+            }
+            HotSegment segment = segments.get(index);
+            if (segment != null) {
+                AuditEntry entry = segment.get(slot);
+                if (entry != null) {
+                    return entry == HotSegment.TOMBSTONE ? null : entry;
+                }
+            } else {
+                // Sealing publishes the cold segment before it drops the hot one
+                ColdSegment cold = coldSegments.get(index);
+                if (cold != null) {
+                    return cold.get(slot);
+                }
+            }
+            // Claimed but its writer has not stored it yet
+            if (spins < STORE_SPINS) {
+                Thread.onSpinWait();
+            } else if (deadline == 0) {
+                deadline = System.nanoTime() + STORE_TIMEOUT_NANOS;
+            } else if (System.nanoTime() - deadline > 0) {
+                throw new IllegalStateException("Audit log position " + position + " was not stored within "
+                        + TimeUnit.NANOSECONDS.toMillis(STORE_TIMEOUT_NANOS) + " ms");
+            } else {
+                LockSupport.parkNanos(STORE_PARK_NANOS);
+            }
+        }
+    }
+
+    /**
+     * The entry, or null if it has been dropped, which may happen while a query runs, or holds no entry.
+     */
+    AuditEntry retained(long position) {
+        try {
+            return stored(position);
+        } catch (IllegalStateException e) {
+            return null;
+        }
+    }
+
+    private AuditEntry compactedSummary(long accountId) {
+        AccountSummary summary = compacted.get(accountId);
+        if (summary.getEntries() == 0) {
+            return null;
+        }
+        return new AuditEntry(AuditEntry.AuditType.SUMMARY, accountId, summary.getLastAt(),
+                summary.getEntries() + " entries compacted, " + summary.getDeposits() + " deposits of "
+                        + summary.getDepositSum() + " in total, from " + summary.getFirstAt());
+    }
+
+    private int firstRetained(AccountIndex.Postings postings) {
+        int index = postings.first();
+        while (index < postings.count() && postings.position(index) < first()) {
+            index++;
+        }
+        return index;
+    }
+
+    private long segmentsInUse() {
+        return (size() + SEGMENT_MASK) >>> SEGMENT_SHIFT;
+    }
+
+    private boolean droppable(long index) {
+        if ((index + 1) << SEGMENT_SHIFT > size()) {
+            return false;
+        }
+        HotSegment segment = segments.get(ring(index));
+        if (segment != null) {
+            for (int slot = 0; slot < SEGMENT_SIZE; slot++) {
+                if (segment.get(slot) == null) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    private long segmentBytes(long index) {
+        HotSegment segment = segments.get(ring(index));
+        if (segment != null) {
+            return segment.bytes();
+        }
+        ColdSegment cold = coldSegments.get(ring(index));
+        return cold != null ? cold.bytes() : 0;
+    }
+
+    /**
+     * Seals the hot segments up to {@code last}, including older ones that could not be sealed before.
+     */
+    private void sealUpTo(long last) {
+        for (long index = first() >>> SEGMENT_SHIFT; index <= last; index++) {
+            if (segments.get(ring(index)) != null) {
+                seal(index);
+            }
+        }
+    }
+
+    /**
+     * Seals the segment, tombstones included, unless a slot of it is not stored yet. Then it is tried again when the
+     * next segment is started or recovery ends.
+     */
+    private void seal(long index) {
+        long start = index << SEGMENT_SHIFT;
+        HotSegment segment = segments.get(ring(index));
+        if (segment == null || start < first() || start + SEGMENT_SIZE > size()) {
+            return;
+        }
+        AuditEntry[] entries = new AuditEntry[SEGMENT_SIZE];
+        for (int slot = 0; slot < SEGMENT_SIZE; slot++) {
+            AuditEntry entry = segment.get(slot);
+            if (entry == null) {
+                // Its writer has not stored it yet, or recovery has not got to it, not worth waiting for
+                return;
+            }
+            entries[slot] = entry == HotSegment.TOMBSTONE ? null : entry;
+        }
+        ColdSegment cold = ColdSegment.seal(entries);
+        long[] nanos = new long[SEGMENT_SIZE];
+        for (int slot = 0; slot < SEGMENT_SIZE; slot++) {
+            nanos[slot] = entries[slot] == null ? TimeIndex.NO_ENTRY : TimeIndex.epochNanos(entries[slot].getTimestamp());
+        }
+        maintenance.lock();
+        try {
+            // Dropped meanwhile, or sealed by a seal that ran at the same time
+            if (start < first() || segments.get(ring(index)) != segment) {
+                return;
+            }
+            timeIndex.seal(index, nanos);
+            coldSegments.set(ring(index), cold);
+            segments.set(ring(index), null);
+            coldBytes.addAndGet(cold.bytes());
+        } finally {
+            maintenance.unlock();
+        }
+    }
+
+    /**
+     * Reads the timestamps of a segment for the {@link TimeIndex} without waiting for writers, see
+     * {@link TimeIndex.Timestamps}.
+     */
+    private int timestamps(long index, int from, int to, long[] nanos) {
+        // Sealing publishes the cold segment before it drops the hot one, an old reference still reads the same
+        HotSegment segment = segments.get(ring(index));
+        ColdSegment cold = segment == null ? coldSegments.get(ring(index)) : null;
+        int unstored = segment == null && cold == null ? from : to;
+        for (int slot = from; slot < to; slot++) {
+            AuditEntry entry = null;
+            if (segment != null) {
+                entry = segment.get(slot);
+                if (entry == null && unstored == to) {
+                    unstored = slot;
+                }
+            } else if (cold != null) {
+                entry = cold.get(slot);
+            }
+            nanos[slot - from] = entry == null || entry == HotSegment.TOMBSTONE ? TimeIndex.NO_ENTRY : TimeIndex.epochNanos(entry.getTimestamp());
+        }
+        return unstored;
+    }
+
+    /**
+     * The segment of a claimed position, created by the first writer that needs it.
+     */
+    private HotSegment segmentFor(long position) {
+        long index = position >>> SEGMENT_SHIFT;
+        HotSegment segment = segments.get(ring(index));
+        if (segment == null) {
+            HotSegment created = newSegment();
+            if (segments.compareAndSet(ring(index), null, created) && hotSegments > 0 && index >= hotSegments) {
+                long coldIndex = index - hotSegments;
+                sealer.execute(() -> sealUpTo(coldIndex));
+            }
+            segment = segments.get(ring(index));
+        }
+        return segment;
+    }
+
+    private HotSegment newSegment() {
+        if (offHeap) {
+            try {
+                return new OffHeapSegment(SEGMENT_SIZE);
+            } catch (OutOfMemoryError e) {
+                // Out of direct memory, the claimed slots must still be filled
+                return new HeapSegment(SEGMENT_SIZE);
+            }
+        }
+        return new HeapSegment(SEGMENT_SIZE);
+    }
+
+    private static int ring(long index) {
+        return (int) (index & RING_MASK);
+    }
+
+    private static class HeapSegment implements HotSegment {
+        private final AtomicReferenceArray<AuditEntry> entries;
+
+        HeapSegment(int size) {
+            entries = new AtomicReferenceArray<>(size);
+        }
+
+        @Override
+        public void set(int slot, AuditEntry entry) {
+            entries.set(slot, entry);
+        }
+
+        @Override
+        public void tombstone(int slot) {
+            entries.set(slot, TOMBSTONE);
+        }
+
+        @Override
+        public AuditEntry get(int slot) {
+            return entries.get(slot);
+        }
+
+        @Override
+        public long bytes() {
+            return (long) entries.length() * ESTIMATED_OBJECT_BYTES;
+        }
+    }
+
+    private static class Snapshot extends AbstractList<AuditEntry> implements RandomAccess {
+        private final AuditLogRepository log;
+        private final long from;
+        private final int size;
+
+        Snapshot(AuditLogRepository log, long from, long to) {
+            this.log = log;
+            this.from = from;
+            this.size = Math.toIntExact(to - from);
+        }
+
+        @Override
+        public AuditEntry get(int index) {
+            if (index < 0 || index >= size) {
+                throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+            }
+            return log.get(from + index);
+        }
+
+        @Override
+        public int size() {
+            return size;
+        }
+    }
 }
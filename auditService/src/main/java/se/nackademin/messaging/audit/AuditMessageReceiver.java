@@ -0,0 +1,33 @@
+package se.nackademin.messaging.audit;
+
+import org.springframework.amqp.core.Message;
+
+import java.util.List;
+
+/**
+ * Receives batches of audit messages from whatever transport delivers them, the RabbitMQ listener containers or a
+ * broker in the same JVM, selected with {@code audit.transport}.
+ */
+public interface AuditMessageReceiver {
+
+    /**
+     * The transports the application can be configured with in {@code audit.transport}.
+     */
+    enum Transport {
+        /** Listener containers consume the audit queues on RabbitMQ. */
+        RABBIT,
+        /** No listener containers start, a transport in this JVM calls {@link #receive} for the queues. */
+        IN_PROCESS
+    }
+
+    /**
+     * The audit queues this node consumes, a transport delivers the messages of each with one consumer.
+     */
+    List<String> queues();
+
+    /**
+     * Handles a batch taken from {@code queue}. The batch counts as handled when this returns, if it throws the
+     * transport delivers it again.
+     */
+    void receive(String queue, List<Message> messages);
+}
@@ -0,0 +1,26 @@
+package se.nackademin.messaging.audit;
+
+import java.time.Instant;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * One audit node as seen by {@link AuditCluster}, either this process or a peer.
+ */
+interface AuditNode {
+
+    /**
+     * Up to {@code size} records with {@code from <= timestamp < to} in time order, after {@code after} if given.
+     */
+    CompletableFuture<List<AuditRecord>> page(Instant from, Instant to, TimeIndex.Key after, int size);
+
+    /**
+     * Every record of the account stored on the node, in append order.
+     */
+    CompletableFuture<List<AuditRecord>> account(long accountId);
+
+    /**
+     * Totals of the account's records stored on the node.
+     */
+    CompletableFuture<AccountSummary> summary(long accountId);
+}
@@ -0,0 +1,45 @@
+package se.nackademin.messaging.audit;
+
+import org.springframework.http.HttpStatus;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.server.ResponseStatusException;
+
+import java.time.Instant;
+import java.util.List;
+
+/**
+ * What a node answers for the entries it stores itself, queried by the other nodes of the {@link AuditCluster}.
+ */
+@RestController
+public class AuditNodeResource {
+    private final AuditLogRepository auditLog;
+
+    public AuditNodeResource(AuditLogRepository auditLog) {
+        this.auditLog = auditLog;
+    }
+
+    @GetMapping("/internal/audit/page")
+    public List<AuditRecord> page(@RequestParam(value = "from", required = false) Instant from,
+                                  @RequestParam(value = "to", required = false) Instant to,
+                                  @RequestParam(value = "after", required = false) String after,
+                                  @RequestParam("size") int size) {
+        try {
+            return auditLog.records(from, to, after == null ? null : TimeIndex.Key.fromCursor(after), size);
+        } catch (IllegalArgumentException e) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, e.getMessage(), e);
+        }
+    }
+
+    @GetMapping("/internal/audit/account/{accountId}")
+    public List<AuditRecord> account(@PathVariable("accountId") long accountId) {
+        return auditLog.accountRecords(accountId);
+    }
+
+    @GetMapping("/internal/audit/account/{accountId}/summary")
+    public AccountSummary summary(@PathVariable("accountId") long accountId) {
+        return auditLog.summary(accountId);
+    }
+}
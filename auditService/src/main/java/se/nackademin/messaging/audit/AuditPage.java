@@ -0,0 +1,24 @@
+package se.nackademin.messaging.audit;
+
+import java.util.List;
+
+public class AuditPage {
+    private final List<AuditEntry> entries;
+    private final String nextCursor;
+
+    public AuditPage(List<AuditEntry> entries, String nextCursor) {
+        this.entries = entries;
+        this.nextCursor = nextCursor;
+    }
+
+    public List<AuditEntry> getEntries() {
+        return entries;
+    }
+
+    /**
+     * Cursor to pass to get the following page, null on the last page.
+     */
+    public String getNextCursor() {
+        return nextCursor;
+    }
+}
@@ -0,0 +1,70 @@
+package se.nackademin.messaging.audit;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+import java.time.Instant;
+import java.util.UUID;
+
+/**
+ * An entry together with its position in the log of the node that stores it, what nodes exchange to merge results.
+ */
+public class AuditRecord {
+    private final long position;
+    private final AuditEntry.AuditType type;
+    private final long accountId;
+    private final Instant timestamp;
+    private final String data;
+    private final String id;
+
+    @JsonCreator
+    public AuditRecord(@JsonProperty("position") long position,
+                       @JsonProperty("id") String id,
+                       @JsonProperty("type") AuditEntry.AuditType type,
+                       @JsonProperty("accountId") long accountId,
+                       @JsonProperty("timestamp") Instant timestamp,
+                       @JsonProperty("data") String data) {
+        this.position = position;
+        this.id = id;
+        this.type = type;
+        this.accountId = accountId;
+        this.timestamp = timestamp;
+        this.data = data;
+    }
+
+    AuditRecord(long position, AuditEntry entry) {
+        this(position, entry.getId(), entry.getType(), entry.getAccountId(), entry.getTimestamp(), entry.getData());
+    }
+
+    public long getPosition() {
+        return position;
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public AuditEntry.AuditType getType() {
+        return type;
+    }
+
+    public long getAccountId() {
+        return accountId;
+    }
+
+    public Instant getTimestamp() {
+        return timestamp;
+    }
+
+    public String getData() {
+        return data;
+    }
+
+    AuditEntry toEntry() {
+        if (id == null) {
+            return new AuditEntry(type, accountId, timestamp, data);
+        }
+        UUID uuid = UUID.fromString(id);
+        return new AuditEntry(type, accountId, timestamp, data, uuid.getMostSignificantBits(), uuid.getLeastSignificantBits());
+    }
+}
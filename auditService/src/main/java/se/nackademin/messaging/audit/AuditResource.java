@@ -1,30 +1,126 @@
 package se.nackademin.messaging.audit;
 
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.stereotype.Controller;
 import org.springframework.ui.Model;
 import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.RequestHeader;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.ResponseBody;
+import org.springframework.web.server.ResponseStatusException;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+import org.springframework.web.servlet.support.ServletUriComponentsBuilder;
 
+import java.time.Instant;
 import java.util.List;
 
 @Controller
 public class AuditResource {
     private final static Logger LOG = LoggerFactory.getLogger(AuditResource.class);
+    private static final int MAX_PAGE_SIZE = 1000;
 
-    private final AuditLogRepository auditLog;
+    private final AuditCluster auditLog;
+    private final AuditTail auditTail;
+    private final Timer pageQueries;
+    private final Timer accountQueries;
+    private final Timer summaryQueries;
 
-    public AuditResource(AuditLogRepository auditLog) {
+    public AuditResource(AuditCluster auditLog, AuditTail auditTail, MeterRegistry meterRegistry) {
         this.auditLog = auditLog;
+        this.auditTail = auditTail;
+        this.pageQueries = queryTimer(meterRegistry, "page");
+        this.accountQueries = queryTimer(meterRegistry, "account");
+        this.summaryQueries = queryTimer(meterRegistry, "summary");
+    }
+
+    private static Timer queryTimer(MeterRegistry meterRegistry, String query) {
+        return Timer.builder("audit.query").description("Time to answer an audit log query").tag("query", query).register(meterRegistry);
     }
 
     @GetMapping("/audit")
-    public String openAccount(Model model) {
-        List<AuditEntry> all = auditLog.getAll();
+    public String openAccount(@RequestParam(value = "from", required = false) Instant from,
+                              @RequestParam(value = "to", required = false) Instant to,
+                              @RequestParam(value = "cursor", required = false) String cursor,
+                              @RequestParam(value = "size", defaultValue = "100") int size,
+                              Model model) {
+        if (size < 1 || size > MAX_PAGE_SIZE) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "size must be between 1 and " + MAX_PAGE_SIZE);
+        }
+        AuditPage page;
+        try {
+            page = pageQueries.record(() -> auditLog.page(from, to, cursor, size));
+        } catch (IllegalArgumentException e) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, e.getMessage(), e);
+        } catch (IllegalStateException e) {
+            throw new ResponseStatusException(HttpStatus.SERVICE_UNAVAILABLE, e.getMessage(), e);
+        }
 
-        LOG.info("Found {} logs", all.size());
-        model.addAttribute("logs", all);
+        LOG.info("Found {} logs", page.getEntries().size());
+        model.addAttribute("logs", page.getEntries());
+        if (page.getNextCursor() != null) {
+            model.addAttribute("nextPage", ServletUriComponentsBuilder.fromCurrentRequest()
+                    .replaceQueryParam("cursor", page.getNextCursor())
+                    .toUriString());
+        }
         return "audit";
     }
 
+    @GetMapping("/audit/account/{accountId}")
+    public String account(@PathVariable("accountId") long accountId, Model model) {
+        List<AuditEntry> entries;
+        try {
+            entries = accountQueries.record(() -> auditLog.findByAccountId(accountId));
+        } catch (IllegalStateException e) {
+            throw new ResponseStatusException(HttpStatus.SERVICE_UNAVAILABLE, e.getMessage(), e);
+        }
+
+        LOG.info("Found {} logs for account {}", entries.size(), accountId);
+        model.addAttribute("logs", entries);
+        return "audit";
+    }
+
+    /**
+     * Deposit sum and counts of the account from totals kept as entries arrive, without reading its entries.
+     */
+    @GetMapping(value = "/audit/account/{accountId}/summary", produces = MediaType.APPLICATION_JSON_VALUE)
+    @ResponseBody
+    public AccountSummary summary(@PathVariable("accountId") long accountId) {
+        AccountSummary summary;
+        try {
+            summary = summaryQueries.record(() -> auditLog.summary(accountId));
+        } catch (IllegalStateException e) {
+            throw new ResponseStatusException(HttpStatus.SERVICE_UNAVAILABLE, e.getMessage(), e);
+        }
+        if (summary.getEntries() == 0) {
+            throw new ResponseStatusException(HttpStatus.NOT_FOUND, "No audit entries for account " + accountId);
+        }
+        return summary;
+    }
+
+    /**
+     * Server-sent events with every new entry, optionally filtered. {@code offset} is the log position to start at,
+     * without it the stream starts with the next entry. A reconnecting EventSource resumes after its Last-Event-ID.
+     */
+    @GetMapping(value = "/audit/stream", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public SseEmitter stream(@RequestParam(value = "accountId", required = false) Long accountId,
+                             @RequestParam(value = "type", required = false) AuditEntry.AuditType type,
+                             @RequestParam(value = "offset", required = false) Long offset,
+                             @RequestHeader(value = "Last-Event-ID", required = false) Long lastEventId) {
+        // Never times out, the heartbeat finds clients that went away
+        SseEmitter emitter = new SseEmitter(0L);
+        try {
+            auditTail.subscribe(emitter, accountId, type, offset != null ? offset : lastEventId != null ? lastEventId + 1 : null);
+        } catch (IllegalArgumentException e) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, e.getMessage(), e);
+        } catch (IllegalStateException e) {
+            throw new ResponseStatusException(HttpStatus.SERVICE_UNAVAILABLE, e.getMessage(), e);
+        }
+        return emitter;
+    }
 }
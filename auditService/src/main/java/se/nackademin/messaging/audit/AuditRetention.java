@@ -0,0 +1,106 @@
+package se.nackademin.messaging.audit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.time.Clock;
+import java.time.Duration;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Keeps the audit log within its limits by dropping its oldest segments, see {@link AuditLogRepository}.
+ * <p>
+ * On every check the oldest segment is dropped while the newest entry in it is older than {@code maxAge}, or the log
+ * holds more than {@code maxEntries} entries or {@code maxBytes} bytes of entries, a limit of 0 is not checked. Whole
+ * segments of {@value AuditLogRepository#SEGMENT_SIZE} entries go at a time, so the log may end up to a segment below
+ * a count or size limit, and the segment still being filled is never dropped. With {@code compact} the dropped entries
+ * are folded into one summary per account first. Checks run on their own thread, writers and readers are not held up.
+ */
+public class AuditRetention implements Closeable {
+    private static final Logger LOG = LoggerFactory.getLogger(AuditRetention.class);
+
+    private final AuditLogRepository repository;
+    private final Duration maxAge;
+    private final long maxEntries;
+    private final long maxBytes;
+    private final boolean compact;
+    private final Clock clock;
+    private ScheduledExecutorService scheduler;
+
+    public AuditRetention(AuditLogRepository repository, Duration maxAge, long maxEntries, long maxBytes, boolean compact) {
+        this(repository, maxAge, maxEntries, maxBytes, compact, Clock.systemUTC());
+    }
+
+    AuditRetention(AuditLogRepository repository, Duration maxAge, long maxEntries, long maxBytes, boolean compact, Clock clock) {
+        this.repository = repository;
+        this.maxAge = maxAge;
+        this.maxEntries = maxEntries;
+        this.maxBytes = maxBytes;
+        this.compact = compact;
+        this.clock = clock;
+    }
+
+    public boolean isEnabled() {
+        return !maxAge.isZero() || maxEntries > 0 || maxBytes > 0;
+    }
+
+    public void start(Duration checkInterval) {
+        if (!isEnabled()) {
+            return;
+        }
+        scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "audit-retention");
+            thread.setDaemon(true);
+            return thread;
+        });
+        scheduler.scheduleWithFixedDelay(this::runLogged, 0, checkInterval.toMillis(), TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * @return number of dropped segments
+     */
+    int run() {
+        long cutoffNanos = maxAge.isZero() ? Long.MIN_VALUE : TimeIndex.epochNanos(clock.instant().minus(maxAge));
+        int dropped = 0;
+        while (overLimit(cutoffNanos) && repository.dropOldestSegment(compact)) {
+            dropped++;
+        }
+        if (dropped > 0) {
+            repository.removeDropped();
+        }
+        return dropped;
+    }
+
+    private boolean overLimit(long cutoffNanos) {
+        if (maxEntries > 0 && repository.size() - repository.first() > maxEntries) {
+            return true;
+        }
+        if (maxBytes > 0 && repository.retainedBytes() > maxBytes) {
+            return true;
+        }
+        return cutoffNanos != Long.MIN_VALUE && repository.oldestSegmentNewestNanos() < cutoffNanos;
+    }
+
+    private void runLogged() {
+        try {
+            int dropped = run();
+            if (dropped > 0) {
+                LOG.info("Retention dropped {} segments{}, the audit log now starts at position {}",
+                        dropped, compact ? " into account summaries" : "", repository.first());
+            }
+        } catch (RuntimeException e) {
+            // Thrown out of a scheduled task it would cancel every later check
+            LOG.error("Audit log retention check failed", e);
+        }
+    }
+
+    @Override
+    public void close() {
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+        }
+    }
+}
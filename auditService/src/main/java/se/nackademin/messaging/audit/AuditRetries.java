@@ -0,0 +1,236 @@
+package se.nackademin.messaging.audit;
+
+import com.rabbitmq.client.AMQP;
+import com.rabbitmq.client.Channel;
+import com.rabbitmq.client.GetResponse;
+import com.rabbitmq.client.ReturnListener;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.amqp.AmqpException;
+import org.springframework.amqp.core.Binding;
+import org.springframework.amqp.core.Declarable;
+import org.springframework.amqp.core.DirectExchange;
+import org.springframework.amqp.core.FanoutExchange;
+import org.springframework.amqp.core.Message;
+import org.springframework.amqp.core.MessageDeliveryMode;
+import org.springframework.amqp.core.MessageProperties;
+import org.springframework.amqp.core.Queue;
+import org.springframework.amqp.rabbit.connection.RabbitUtils;
+import org.springframework.amqp.rabbit.core.RabbitTemplate;
+import org.springframework.amqp.rabbit.support.DefaultMessagePropertiesConverter;
+import org.springframework.amqp.rabbit.support.MessagePropertiesConverter;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Where audit messages go that could not be stored.
+ * <p>
+ * A failed message is published to the retry exchange of its attempt, {@code audit-retry.<attempt>}, whose queue holds
+ * it for {@code initialBackoff * 2^attempt} and then dead-letters it to {@code audit-retry-return}. That exchange routes
+ * by the original queue name, which the message kept as its routing key, back to the audit queue it came from. After
+ * {@code maxRetries} retries the message goes to the parking lot queue, where it stays until it is inspected and
+ * replayed through {@link ParkingLotResource}.
+ * <p>
+ * The audit queues themselves keep the arguments the business service declares them with, the retries are published
+ * by the listener rather than dead-lettered by the broker. Every publish is mandatory and waits for the broker's
+ * confirm, a message only leaves its queue once the broker has taken it into another.
+ */
+public class AuditRetries {
+    private static final Logger LOG = LoggerFactory.getLogger(AuditRetries.class);
+    static final String RETRY_PREFIX = "audit-retry.";
+    static final String RETURN_EXCHANGE = "audit-retry-return";
+    static final String PARKING_LOT = "audit-parking-lot";
+    static final String RETRIES_HEADER = "x-audit-retries";
+    static final String QUEUE_HEADER = "x-audit-queue";
+    static final String ERROR_HEADER = "x-audit-error";
+    private static final int MAX_ERROR_LENGTH = 500;
+    private static final long CONFIRM_TIMEOUT_MS = 10_000;
+
+    private final RabbitTemplate template;
+    private final int maxRetries;
+    private final long initialBackoffMs;
+    private final MessagePropertiesConverter propertiesConverter = new DefaultMessagePropertiesConverter();
+
+    public AuditRetries(RabbitTemplate template, int maxRetries, long initialBackoffMs) {
+        this.template = template;
+        this.maxRetries = maxRetries;
+        this.initialBackoffMs = initialBackoffMs;
+    }
+
+    /**
+     * The retry exchanges and delay queues, the return exchange bound to every audit queue, and the parking lot.
+     */
+    List<Declarable> topology(List<String> auditQueues) {
+        List<Declarable> declarables = new ArrayList<>();
+        declarables.add(new DirectExchange(RETURN_EXCHANGE));
+        for (String queue : auditQueues) {
+            declarables.add(new Binding(queue, Binding.DestinationType.QUEUE, RETURN_EXCHANGE, queue, null));
+        }
+        for (int attempt = 0; attempt < maxRetries; attempt++) {
+            String name = RETRY_PREFIX + attempt;
+            declarables.add(new FanoutExchange(name));
+            declarables.add(new Queue(name, true, false, false, Map.of(
+                    "x-message-ttl", backoffMs(attempt),
+                    "x-dead-letter-exchange", RETURN_EXCHANGE)));
+            declarables.add(new Binding(name, Binding.DestinationType.QUEUE, name, "", null));
+        }
+        declarables.add(new Queue(PARKING_LOT));
+        return declarables;
+    }
+
+    long backoffMs(int attempt) {
+        return initialBackoffMs << Math.min(attempt, 30);
+    }
+
+    /**
+     * Sends a message taken from {@code queue} that failed with {@code error} to its next retry, or to the parking lot
+     * once it is out of retries. The caller acknowledges the original, unless this throws because the broker did not
+     * take the message, then the original is redelivered.
+     */
+    void reject(Message message, String queue, Exception error) {
+        MessageProperties properties = message.getMessageProperties();
+        Integer header = properties.getHeader(RETRIES_HEADER);
+        int retries = header == null ? 0 : header;
+        String reason = String.valueOf(error);
+        properties.setHeader(ERROR_HEADER, reason.length() > MAX_ERROR_LENGTH ? reason.substring(0, MAX_ERROR_LENGTH) : reason);
+        properties.setHeader(QUEUE_HEADER, queue);
+        properties.setDeliveryMode(MessageDeliveryMode.PERSISTENT);
+        String exchange;
+        String routingKey;
+        if (retries < maxRetries) {
+            properties.setHeader(RETRIES_HEADER, retries + 1);
+            LOG.warn("Audit message from {} failed, retry {} of {} in {} ms: {}", queue, retries + 1, maxRetries, backoffMs(retries), error.toString());
+            exchange = RETRY_PREFIX + retries;
+            routingKey = queue;
+        } else {
+            LOG.error("Audit message from {} failed after {} retries, parking it: {}", queue, retries, error.toString());
+            exchange = "";
+            routingKey = PARKING_LOT;
+        }
+        template.execute(channel -> {
+            confirmSelect(channel);
+            publish(channel, exchange, routingKey, propertiesConverter.fromMessageProperties(properties, StandardCharsets.UTF_8.name()), message.getBody());
+            return null;
+        });
+    }
+
+    /**
+     * Up to {@code max} messages from the head of the parking lot, which are left in place.
+     */
+    public List<ParkedMessage> parked(int max) {
+        return template.execute(channel -> {
+            List<ParkedMessage> parked = new ArrayList<>();
+            long lastTag = -1;
+            GetResponse response;
+            while (parked.size() < max && (response = channel.basicGet(PARKING_LOT, false)) != null) {
+                lastTag = response.getEnvelope().getDeliveryTag();
+                parked.add(toParked(propertiesConverter.toMessageProperties(response.getProps(), response.getEnvelope(), StandardCharsets.UTF_8.name()),
+                        response.getBody()));
+            }
+            if (lastTag >= 0) {
+                // Back to the head of the queue in their original order
+                channel.basicNack(lastTag, true, true);
+            }
+            return parked;
+        });
+    }
+
+    /**
+     * Moves up to {@code max} messages from the parking lot back to the audit queue they came from, with their
+     * retries reset. A message without the queue header stays parked, and counts against {@code max}. If the broker
+     * does not take a message it stays parked too and the replay stops with an {@link AmqpException}.
+     *
+     * @return number of messages replayed
+     */
+    public int replay(int max) {
+        Integer replayed = template.execute(channel -> {
+            confirmSelect(channel);
+            int count = 0;
+            List<Long> unroutable = new ArrayList<>();
+            try {
+                GetResponse response;
+                while (count + unroutable.size() < max && (response = channel.basicGet(PARKING_LOT, false)) != null) {
+                    long tag = response.getEnvelope().getDeliveryTag();
+                    MessageProperties properties = propertiesConverter.toMessageProperties(response.getProps(), response.getEnvelope(), StandardCharsets.UTF_8.name());
+                    Object queue = properties.getHeaders().remove(QUEUE_HEADER);
+                    if (queue == null) {
+                        LOG.warn("Parked audit message without a {} header, leaving it parked", QUEUE_HEADER);
+                        unroutable.add(tag);
+                        continue;
+                    }
+                    properties.getHeaders().remove(RETRIES_HEADER);
+                    properties.getHeaders().remove(ERROR_HEADER);
+                    properties.setDeliveryMode(MessageDeliveryMode.PERSISTENT);
+                    try {
+                        publish(channel, RETURN_EXCHANGE, queue.toString(),
+                                propertiesConverter.fromMessageProperties(properties, StandardCharsets.UTF_8.name()), response.getBody());
+                    } catch (Exception e) {
+                        LOG.error("Replayed {} parked audit messages, then {} did not take one", count, queue);
+                        channel.basicNack(tag, false, true);
+                        throw e;
+                    }
+                    channel.basicAck(tag, false);
+                    count++;
+                }
+            } finally {
+                // Held unacknowledged until now, so the loop did not get them again
+                for (long tag : unroutable) {
+                    channel.basicNack(tag, false, true);
+                }
+            }
+            return count;
+        });
+        LOG.info("Replayed {} parked audit messages", replayed);
+        return replayed == null ? 0 : replayed;
+    }
+
+    /**
+     * Puts a channel of the template in confirm mode. It is closed for good afterwards instead of going back to the
+     * channel cache, which keeps handing out channels as the template set them up.
+     */
+    private static void confirmSelect(Channel channel) throws IOException {
+        RabbitUtils.setPhysicalCloseRequired(channel, true);
+        channel.confirmSelect();
+    }
+
+    /**
+     * Publishes mandatory and waits for the confirm, throws if no queue took the message or the broker did not store it.
+     */
+    private static void publish(Channel channel, String exchange, String routingKey, AMQP.BasicProperties properties, byte[] body)
+            throws IOException, InterruptedException, TimeoutException {
+        AtomicReference<String> returned = new AtomicReference<>();
+        ReturnListener listener = (replyCode, replyText, returnExchange, returnRoutingKey, returnProperties, returnBody) -> returned.set(replyText);
+        channel.addReturnListener(listener);
+        try {
+            channel.basicPublish(exchange, routingKey, true, properties, body);
+            if (!channel.waitForConfirms(CONFIRM_TIMEOUT_MS)) {
+                throw new AmqpException("Broker did not confirm audit message to " + exchange + " with routing key " + routingKey);
+            }
+            // The broker returns an unroutable message before confirming it
+            if (returned.get() != null) {
+                throw new AmqpException("Audit message to " + exchange + " with routing key " + routingKey + " was returned: " + returned.get());
+            }
+        } finally {
+            channel.removeReturnListener(listener);
+        }
+    }
+
+    private static ParkedMessage toParked(MessageProperties properties, byte[] body) {
+        Integer retries = properties.getHeader(RETRIES_HEADER);
+        String contentType = properties.getContentType();
+        boolean text = contentType != null && (contentType.contains("json") || contentType.startsWith("text/"));
+        return new ParkedMessage(properties.getHeader(QUEUE_HEADER),
+                retries == null ? 0 : retries,
+                properties.getHeader(ERROR_HEADER),
+                contentType,
+                text ? new String(body, StandardCharsets.UTF_8) : Base64.getEncoder().encodeToString(body),
+                !text);
+    }
+}
@@ -0,0 +1,123 @@
+package se.nackademin.messaging.audit;
+
+import org.springframework.amqp.core.BatchMessageListener;
+import org.springframework.amqp.core.Message;
+import org.springframework.amqp.rabbit.annotation.RabbitListenerConfigurer;
+import org.springframework.amqp.rabbit.config.SimpleRabbitListenerContainerFactory;
+import org.springframework.amqp.rabbit.config.SimpleRabbitListenerEndpoint;
+import org.springframework.amqp.rabbit.listener.RabbitListenerEndpointRegistrar;
+import org.springframework.amqp.support.converter.MessageConverter;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+
+/**
+ * Starts one listener container per audit queue this node owns. Every container has a single consumer, so the events
+ * of one account, which the producer always routes to the same shard, are stored in the order they were published
+ * while the shards are consumed in parallel.
+ * <p>
+ * When a batch fails its messages are stored one by one, and each one that still fails is handed to
+ * {@link AuditRetries} and acknowledged, so a poison message neither blocks its queue nor loops on redelivery.
+ * <p>
+ * With the {@code in-process} transport no containers start, the batches come from a broker in the same JVM through
+ * {@link #receive}. Rejected messages still go to the retry queues on RabbitMQ.
+ */
+@Component
+public class AuditShardListeners implements RabbitListenerConfigurer, AuditMessageReceiver {
+    private final AuditLogReceiver receiver;
+    private final SimpleRabbitListenerContainerFactory containerFactory;
+    private final MessageConverter converter;
+    private final AuditCluster cluster;
+    private final AuditRetries retries;
+    private final int shards;
+    private final Transport transport;
+
+    public AuditShardListeners(AuditLogReceiver receiver,
+                               @Qualifier("batchListenerContainerFactory") SimpleRabbitListenerContainerFactory containerFactory,
+                               MessageConverter converter,
+                               AuditCluster cluster,
+                               AuditRetries retries,
+                               @Value("${audit.shards}") int shards,
+                               @Value("${audit.transport}") Transport transport) {
+        this.receiver = receiver;
+        this.containerFactory = containerFactory;
+        this.converter = converter;
+        this.cluster = cluster;
+        this.retries = retries;
+        this.shards = shards;
+        this.transport = transport;
+    }
+
+    @Override
+    public void configureRabbitListeners(RabbitListenerEndpointRegistrar registrar) {
+        if (transport != Transport.RABBIT) {
+            return;
+        }
+        for (String queue : queues()) {
+            SimpleRabbitListenerEndpoint endpoint = new SimpleRabbitListenerEndpoint();
+            endpoint.setId("audit-listener-" + queue);
+            endpoint.setQueueNames(queue);
+            endpoint.setConcurrency("1");
+            endpoint.setMessageListener((BatchMessageListener) messages -> receive(queue, messages));
+            registrar.registerEndpoint(endpoint, containerFactory);
+        }
+    }
+
+    /**
+     * The shard queues this node owns in the cluster.
+     */
+    @Override
+    public List<String> queues() {
+        List<String> queues = ApplicationConfiguration.auditQueues(shards);
+        List<String> owned = new ArrayList<>(queues.size());
+        for (int shard = 0; shard < queues.size(); shard++) {
+            if (cluster.owns(shard)) {
+                owned.add(queues.get(shard));
+            }
+        }
+        return owned;
+    }
+
+    /**
+     * Stores the batch, rejecting the messages that cannot be stored to {@link AuditRetries}, so it only throws if
+     * rejecting fails.
+     */
+    @Override
+    public void receive(String queue, List<Message> messages) {
+        BitSet handled = new BitSet(messages.size());
+        try {
+            receiver.receiveMessages(convert(messages), handled::set);
+            return;
+        } catch (RuntimeException e) {
+            if (messages.size() == 1) {
+                if (!handled.get(0)) {
+                    retries.reject(messages.get(0), queue, e);
+                }
+                return;
+            }
+        }
+        // Only the messages the batch did not store, one without an event id would otherwise be stored twice
+        for (int i = handled.nextClearBit(0); i < messages.size(); i = handled.nextClearBit(i + 1)) {
+            Message message = messages.get(i);
+            try {
+                receiver.receiveMessages(convert(List.of(message)));
+            } catch (RuntimeException e) {
+                retries.reject(message, queue, e);
+            }
+        }
+    }
+
+    List<AuditEvent> convert(List<Message> messages) {
+        List<AuditEvent> events = new ArrayList<>(messages.size());
+        for (Message message : messages) {
+            // What the listener adapter does for a List<AuditEvent> parameter, JSON messages carry the producer's type id
+            message.getMessageProperties().setInferredArgumentType(AuditEvent.class);
+            events.add((AuditEvent) converter.fromMessage(message));
+        }
+        return events;
+    }
+}
@@ -0,0 +1,200 @@
+package se.nackademin.messaging.audit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.http.MediaType;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.time.Duration;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Streams new audit entries to server-sent event subscribers.
+ * <p>
+ * A subscriber is a position in the log plus its filters, nothing is copied per subscriber. One poller thread compares
+ * every cursor with the log and hands subscribers that are behind to a small sender pool. A subscriber is never handed
+ * out twice at the same time, so a slow client only holds up itself. Each event carries its log position as id, which
+ * is what a reconnecting EventSource sends back as {@code Last-Event-ID}.
+ */
+public class AuditTail implements Closeable {
+    private static final Logger LOG = LoggerFactory.getLogger(AuditTail.class);
+
+    private final AuditLogRepository repository;
+    private final Executor sender;
+    private final int maxSubscribers;
+    private final int maxBatch;
+    private final long heartbeatNanos;
+    private final Set<Subscriber> subscribers = ConcurrentHashMap.newKeySet();
+    private ScheduledExecutorService poller;
+
+    public AuditTail(AuditLogRepository repository, int senderThreads, int maxSubscribers, int maxBatch, Duration heartbeat) {
+        this(repository, Executors.newFixedThreadPool(senderThreads, namedThreads("audit-tail-sender-")), maxSubscribers, maxBatch, heartbeat);
+    }
+
+    AuditTail(AuditLogRepository repository, Executor sender, int maxSubscribers, int maxBatch, Duration heartbeat) {
+        this.repository = repository;
+        this.sender = sender;
+        this.maxSubscribers = maxSubscribers;
+        this.maxBatch = maxBatch;
+        this.heartbeatNanos = heartbeat.toNanos();
+    }
+
+    public void start(Duration pollInterval) {
+        poller = Executors.newSingleThreadScheduledExecutor(namedThreads("audit-tail-poller-"));
+        poller.scheduleWithFixedDelay(this::poll, pollInterval.toMillis(), pollInterval.toMillis(), TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Starts streaming entries at log position {@code offset} or later that match the filters to {@code emitter}.
+     *
+     * @param accountId only entries of this account, or null for all
+     * @param type      only entries of this type, or null for all
+     * @param offset    first log position to send, or null to only send entries added from now on
+     * @throws IllegalArgumentException if the offset is negative
+     * @throws IllegalStateException    if there already are as many subscribers as allowed
+     */
+    public void subscribe(SseEmitter emitter, Long accountId, AuditEntry.AuditType type, Long offset) {
+        if (offset != null && offset < 0) {
+            throw new IllegalArgumentException("offset must not be negative, was " + offset);
+        }
+        if (subscribers.size() >= maxSubscribers) {
+            throw new IllegalStateException("Audit stream already has " + maxSubscribers + " subscribers");
+        }
+        long size = repository.size();
+        Subscriber subscriber = new Subscriber(emitter, accountId, type, offset == null ? size : Math.min(offset, size));
+        emitter.onCompletion(() -> subscribers.remove(subscriber));
+        emitter.onTimeout(() -> subscribers.remove(subscriber));
+        emitter.onError(e -> subscribers.remove(subscriber));
+        subscribers.add(subscriber);
+    }
+
+    int subscribers() {
+        return subscribers.size();
+    }
+
+    void poll() {
+        long now = System.nanoTime();
+        for (Subscriber subscriber : subscribers) {
+            if ((subscriber.isBehind() || now - subscriber.lastSent >= heartbeatNanos) && subscriber.busy.compareAndSet(false, true)) {
+                try {
+                    sender.execute(() -> {
+                        try {
+                            subscriber.catchUp(now);
+                        } finally {
+                            subscriber.busy.set(false);
+                        }
+                    });
+                } catch (RejectedExecutionException e) {
+                    subscriber.busy.set(false);
+                }
+            }
+        }
+    }
+
+    @Override
+    public void close() {
+        if (poller != null) {
+            poller.shutdownNow();
+        }
+        if (sender instanceof ExecutorService) {
+            ((ExecutorService) sender).shutdownNow();
+        }
+        subscribers.forEach(subscriber -> subscriber.emitter.complete());
+        subscribers.clear();
+    }
+
+    private static ThreadFactory namedThreads(String prefix) {
+        AtomicInteger count = new AtomicInteger();
+        return r -> {
+            Thread thread = new Thread(r, prefix + count.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+
+    private class Subscriber {
+        private final SseEmitter emitter;
+        private final Long accountId;
+        private final AuditEntry.AuditType type;
+        private final AtomicBoolean busy = new AtomicBoolean();
+        // Next log position to look at, or with an account filter the next index in the account's postings
+        private volatile long cursor;
+        private volatile long lastSent;
+
+        Subscriber(SseEmitter emitter, Long accountId, AuditEntry.AuditType type, long offset) {
+            this.emitter = emitter;
+            this.accountId = accountId;
+            this.type = type;
+            this.cursor = accountId == null ? offset : firstPostingAtOrAfter(offset);
+            this.lastSent = System.nanoTime();
+        }
+
+        private int firstPostingAtOrAfter(long offset) {
+            AccountIndex.Postings postings = repository.postings(accountId);
+            int index = postings.first();
+            while (index < postings.count() && postings.position(index) < offset) {
+                index++;
+            }
+            return index;
+        }
+
+        boolean isBehind() {
+            return accountId == null ? cursor < repository.size() : cursor < repository.postings(accountId).count();
+        }
+
+        void catchUp(long now) {
+            int sent = 0;
+            try {
+                if (accountId == null) {
+                    // Entries dropped by retention before they were sent are skipped
+                    cursor = Math.max(cursor, repository.first());
+                    long end = Math.min(repository.size(), cursor + maxBatch);
+                    for (; cursor < end; cursor++) {
+                        sent += send(cursor);
+                    }
+                } else {
+                    AccountIndex.Postings postings = repository.postings(accountId);
+                    cursor = Math.max(cursor, postings.first());
+                    long end = Math.min(postings.count(), cursor + maxBatch);
+                    for (; cursor < end; cursor++) {
+                        sent += send(postings.position((int) cursor));
+                    }
+                }
+                if (sent > 0) {
+                    lastSent = now;
+                } else if (now - lastSent >= heartbeatNanos) {
+                    // Lets the container notice clients that went away while nothing matched their filter
+                    emitter.send(SseEmitter.event().comment("heartbeat"));
+                    lastSent = now;
+                }
+            } catch (IOException | IllegalStateException e) {
+                LOG.debug("Audit stream subscriber left: {}", e.toString());
+                subscribers.remove(this);
+                // Ends the response, a client that is still there reconnects with its Last-Event-ID
+                emitter.complete();
+            }
+        }
+
+        private int send(long position) throws IOException {
+            // Dropped by retention since the cursor was moved, or never stored
+            AuditEntry entry = repository.retained(position);
+            if (entry == null || type != null && entry.getType() != type) {
+                return 0;
+            }
+            emitter.send(SseEmitter.event().id(Long.toString(position)).data(entry, MediaType.APPLICATION_JSON));
+            return 1;
+        }
+    }
+}
@@ -0,0 +1,205 @@
+package se.nackademin.messaging.audit;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * A full segment of the audit log sealed into immutable compressed columns, see {@link AuditLogRepository}.
+ * <p>
+ * Timestamps, account ids and the high half of event ids are stored as zig-zag varint deltas from the previous entry,
+ * with the absolute value and byte offset of every {@value #CHECKPOINT_INTERVAL}th entry kept so one entry decodes
+ * from the checkpoint before it. Data strings are dictionary encoded: each distinct string is stored once as UTF-8 and
+ * entries hold its code in as few bytes as the dictionary needs. Types take a byte and the random low half of event
+ * ids eight. {@link #get} creates a new {@link AuditEntry} on every call. A slot that was tombstoned while hot is sealed
+ * as a null entry, which repeats the previous entry's columns and reads back as null.
+ */
+final class ColdSegment {
+    static final int CHECKPOINT_SHIFT = 6;
+    static final int CHECKPOINT_INTERVAL = 1 << CHECKPOINT_SHIFT;
+    private static final AuditEntry.AuditType[] TYPES = AuditEntry.AuditType.values();
+    private static final byte MISSING = -1;
+
+    private final int size;
+    private final byte[] types;
+    private final DeltaColumn timestamps;
+    private final DeltaColumn accountIds;
+    private final DeltaColumn idHighs;
+    private final long[] idLows;
+    private final byte[] dictionary;
+    private final int[] dictionaryOffsets;
+    private final byte[] codes;
+    private final int codeWidth;
+
+    private ColdSegment(AuditEntry[] entries) {
+        size = entries.length;
+        types = new byte[size];
+        long[] nanos = new long[size];
+        long[] accounts = new long[size];
+        long[] highs = new long[size];
+        long[] lows = new long[size];
+        boolean anyId = false;
+        // Code 0 is a null data string
+        Map<String, Integer> codeOf = new HashMap<>();
+        int[] dataCodes = new int[size];
+        for (int i = 0; i < size; i++) {
+            AuditEntry entry = entries[i];
+            if (entry == null) {
+                types[i] = MISSING;
+                if (i > 0) {
+                    nanos[i] = nanos[i - 1];
+                    accounts[i] = accounts[i - 1];
+                    highs[i] = highs[i - 1];
+                }
+                continue;
+            }
+            types[i] = (byte) entry.getType().ordinal();
+            nanos[i] = TimeIndex.epochNanos(entry.getTimestamp());
+            accounts[i] = entry.getAccountId();
+            highs[i] = entry.idHigh();
+            lows[i] = entry.idLow();
+            anyId |= entry.hasId();
+            if (entry.getData() != null) {
+                dataCodes[i] = codeOf.computeIfAbsent(entry.getData(), data -> codeOf.size() + 1);
+            }
+        }
+        timestamps = new DeltaColumn(nanos);
+        accountIds = new DeltaColumn(accounts);
+        idHighs = anyId ? new DeltaColumn(highs) : null;
+        idLows = anyId ? lows : null;
+
+        byte[][] strings = new byte[codeOf.size() + 1][];
+        strings[0] = new byte[0];
+        int dictionarySize = 0;
+        for (Map.Entry<String, Integer> data : codeOf.entrySet()) {
+            strings[data.getValue()] = data.getKey().getBytes(StandardCharsets.UTF_8);
+            dictionarySize += strings[data.getValue()].length;
+        }
+        dictionary = new byte[dictionarySize];
+        dictionaryOffsets = new int[strings.length + 1];
+        for (int code = 0; code < strings.length; code++) {
+            System.arraycopy(strings[code], 0, dictionary, dictionaryOffsets[code], strings[code].length);
+            dictionaryOffsets[code + 1] = dictionaryOffsets[code] + strings[code].length;
+        }
+        codeWidth = bytesFor(codeOf.size());
+        codes = new byte[size * codeWidth];
+        for (int i = 0; i < size; i++) {
+            for (int b = 0; b < codeWidth; b++) {
+                codes[i * codeWidth + b] = (byte) (dataCodes[i] >>> (8 * b));
+            }
+        }
+    }
+
+    /**
+     * @param entries null for a tombstoned slot
+     */
+    static ColdSegment seal(AuditEntry[] entries) {
+        return new ColdSegment(entries);
+    }
+
+    /**
+     * The entry, or null if its slot was tombstoned.
+     */
+    AuditEntry get(int index) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+        }
+        if (types[index] == MISSING) {
+            return null;
+        }
+        long nanos = timestamps.get(index);
+        return new AuditEntry(TYPES[types[index]],
+                accountIds.get(index),
+                Instant.ofEpochSecond(Math.floorDiv(nanos, 1_000_000_000L), Math.floorMod(nanos, 1_000_000_000L)),
+                data(index),
+                idHighs == null ? 0 : idHighs.get(index),
+                idLows == null ? 0 : idLows[index]);
+    }
+
+    int size() {
+        return size;
+    }
+
+    /**
+     * Heap taken by the columns, leaving out object headers.
+     */
+    long bytes() {
+        return types.length + timestamps.bytes() + accountIds.bytes()
+                + (idHighs == null ? 0 : idHighs.bytes() + (long) idLows.length * Long.BYTES)
+                + dictionary.length + (long) dictionaryOffsets.length * Integer.BYTES + codes.length;
+    }
+
+    private String data(int index) {
+        int code = 0;
+        for (int b = 0; b < codeWidth; b++) {
+            code |= (codes[index * codeWidth + b] & 0xff) << (8 * b);
+        }
+        if (code == 0) {
+            return null;
+        }
+        return new String(dictionary, dictionaryOffsets[code], dictionaryOffsets[code + 1] - dictionaryOffsets[code], StandardCharsets.UTF_8);
+    }
+
+    private static int bytesFor(int maxCode) {
+        return maxCode < 1 << 8 ? 1 : maxCode < 1 << 16 ? 2 : maxCode < 1 << 24 ? 3 : 4;
+    }
+
+    /**
+     * Longs as zig-zag varint deltas with a checkpoint every {@value #CHECKPOINT_INTERVAL} values.
+     */
+    static final class DeltaColumn {
+        private final byte[] bytes;
+        private final long[] checkpointValues;
+        private final int[] checkpointOffsets;
+
+        DeltaColumn(long[] values) {
+            int checkpoints = (values.length + CHECKPOINT_INTERVAL - 1) >>> CHECKPOINT_SHIFT;
+            checkpointValues = new long[checkpoints];
+            checkpointOffsets = new int[checkpoints];
+            byte[] buffer = new byte[values.length * 10];
+            int offset = 0;
+            long previous = 0;
+            for (int i = 0; i < values.length; i++) {
+                if ((i & (CHECKPOINT_INTERVAL - 1)) == 0) {
+                    checkpointValues[i >>> CHECKPOINT_SHIFT] = values[i];
+                    checkpointOffsets[i >>> CHECKPOINT_SHIFT] = offset;
+                } else {
+                    long delta = values[i] - previous;
+                    // Zig-zag keeps small negative deltas short
+                    long zigZag = (delta << 1) ^ (delta >> 63);
+                    while ((zigZag & ~0x7FL) != 0) {
+                        buffer[offset++] = (byte) ((zigZag & 0x7F) | 0x80);
+                        zigZag >>>= 7;
+                    }
+                    buffer[offset++] = (byte) zigZag;
+                }
+                previous = values[i];
+            }
+            bytes = Arrays.copyOf(buffer, offset);
+        }
+
+        long get(int index) {
+            int checkpoint = index >>> CHECKPOINT_SHIFT;
+            long value = checkpointValues[checkpoint];
+            int offset = checkpointOffsets[checkpoint];
+            for (int i = checkpoint << CHECKPOINT_SHIFT; i < index; i++) {
+                long zigZag = 0;
+                int shift = 0;
+                byte b;
+                do {
+                    b = bytes[offset++];
+                    zigZag |= (long) (b & 0x7F) << shift;
+                    shift += 7;
+                } while (b < 0);
+                value += (zigZag >>> 1) ^ -(zigZag & 1);
+            }
+            return value;
+        }
+
+        long bytes() {
+            return bytes.length + (long) checkpointValues.length * Long.BYTES + (long) checkpointOffsets.length * Integer.BYTES;
+        }
+    }
+}
@@ -0,0 +1,24 @@
+package se.nackademin.messaging.audit;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+
+/**
+ * Meters of {@link AuditLogReceiver}, all named {@code audit.consume*}.
+ */
+public class ConsumeMetrics {
+    final DistributionSummary batchSize;
+    /** From the event's timestamp, set by the producer, until it is appended to the repository. */
+    final Timer endToEnd;
+    final Timer append;
+    final Counter duplicates;
+
+    public ConsumeMetrics(MeterRegistry registry) {
+        batchSize = DistributionSummary.builder("audit.consume.batch.size").description("Audit events per listener call").register(registry);
+        endToEnd = Timer.builder("audit.consume.end-to-end").description("Time from an audit event's timestamp until it is stored").register(registry);
+        append = Timer.builder("audit.consume.append").description("Time to append a batch to the repository").register(registry);
+        duplicates = Counter.builder("audit.consume.duplicates").description("Redelivered audit events that were dropped").register(registry);
+    }
+}
@@ -0,0 +1,133 @@
+package se.nackademin.messaging.audit;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.LongSupplier;
+
+/**
+ * The ids of recently stored events, so a redelivered event can be recognised and dropped.
+ * <p>
+ * Ids go into two generations, each an open addressing table of {@code long} pairs at most half full. When the current
+ * generation holds {@code capacity} ids or is older than {@code maxAge} it becomes the previous one and the old
+ * previous one is cleared for reuse. An id is thus remembered for at least {@code capacity} further ids or
+ * {@code maxAge}, whichever comes first, and memory stays at the two tables allocated up front. Lookups and inserts
+ * probe a few slots of each table, the clear on rotation costs one pass over a table per {@code capacity} inserts.
+ * <p>
+ * The id {@code 0, 0} means an event without id and is never remembered.
+ */
+public class DedupWindow {
+    private final int capacity;
+    private final long maxAgeNanos;
+    private final LongSupplier nanoClock;
+    private final int mask;
+    // A lock rather than synchronized so virtual thread consumers do not pin their carrier
+    private final ReentrantLock lock = new ReentrantLock();
+
+    private long[] current;
+    private long[] previous;
+    private int currentSize;
+    private long currentStarted;
+
+    public DedupWindow(int capacity, long maxAge, TimeUnit unit) {
+        this(capacity, unit.toNanos(maxAge), System::nanoTime);
+    }
+
+    DedupWindow(int capacity, long maxAgeNanos, LongSupplier nanoClock) {
+        if (capacity < 1 || capacity > 1 << 28) {
+            throw new IllegalArgumentException("Capacity must be between 1 and 2^28, was " + capacity);
+        }
+        this.capacity = capacity;
+        this.maxAgeNanos = maxAgeNanos;
+        this.nanoClock = nanoClock;
+        int slots = Integer.highestOneBit(capacity * 2 - 1) << 1;
+        this.mask = slots - 1;
+        this.current = new long[slots * 2];
+        this.previous = new long[slots * 2];
+        this.currentStarted = nanoClock.getAsLong();
+    }
+
+    public boolean contains(long high, long low) {
+        if (high == 0 && low == 0) {
+            return false;
+        }
+        lock.lock();
+        try {
+            return find(current, high, low) >= 0 || find(previous, high, low) >= 0;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Remembers the id, does nothing if it already is.
+     */
+    public void add(long high, long low) {
+        if (high == 0 && low == 0) {
+            return;
+        }
+        lock.lock();
+        try {
+            if (find(current, high, low) >= 0 || find(previous, high, low) >= 0) {
+                return;
+            }
+            long now = nanoClock.getAsLong();
+            if (currentSize >= capacity || now - currentStarted >= maxAgeNanos) {
+                long[] cleared = previous;
+                Arrays.fill(cleared, 0);
+                previous = current;
+                current = cleared;
+                currentSize = 0;
+                currentStarted = now;
+            }
+            int slot = -find(current, high, low) - 1;
+            current[slot * 2] = high;
+            current[slot * 2 + 1] = low;
+            currentSize++;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Number of ids remembered, at most twice the capacity.
+     */
+    public int size() {
+        lock.lock();
+        try {
+            int size = currentSize;
+            for (int slot = 0; slot <= mask; slot++) {
+                if (previous[slot * 2] != 0 || previous[slot * 2 + 1] != 0) {
+                    size++;
+                }
+            }
+            return size;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * The slot holding the id, or {@code -(free slot) - 1} where it would go.
+     */
+    private int find(long[] table, long high, long low) {
+        int slot = hash(high, low) & mask;
+        while (true) {
+            long h = table[slot * 2];
+            long l = table[slot * 2 + 1];
+            if (h == high && l == low) {
+                return slot;
+            }
+            if (h == 0 && l == 0) {
+                return -slot - 1;
+            }
+            slot = (slot + 1) & mask;
+        }
+    }
+
+    private static int hash(long high, long low) {
+        // The random bits are in the low half, the high half mostly adds the timestamp
+        long h = (low ^ high * 0x9E3779B97F4A7C15L) * 0xBF58476D1CE4E5B9L;
+        return (int) (h ^ h >>> 32);
+    }
+}
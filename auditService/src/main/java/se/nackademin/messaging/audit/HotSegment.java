@@ -0,0 +1,41 @@
+package se.nackademin.messaging.audit;
+
+/**
+ * A segment of the {@link AuditLogRepository} that entries are still stored into. Each slot is written once, by the
+ * writer that claimed its position, and may be read concurrently.
+ */
+interface HotSegment {
+    /**
+     * Rough heap taken by one entry kept as an object, with its timestamp and data, measured with deposit events.
+     */
+    long ESTIMATED_OBJECT_BYTES = 220;
+
+    /**
+     * Returned for a slot whose writer failed after claiming its position, readers skip it.
+     */
+    AuditEntry TOMBSTONE = new AuditEntry();
+
+    void set(int slot, AuditEntry entry);
+
+    /**
+     * Marks the slot as never going to hold an entry, called instead of {@link #set} when storing fails.
+     */
+    void tombstone(int slot);
+
+    /**
+     * The entry in the slot, {@link #TOMBSTONE}, or null if its writer has not stored it yet.
+     */
+    AuditEntry get(int slot);
+
+    /**
+     * Memory taken by the segment's entries, exactly or as an estimate.
+     */
+    long bytes();
+
+    /**
+     * Memory taken outside the heap.
+     */
+    default long offHeapBytes() {
+        return 0;
+    }
+}
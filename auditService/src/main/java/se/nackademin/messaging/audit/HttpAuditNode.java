@@ -0,0 +1,82 @@
+package se.nackademin.messaging.audit;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.springframework.web.util.UriComponentsBuilder;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * A peer reached over its {@link AuditNodeResource} endpoints.
+ */
+class HttpAuditNode implements AuditNode {
+    private static final TypeReference<List<AuditRecord>> RECORDS = new TypeReference<>() {
+    };
+    private static final TypeReference<AccountSummary> SUMMARY = new TypeReference<>() {
+    };
+
+    private final URI baseUri;
+    private final HttpClient client;
+    private final ObjectMapper objectMapper;
+    private final Duration timeout;
+
+    HttpAuditNode(URI baseUri, HttpClient client, ObjectMapper objectMapper, Duration timeout) {
+        this.baseUri = baseUri;
+        this.client = client;
+        this.objectMapper = objectMapper;
+        this.timeout = timeout;
+    }
+
+    @Override
+    public CompletableFuture<List<AuditRecord>> page(Instant from, Instant to, TimeIndex.Key after, int size) {
+        UriComponentsBuilder uri = UriComponentsBuilder.fromUri(baseUri).path("/internal/audit/page").queryParam("size", size);
+        if (from != null) {
+            uri.queryParam("from", from);
+        }
+        if (to != null) {
+            uri.queryParam("to", to);
+        }
+        if (after != null) {
+            uri.queryParam("after", after.toCursor());
+        }
+        return get(uri.build().toUri(), RECORDS);
+    }
+
+    @Override
+    public CompletableFuture<List<AuditRecord>> account(long accountId) {
+        return get(UriComponentsBuilder.fromUri(baseUri).path("/internal/audit/account/{accountId}").build(accountId), RECORDS);
+    }
+
+    @Override
+    public CompletableFuture<AccountSummary> summary(long accountId) {
+        return get(UriComponentsBuilder.fromUri(baseUri).path("/internal/audit/account/{accountId}/summary").build(accountId), SUMMARY);
+    }
+
+    private <T> CompletableFuture<T> get(URI uri, TypeReference<T> type) {
+        HttpRequest request = HttpRequest.newBuilder(uri).timeout(timeout).GET().build();
+        return client.sendAsync(request, HttpResponse.BodyHandlers.ofByteArray()).thenApply(response -> {
+            if (response.statusCode() != 200) {
+                throw new IllegalStateException("Audit node " + baseUri + " answered " + response.statusCode());
+            }
+            try {
+                return objectMapper.readValue(response.body(), type);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        });
+    }
+
+    @Override
+    public String toString() {
+        return baseUri.toString();
+    }
+}
@@ -0,0 +1,28 @@
+package se.nackademin.messaging.audit;
+
+import java.time.Instant;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+class LocalAuditNode implements AuditNode {
+    private final AuditLogRepository repository;
+
+    LocalAuditNode(AuditLogRepository repository) {
+        this.repository = repository;
+    }
+
+    @Override
+    public CompletableFuture<List<AuditRecord>> page(Instant from, Instant to, TimeIndex.Key after, int size) {
+        return CompletableFuture.completedFuture(repository.records(from, to, after, size));
+    }
+
+    @Override
+    public CompletableFuture<List<AuditRecord>> account(long accountId) {
+        return CompletableFuture.completedFuture(repository.accountRecords(accountId));
+    }
+
+    @Override
+    public CompletableFuture<AccountSummary> summary(long accountId) {
+        return CompletableFuture.completedFuture(repository.summary(accountId));
+    }
+}
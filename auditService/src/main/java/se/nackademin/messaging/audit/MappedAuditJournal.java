@@ -0,0 +1,409 @@
+package se.nackademin.messaging.audit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.CheckedOutputStream;
+
+/**
+ * Journal written to memory-mapped segment files of a fixed size, a new segment is started when a record does not
+ * fit in the current one.
+ * <p>
+ * Every record is {@code [int bodyLength][int crc32(body)][byte type][long position][long accountId][long epochNanos]
+ * [utf-8 data]}, entries with an event id have {@link #HAS_ID} set in the type and {@code [long idHigh][long idLow]}
+ * right after it. The position is the entry's place in the log, records of concurrent writers may be in another order.
+ * Segments are zero filled when created, so recovery stops at the first zero length or at a record whose checksum
+ * does not match, which is where a crash interrupted a write.
+ * <p>
+ * {@link #truncate} replaces the checkpoint file {@value #CHECKPOINT}, {@code [long first][int count]} followed by
+ * {@code count} compacted account summaries and a CRC32 of it all, and then deletes every segment that only holds
+ * records before {@code first}. Recovery reads the checkpoint first and skips the records before it.
+ */
+public class MappedAuditJournal implements AuditJournal {
+    private static final Logger LOG = LoggerFactory.getLogger(MappedAuditJournal.class);
+    private static final String SUFFIX = ".segment";
+    private static final int HEADER_SIZE = 8;
+    private static final int FIXED_BODY_SIZE = 25;
+    private static final int ID_SIZE = 16;
+    private static final int HAS_ID = 0x80;
+    private static final AuditEntry.AuditType[] TYPES = AuditEntry.AuditType.values();
+    static final String CHECKPOINT = "retention.checkpoint";
+    private static final long NO_INSTANT = Long.MIN_VALUE;
+
+    public enum FsyncPolicy {
+        /** Force to disk after every entry, or once per {@link #appendAll(long, List)}. */
+        ENTRY,
+        /** Force to disk after every {@code fsyncBatchSize} entries. */
+        BATCH,
+        /** Force to disk on a fixed interval from a background thread. */
+        INTERVAL
+    }
+
+    private final Path directory;
+    private final int segmentSize;
+    private final FsyncPolicy fsyncPolicy;
+    private final int fsyncBatchSize;
+    private final ScheduledExecutorService flusher;
+    private final CRC32 crc = new CRC32();
+    // A lock rather than synchronized so virtual thread consumers do not pin their carrier while writing
+    private final ReentrantLock lock = new ReentrantLock();
+
+    private MappedByteBuffer segment;
+    private long segmentNumber = -1;
+    private long segmentNewest = Long.MIN_VALUE;
+    // Newest position in each segment before the current one, by segment number
+    private final TreeMap<Long, Long> newestPositions = new TreeMap<>();
+    private long first;
+    private int unsynced;
+
+    public MappedAuditJournal(Path directory, int segmentSize, FsyncPolicy fsyncPolicy, int fsyncBatchSize, Duration fsyncInterval) {
+        if (segmentSize <= HEADER_SIZE + FIXED_BODY_SIZE) {
+            throw new IllegalArgumentException("Segment size " + segmentSize + " is too small");
+        }
+        this.directory = directory;
+        this.segmentSize = segmentSize;
+        this.fsyncPolicy = fsyncPolicy;
+        this.fsyncBatchSize = Math.max(1, fsyncBatchSize);
+        if (fsyncPolicy == FsyncPolicy.INTERVAL) {
+            flusher = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread thread = new Thread(r, "audit-journal-flusher");
+                thread.setDaemon(true);
+                return thread;
+            });
+            long intervalMs = fsyncInterval.toMillis();
+            flusher.scheduleAtFixedRate(this::flush, intervalMs, intervalMs, TimeUnit.MILLISECONDS);
+        } else {
+            flusher = null;
+        }
+    }
+
+    @Override
+    public long recover(Recovery recovery) throws IOException {
+        lock.lock();
+        try {
+            Files.createDirectories(directory);
+            Path checkpoint = directory.resolve(CHECKPOINT);
+            if (Files.exists(checkpoint)) {
+                List<AccountSummary> compacted = new ArrayList<>();
+                first = readCheckpoint(checkpoint, compacted);
+                recovery.truncated(first, compacted);
+            }
+            List<Path> segments;
+            try (Stream<Path> files = Files.list(directory)) {
+                segments = files.filter(p -> p.getFileName().toString().endsWith(SUFFIX)).sorted().collect(Collectors.toList());
+            }
+            long recovered = 0;
+            for (int i = 0; i < segments.size(); i++) {
+                Path path = segments.get(i);
+                boolean last = i == segments.size() - 1;
+                MappedByteBuffer buffer = map(path, last ? FileChannel.MapMode.READ_WRITE : FileChannel.MapMode.READ_ONLY);
+                segmentNewest = Long.MIN_VALUE;
+                recovered += replay(path, buffer, recovery);
+                if (last) {
+                    truncateTail(buffer);
+                    segment = buffer;
+                    segmentNumber = segmentNumber(path);
+                } else {
+                    newestPositions.put(segmentNumber(path), segmentNewest);
+                }
+            }
+            if (segment == null) {
+                roll();
+            }
+            return recovered;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void append(long position, AuditEntry entry) {
+        lock.lock();
+        try {
+            write(position, entry);
+            written(1);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Writes the batch and then syncs at most once, following the fsync policy.
+     */
+    @Override
+    public void appendAll(long firstPosition, List<AuditEntry> entries) {
+        lock.lock();
+        try {
+            for (int i = 0; i < entries.size(); i++) {
+                write(firstPosition + i, entries.get(i));
+            }
+            written(entries.size());
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void write(long position, AuditEntry entry) {
+        if (segment == null) {
+            throw new IllegalStateException("Journal must be recovered before it is appended to");
+        }
+        byte[] data = entry.getData() == null ? new byte[0] : entry.getData().getBytes(StandardCharsets.UTF_8);
+        int bodySize = FIXED_BODY_SIZE + (entry.hasId() ? ID_SIZE : 0) + data.length;
+        if (HEADER_SIZE + bodySize > segmentSize) {
+            throw new IllegalArgumentException("Entry of " + bodySize + " bytes does not fit in a segment");
+        }
+        if (segment.remaining() < HEADER_SIZE + bodySize) {
+            roll();
+        }
+        int start = segment.position();
+        segment.position(start + HEADER_SIZE);
+        if (entry.hasId()) {
+            segment.put((byte) (entry.getType().ordinal() | HAS_ID));
+            segment.putLong(entry.idHigh());
+            segment.putLong(entry.idLow());
+        } else {
+            segment.put((byte) entry.getType().ordinal());
+        }
+        segment.putLong(position);
+        segmentNewest = Math.max(segmentNewest, position);
+        segment.putLong(entry.getAccountId());
+        segment.putLong(TimeIndex.epochNanos(entry.getTimestamp()));
+        segment.put(data);
+        ByteBuffer body = segment.duplicate();
+        body.position(start + HEADER_SIZE).limit(start + HEADER_SIZE + bodySize);
+        crc.reset();
+        crc.update(body);
+        segment.putInt(start + 4, (int) crc.getValue());
+        // The length goes in last so a record torn by a crash is either invisible or fails its checksum.
+        segment.putInt(start, bodySize);
+    }
+
+    private void written(int entries) {
+        unsynced += entries;
+        if (fsyncPolicy == FsyncPolicy.ENTRY || (fsyncPolicy == FsyncPolicy.BATCH && unsynced >= fsyncBatchSize)) {
+            segment.force();
+            unsynced = 0;
+        }
+    }
+
+    /**
+     * Writes the checkpoint next to the segments and moves it in place, then deletes the segments it makes unneeded. The
+     * segment being written to is kept.
+     */
+    @Override
+    public void truncate(long first, List<AccountSummary> compacted) throws IOException {
+        Path temporary = directory.resolve(CHECKPOINT + ".tmp");
+        try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            CheckedOutputStream checked = new CheckedOutputStream(new BufferedOutputStream(Channels.newOutputStream(channel)), new CRC32());
+            DataOutputStream out = new DataOutputStream(checked);
+            out.writeLong(first);
+            out.writeInt(compacted.size());
+            for (AccountSummary summary : compacted) {
+                out.writeLong(summary.getAccountId());
+                out.writeLong(summary.getEntries());
+                out.writeLong(summary.getDeposits());
+                out.writeLong(summary.getDepositSum());
+                out.writeLong(nanos(summary.getOpenedAt()));
+                out.writeLong(nanos(summary.getFirstAt()));
+                out.writeLong(nanos(summary.getLastAt()));
+            }
+            out.writeInt((int) checked.getChecksum().getValue());
+            out.flush();
+            channel.force(true);
+        }
+        Files.move(temporary, directory.resolve(CHECKPOINT), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        lock.lock();
+        try {
+            this.first = first;
+            Iterator<Map.Entry<Long, Long>> segments = newestPositions.entrySet().iterator();
+            while (segments.hasNext()) {
+                Map.Entry<Long, Long> segment = segments.next();
+                if (segment.getValue() >= first) {
+                    continue;
+                }
+                Files.deleteIfExists(segmentPath(segment.getKey()));
+                segments.remove();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public void flush() {
+        lock.lock();
+        try {
+            if (segment != null && unsynced > 0) {
+                segment.force();
+                unsynced = 0;
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void close() {
+        if (flusher != null) {
+            flusher.shutdown();
+        }
+        lock.lock();
+        try {
+            if (segment != null) {
+                segment.force();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private long replay(Path path, ByteBuffer buffer, Recovery recovery) {
+        long count = 0;
+        while (buffer.remaining() >= HEADER_SIZE) {
+            int start = buffer.position();
+            int bodySize = buffer.getInt(start);
+            if (bodySize == 0) {
+                break;
+            }
+            if (bodySize < FIXED_BODY_SIZE || bodySize > buffer.remaining() - HEADER_SIZE || !checksumMatches(buffer, start, bodySize)) {
+                LOG.warn("Corrupt audit journal record at {}:{}, ignoring the rest of the segment", path, start);
+                break;
+            }
+            buffer.position(start + HEADER_SIZE);
+            int code = buffer.get() & 0xff;
+            boolean hasId = (code & HAS_ID) != 0;
+            AuditEntry.AuditType type = TYPES[code & ~HAS_ID];
+            long idHigh = hasId ? buffer.getLong() : 0;
+            long idLow = hasId ? buffer.getLong() : 0;
+            long position = buffer.getLong();
+            long accountId = buffer.getLong();
+            long epochNanos = buffer.getLong();
+            byte[] data = new byte[bodySize - FIXED_BODY_SIZE - (hasId ? ID_SIZE : 0)];
+            buffer.get(data);
+            segmentNewest = Math.max(segmentNewest, position);
+            if (position < first) {
+                continue;
+            }
+            recovery.recovered(position, new AuditEntry(type, accountId,
+                    Instant.ofEpochSecond(Math.floorDiv(epochNanos, 1_000_000_000L), Math.floorMod(epochNanos, 1_000_000_000L)),
+                    new String(data, StandardCharsets.UTF_8), idHigh, idLow));
+            count++;
+        }
+        return count;
+    }
+
+    private static long readCheckpoint(Path checkpoint, List<AccountSummary> compacted) throws IOException {
+        try (InputStream file = Files.newInputStream(checkpoint)) {
+            CheckedInputStream checked = new CheckedInputStream(new BufferedInputStream(file), new CRC32());
+            DataInputStream in = new DataInputStream(checked);
+            long first = in.readLong();
+            int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                compacted.add(new AccountSummary(in.readLong(), in.readLong(), in.readLong(), in.readLong(),
+                        instant(in.readLong()), instant(in.readLong()), instant(in.readLong())));
+            }
+            int expected = (int) checked.getChecksum().getValue();
+            if (in.readInt() != expected) {
+                // The segments before it are gone, starting from an older position would make up a different log
+                throw new IOException("Corrupt audit journal checkpoint " + checkpoint);
+            }
+            return first;
+        }
+    }
+
+    private static long nanos(Instant instant) {
+        return instant == null ? NO_INSTANT : TimeIndex.epochNanos(instant);
+    }
+
+    private static Instant instant(long epochNanos) {
+        if (epochNanos == NO_INSTANT) {
+            return null;
+        }
+        return Instant.ofEpochSecond(Math.floorDiv(epochNanos, 1_000_000_000L), Math.floorMod(epochNanos, 1_000_000_000L));
+    }
+
+    private boolean checksumMatches(ByteBuffer buffer, int start, int bodySize) {
+        ByteBuffer body = buffer.duplicate();
+        body.position(start + HEADER_SIZE).limit(start + HEADER_SIZE + bodySize);
+        crc.reset();
+        crc.update(body);
+        return (int) crc.getValue() == buffer.getInt(start + 4);
+    }
+
+    private void truncateTail(MappedByteBuffer buffer) {
+        int end = buffer.position();
+        if (end + 4 > buffer.limit() || buffer.getInt(end) == 0) {
+            return;
+        }
+        for (int i = end; i < buffer.limit(); i++) {
+            if (buffer.get(i) != 0) {
+                buffer.put(i, (byte) 0);
+            }
+        }
+        buffer.position(end);
+    }
+
+    private void roll() {
+        try {
+            if (segment != null) {
+                segment.force();
+                unsynced = 0;
+                newestPositions.put(segmentNumber, segmentNewest);
+            }
+            segmentNumber++;
+            segmentNewest = Long.MIN_VALUE;
+            segment = map(segmentPath(segmentNumber), FileChannel.MapMode.READ_WRITE);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not start a new audit journal segment", e);
+        }
+    }
+
+    private Path segmentPath(long number) {
+        return directory.resolve(String.format("%020d%s", number, SUFFIX));
+    }
+
+    private MappedByteBuffer map(Path path, FileChannel.MapMode mode) throws IOException {
+        StandardOpenOption[] options = mode == FileChannel.MapMode.READ_ONLY
+                ? new StandardOpenOption[]{StandardOpenOption.READ}
+                : new StandardOpenOption[]{StandardOpenOption.READ, StandardOpenOption.WRITE, StandardOpenOption.CREATE};
+        try (FileChannel channel = FileChannel.open(path, options)) {
+            long size = mode == FileChannel.MapMode.READ_ONLY ? channel.size() : Math.max(channel.size(), segmentSize);
+            return channel.map(mode, 0, size);
+        }
+    }
+
+    private static long segmentNumber(Path path) {
+        String name = path.getFileName().toString();
+        return Long.parseLong(name.substring(0, name.length() - SUFFIX.length()));
+    }
+}
@@ -0,0 +1,219 @@
+package se.nackademin.messaging.audit;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * A hot segment kept in direct memory as parallel columns, so its entries cost the garbage collector nothing.
+ * <p>
+ * One buffer holds a column each for state, account id, epoch nanos, id high, id low, data offset and data length.
+ * Data strings are written as UTF-8 into chunks allocated as the segment fills. Space in the chunks is reserved for a
+ * whole string before it is written; once they are used up the segment keeps its remaining strings on the heap, so
+ * storing an entry never fails for its size. A writer fills its slot in every column and then publishes it by writing
+ * the state, the type ordinal plus one, with release semantics; readers see 0 until then and -1 for a tombstone.
+ * {@link #get} returns a view that decodes its fields from the columns on every call and holds no copy of them.
+ * The memory is freed when the segment is collected after it is sealed.
+ */
+final class OffHeapSegment implements HotSegment {
+    private static final VarHandle STATE = MethodHandles.byteBufferViewVarHandle(int[].class, ByteOrder.nativeOrder());
+    private static final AuditEntry.AuditType[] TYPES = AuditEntry.AuditType.values();
+    static final int DATA_CHUNK_SHIFT = 16;
+    static final int DATA_CHUNK_SIZE = 1 << DATA_CHUNK_SHIFT;
+    private static final int DATA_CHUNK_MASK = DATA_CHUNK_SIZE - 1;
+    private static final int MAX_DATA_CHUNKS = 1024;
+    private static final int NULL_DATA = -1;
+    private static final int HEAP_DATA = -2;
+    private static final int TOMBSTONE_STATE = -1;
+
+    private final int size;
+    private final ByteBuffer columns;
+    private final int accountIds;
+    private final int timestamps;
+    private final int idHighs;
+    private final int idLows;
+    private final int dataOffsets;
+    private final int dataLengths;
+    private final AtomicReferenceArray<ByteBuffer> dataChunks = new AtomicReferenceArray<>(MAX_DATA_CHUNKS);
+    private final AtomicInteger dataTail = new AtomicInteger();
+    // Created when the first string does not fit in the chunks
+    private final AtomicReference<AtomicReferenceArray<String>> heapData = new AtomicReference<>();
+    private final AtomicLong heapDataBytes = new AtomicLong();
+
+    OffHeapSegment(int size) {
+        this.size = size;
+        accountIds = Integer.BYTES * size;
+        timestamps = accountIds + Long.BYTES * size;
+        idHighs = timestamps + Long.BYTES * size;
+        idLows = idHighs + Long.BYTES * size;
+        dataOffsets = idLows + Long.BYTES * size;
+        dataLengths = dataOffsets + Integer.BYTES * size;
+        columns = ByteBuffer.allocateDirect(dataLengths + Integer.BYTES * size).order(ByteOrder.nativeOrder());
+    }
+
+    @Override
+    public void set(int slot, AuditEntry entry) {
+        columns.putLong(accountIds + Long.BYTES * slot, entry.getAccountId());
+        columns.putLong(timestamps + Long.BYTES * slot, TimeIndex.epochNanos(entry.getTimestamp()));
+        columns.putLong(idHighs + Long.BYTES * slot, entry.idHigh());
+        columns.putLong(idLows + Long.BYTES * slot, entry.idLow());
+        if (entry.getData() == null) {
+            columns.putInt(dataLengths + Integer.BYTES * slot, NULL_DATA);
+        } else {
+            byte[] data = entry.getData().getBytes(StandardCharsets.UTF_8);
+            int offset = reserveData(data.length);
+            if (offset == NULL_DATA) {
+                heapData().set(slot, entry.getData());
+                heapDataBytes.addAndGet(data.length);
+                columns.putInt(dataLengths + Integer.BYTES * slot, HEAP_DATA);
+            } else {
+                writeData(offset, data);
+                columns.putInt(dataOffsets + Integer.BYTES * slot, offset);
+                columns.putInt(dataLengths + Integer.BYTES * slot, data.length);
+            }
+        }
+        STATE.setRelease(columns, Integer.BYTES * slot, entry.getType().ordinal() + 1);
+    }
+
+    @Override
+    public void tombstone(int slot) {
+        STATE.setRelease(columns, Integer.BYTES * slot, TOMBSTONE_STATE);
+    }
+
+    @Override
+    public AuditEntry get(int slot) {
+        if (slot < 0 || slot >= size) {
+            throw new IndexOutOfBoundsException("Index: " + slot + ", Size: " + size);
+        }
+        int state = (int) STATE.getAcquire(columns, Integer.BYTES * slot);
+        return state == 0 ? null : state == TOMBSTONE_STATE ? TOMBSTONE : new View(this, slot);
+    }
+
+    @Override
+    public long bytes() {
+        return offHeapBytes() + heapDataBytes.get();
+    }
+
+    @Override
+    public long offHeapBytes() {
+        long bytes = columns.capacity();
+        for (int chunk = 0; chunk < MAX_DATA_CHUNKS && dataChunks.get(chunk) != null; chunk++) {
+            bytes += DATA_CHUNK_SIZE;
+        }
+        return bytes;
+    }
+
+    /**
+     * Offset of {@code length} bytes reserved in the chunks, or {@code NULL_DATA} if they do not fit.
+     */
+    private int reserveData(int length) {
+        while (true) {
+            int offset = dataTail.get();
+            if ((long) offset + length > (long) MAX_DATA_CHUNKS * DATA_CHUNK_SIZE) {
+                return NULL_DATA;
+            }
+            if (dataTail.compareAndSet(offset, offset + length)) {
+                return offset;
+            }
+        }
+    }
+
+    private AtomicReferenceArray<String> heapData() {
+        AtomicReferenceArray<String> strings = heapData.get();
+        if (strings == null) {
+            heapData.compareAndSet(null, new AtomicReferenceArray<>(size));
+            strings = heapData.get();
+        }
+        return strings;
+    }
+
+    private void writeData(int offset, byte[] data) {
+        int done = 0;
+        while (done < data.length) {
+            int at = offset + done;
+            int length = Math.min(data.length - done, DATA_CHUNK_SIZE - (at & DATA_CHUNK_MASK));
+            dataChunk(at >>> DATA_CHUNK_SHIFT).duplicate().position(at & DATA_CHUNK_MASK).put(data, done, length);
+            done += length;
+        }
+    }
+
+    private String readData(int slot) {
+        int length = columns.getInt(dataLengths + Integer.BYTES * slot);
+        if (length == NULL_DATA) {
+            return null;
+        }
+        if (length == HEAP_DATA) {
+            return heapData.get().get(slot);
+        }
+        int offset = columns.getInt(dataOffsets + Integer.BYTES * slot);
+        byte[] data = new byte[length];
+        int done = 0;
+        while (done < length) {
+            int at = offset + done;
+            int part = Math.min(length - done, DATA_CHUNK_SIZE - (at & DATA_CHUNK_MASK));
+            dataChunks.get(at >>> DATA_CHUNK_SHIFT).duplicate().position(at & DATA_CHUNK_MASK).get(data, done, part);
+            done += part;
+        }
+        return new String(data, StandardCharsets.UTF_8);
+    }
+
+    private ByteBuffer dataChunk(int index) {
+        ByteBuffer chunk = dataChunks.get(index);
+        if (chunk == null) {
+            dataChunks.compareAndSet(index, null, ByteBuffer.allocateDirect(DATA_CHUNK_SIZE));
+            chunk = dataChunks.get(index);
+        }
+        return chunk;
+    }
+
+    /**
+     * Flyweight over one slot, every getter reads the columns.
+     */
+    private static final class View extends AuditEntry {
+        private final OffHeapSegment segment;
+        private final int slot;
+
+        View(OffHeapSegment segment, int slot) {
+            this.segment = segment;
+            this.slot = slot;
+        }
+
+        @Override
+        public AuditType getType() {
+            return TYPES[(int) STATE.getAcquire(segment.columns, Integer.BYTES * slot) - 1];
+        }
+
+        @Override
+        public long getAccountId() {
+            return segment.columns.getLong(segment.accountIds + Long.BYTES * slot);
+        }
+
+        @Override
+        public Instant getTimestamp() {
+            long nanos = segment.columns.getLong(segment.timestamps + Long.BYTES * slot);
+            return Instant.ofEpochSecond(Math.floorDiv(nanos, 1_000_000_000L), Math.floorMod(nanos, 1_000_000_000L));
+        }
+
+        @Override
+        public String getData() {
+            return segment.readData(slot);
+        }
+
+        @Override
+        long idHigh() {
+            return segment.columns.getLong(segment.idHighs + Long.BYTES * slot);
+        }
+
+        @Override
+        long idLow() {
+            return segment.columns.getLong(segment.idLows + Long.BYTES * slot);
+        }
+    }
+}
@@ -0,0 +1,46 @@
+package se.nackademin.messaging.audit;
+
+/**
+ * A message in the parking lot as shown by {@link ParkingLotResource}. Bodies that are not text are base64 encoded.
+ */
+public class ParkedMessage {
+    private final String queue;
+    private final int retries;
+    private final String error;
+    private final String contentType;
+    private final String body;
+    private final boolean base64;
+
+    ParkedMessage(String queue, int retries, String error, String contentType, String body, boolean base64) {
+        this.queue = queue;
+        this.retries = retries;
+        this.error = error;
+        this.contentType = contentType;
+        this.body = body;
+        this.base64 = base64;
+    }
+
+    public String getQueue() {
+        return queue;
+    }
+
+    public int getRetries() {
+        return retries;
+    }
+
+    public String getError() {
+        return error;
+    }
+
+    public String getContentType() {
+        return contentType;
+    }
+
+    public String getBody() {
+        return body;
+    }
+
+    public boolean isBase64() {
+        return base64;
+    }
+}
@@ -0,0 +1,54 @@
+package se.nackademin.messaging.audit;
+
+import org.springframework.amqp.AmqpException;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.server.ResponseStatusException;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Audit messages that failed every retry, see {@link AuditRetries}.
+ */
+@RestController
+public class ParkingLotResource {
+    private static final int MAX_MESSAGES = 1000;
+
+    private final AuditRetries retries;
+
+    public ParkingLotResource(AuditRetries retries) {
+        this.retries = retries;
+    }
+
+    @GetMapping("/audit/parking-lot")
+    public List<ParkedMessage> parked(@RequestParam(value = "max", defaultValue = "100") int max) {
+        try {
+            return retries.parked(checked(max));
+        } catch (AmqpException e) {
+            throw new ResponseStatusException(HttpStatus.SERVICE_UNAVAILABLE, e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Sends parked messages back to their audit queue, fix whatever made them fail first.
+     */
+    @PostMapping("/audit/parking-lot/replay")
+    public Map<String, Integer> replay(@RequestParam(value = "max", defaultValue = "100") int max) {
+        try {
+            return Map.of("replayed", retries.replay(checked(max)));
+        } catch (AmqpException e) {
+            throw new ResponseStatusException(HttpStatus.SERVICE_UNAVAILABLE, e.getMessage(), e);
+        }
+    }
+
+    private static int checked(int max) {
+        if (max < 1 || max > MAX_MESSAGES) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "max must be between 1 and " + MAX_MESSAGES);
+        }
+        return max;
+    }
+}
@@ -0,0 +1,464 @@
+package se.nackademin.messaging.audit;
+
+import java.nio.ByteBuffer;
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.PriorityQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Orders log positions by entry timestamp, ties broken by position, so that a time range or the page after a
+ * cursor is found in O(log n) per segment no matter how out of order events arrive.
+ * <p>
+ * The index is kept per segment of the {@link AuditLogRepository}, timestamps sorted into primitive arrays with the slot
+ * of each. While a segment is being filled, writers only track its oldest and newest timestamp. A query that needs the
+ * segment sorts the slots stored since the last query into a new run, and a run is merged into the one before it while
+ * that one is at most twice as long, so a segment has O(log n) runs and each entry is merged O(log n) times. Slots
+ * after one that is not stored yet are sorted for the query only. Once every position of a segment is stored, at the
+ * latest when it is sealed, its runs become one that is kept until the segment is dropped. A query skips the segments
+ * whose timestamps do not overlap its range and merges the runs of the others lazily.
+ */
+class TimeIndex {
+    private static final Sorted[] NO_RUNS = new Sorted[0];
+
+    /**
+     * Timestamp of a slot that holds no entry, or none yet.
+     */
+    static final long NO_ENTRY = Long.MIN_VALUE;
+
+    /**
+     * Reads the timestamps of a segment from the log.
+     */
+    @FunctionalInterface
+    interface Timestamps {
+        /**
+         * Fills {@code nanos[slot - from]} with the timestamp of every slot {@code from <= slot < to} of the segment in
+         * epoch nanos, {@link #NO_ENTRY} for a slot without an entry.
+         *
+         * @return the first slot that is not stored yet, {@code to} if all are, so that the slots before it will not
+         * change any more
+         */
+        int read(long index, int from, int to, long[] nanos);
+    }
+
+    private final AtomicReferenceArray<Segment> segments = new AtomicReferenceArray<>(AuditLogRepository.MAX_SEGMENTS);
+    private final Timestamps timestamps;
+
+    TimeIndex(Timestamps timestamps) {
+        this.timestamps = timestamps;
+    }
+
+    void add(Instant timestamp, long position) {
+        Segment segment = segment(position >>> AuditLogRepository.SEGMENT_SHIFT);
+        if (segment != null) {
+            segment.include(epochNanos(timestamp));
+        }
+    }
+
+    /**
+     * Keeps the sorted timestamps of a segment that is full, with {@link #NO_ENTRY} for slots without an entry.
+     */
+    void seal(long index, long[] nanos) {
+        Segment segment = segment(index);
+        if (segment != null && segment.sorted == null) {
+            segment.sorted = Sorted.of(index, nanos, 0, nanos.length, 0);
+        }
+    }
+
+    /**
+     * Forgets a dropped segment.
+     */
+    void remove(long index) {
+        Segment segment = segments.get(ring(index));
+        if (segment != null && segment.index == index) {
+            segments.compareAndSet(ring(index), segment, null);
+        }
+    }
+
+    /**
+     * Keys with {@code from <= timestamp < to} that come after {@code cursor}, from the positions {@code first <=
+     * position < end}. Any bound may be null. The keys are produced as the iterator advances.
+     */
+    Iterator<Key> range(Instant from, Instant to, Key cursor, long first, long end) {
+        Key lower = from == null ? new Key(Long.MIN_VALUE, Long.MIN_VALUE) : new Key(epochNanos(from), Long.MIN_VALUE);
+        if (cursor != null && cursor.compareTo(lower) >= 0) {
+            lower = cursor.next();
+        }
+        long upperNanos = to == null ? Long.MAX_VALUE : epochNanos(to);
+        PriorityQueue<Cursor> cursors = new PriorityQueue<>();
+        if (lower != null && lower.epochNanos < upperNanos && first < end) {
+            for (long index = first >>> AuditLogRepository.SEGMENT_SHIFT; index <= (end - 1) >>> AuditLogRepository.SEGMENT_SHIFT; index++) {
+                for (Sorted sorted : sorted(index, lower.epochNanos, upperNanos, end)) {
+                    Cursor segmentCursor = new Cursor(sorted, sorted.from(lower), sorted.before(upperNanos));
+                    if (!segmentCursor.done()) {
+                        cursors.add(segmentCursor);
+                    }
+                }
+            }
+        }
+        return new Iterator<>() {
+            @Override
+            public boolean hasNext() {
+                return !cursors.isEmpty();
+            }
+
+            @Override
+            public Key next() {
+                Cursor next = cursors.poll();
+                if (next == null) {
+                    throw new NoSuchElementException();
+                }
+                Key key = next.key();
+                next.advance();
+                if (!next.done()) {
+                    cursors.add(next);
+                }
+                return key;
+            }
+        };
+    }
+
+    /**
+     * The sorted runs of the segment that may have timestamps in {@code lowerNanos <= timestamp < upperNanos}, none if
+     * no run can. Slots of a segment still being filled that were stored since the last query are sorted into a new
+     * run first, those up to the log's {@code end} after one not stored yet into a run for this query only.
+     */
+    private Sorted[] sorted(long index, long lowerNanos, long upperNanos, long end) {
+        Segment segment = segments.get(ring(index));
+        if (segment == null || segment.index != index) {
+            return NO_RUNS;
+        }
+        Sorted sorted = segment.sorted;
+        if (sorted == null) {
+            if (segment.max.get() < lowerNanos || segment.min.get() >= upperNanos) {
+                return NO_RUNS;
+            }
+            Filling filling = segment.filling.get();
+            int claimed = (int) Math.min(AuditLogRepository.SEGMENT_SIZE, end - (index << AuditLogRepository.SEGMENT_SHIFT));
+            if (claimed <= filling.covered) {
+                return filling.runs;
+            }
+            long[] nanos = new long[claimed - filling.covered];
+            int stored = timestamps.read(index, filling.covered, claimed, nanos);
+            Filling next = filling.append(Sorted.of(index, nanos, 0, stored - filling.covered, filling.covered), stored);
+            if (next.covered < AuditLogRepository.SEGMENT_SIZE) {
+                // Another query may have got further, this one still sees what it read
+                segment.filling.compareAndSet(filling, next);
+                if (stored == claimed) {
+                    return next.runs;
+                }
+                Sorted[] runs = Arrays.copyOf(next.runs, next.runs.length + 1);
+                runs[next.runs.length] = Sorted.of(index, nanos, stored - filling.covered, nanos.length, filling.covered);
+                return runs;
+            }
+            sorted = next.merged(index);
+            segment.sorted = sorted;
+            segment.filling.set(Filling.EMPTY);
+        }
+        return sorted.overlaps(lowerNanos, upperNanos) ? new Sorted[]{sorted} : NO_RUNS;
+    }
+
+    /**
+     * The segment with the index, created by the first entry added to it. Null if its ring slot has moved on to a newer
+     * segment, the one asked for was dropped long ago.
+     */
+    private Segment segment(long index) {
+        while (true) {
+            Segment segment = segments.get(ring(index));
+            if (segment != null && segment.index >= index) {
+                return segment.index == index ? segment : null;
+            }
+            segments.compareAndSet(ring(index), segment, new Segment(index));
+        }
+    }
+
+    private static int ring(long index) {
+        return (int) (index & (AuditLogRepository.MAX_SEGMENTS - 1));
+    }
+
+    private static class Segment {
+        final long index;
+        final AtomicLong min = new AtomicLong(Long.MAX_VALUE);
+        final AtomicLong max = new AtomicLong(Long.MIN_VALUE);
+        final AtomicReference<Filling> filling = new AtomicReference<>(Filling.EMPTY);
+        volatile Sorted sorted;
+
+        Segment(long index) {
+            this.index = index;
+        }
+
+        void include(long epochNanos) {
+            // Timestamps mostly grow, so the minimum is seldom written and the maximum by one writer at a time
+            if (epochNanos < min.get()) {
+                min.accumulateAndGet(epochNanos, Math::min);
+            }
+            if (epochNanos > max.get()) {
+                max.accumulateAndGet(epochNanos, Math::max);
+            }
+        }
+    }
+
+    /**
+     * The sorted runs of a segment being filled, of the slots before {@code covered} in order, each at most half as
+     * long as the one before it.
+     */
+    private static final class Filling {
+        static final Filling EMPTY = new Filling(NO_RUNS, 0);
+
+        final Sorted[] runs;
+        final int covered;
+
+        private Filling(Sorted[] runs, int covered) {
+            this.runs = runs;
+            this.covered = covered;
+        }
+
+        /**
+         * With the run of the slots from {@code this.covered} to before {@code covered} added.
+         */
+        Filling append(Sorted run, int covered) {
+            if (run.nanos.length == 0) {
+                return covered == this.covered ? this : new Filling(runs, covered);
+            }
+            Sorted[] next = Arrays.copyOf(runs, runs.length + 1);
+            int count = runs.length;
+            next[count++] = run;
+            while (count > 1 && next[count - 2].nanos.length <= 2 * next[count - 1].nanos.length) {
+                next[count - 2] = Sorted.merge(next[count - 2], next[count - 1]);
+                count--;
+            }
+            return new Filling(count == next.length ? next : Arrays.copyOf(next, count), covered);
+        }
+
+        Sorted merged(long index) {
+            Sorted merged = Sorted.of(index, new long[0], 0, 0, 0);
+            for (Sorted run : runs) {
+                merged = Sorted.merge(merged, run);
+            }
+            return merged;
+        }
+    }
+
+    /**
+     * Timestamps of a segment in ascending order, ties in slot order, with the slot each came from.
+     */
+    private static final class Sorted {
+        private final long start;
+        private final long[] nanos;
+        private final short[] slots;
+
+        private Sorted(long start, long[] nanos, short[] slots) {
+            this.start = start;
+            this.nanos = nanos;
+            this.slots = slots;
+        }
+
+        /**
+         * Sorts the timestamps {@code nanos[i]} with {@code from <= i < to} of the slots {@code firstSlot + i}, leaving
+         * out {@link #NO_ENTRY}, with a stable merge sort that only copies runs that are already in order.
+         */
+        static Sorted of(long index, long[] nanos, int from, int to, int firstSlot) {
+            int[] order = new int[to - from];
+            int count = 0;
+            for (int i = from; i < to; i++) {
+                if (nanos[i] != NO_ENTRY) {
+                    order[count++] = i;
+                }
+            }
+            int[] buffer = new int[count];
+            for (int width = 1; width < count; width *= 2) {
+                for (int low = 0; low + width < count; low += 2 * width) {
+                    int middle = low + width;
+                    int high = Math.min(low + 2 * width, count);
+                    if (nanos[order[middle - 1]] <= nanos[order[middle]]) {
+                        continue;
+                    }
+                    System.arraycopy(order, low, buffer, low, high - low);
+                    int left = low;
+                    int right = middle;
+                    for (int i = low; i < high; i++) {
+                        if (right >= high || left < middle && nanos[buffer[left]] <= nanos[buffer[right]]) {
+                            order[i] = buffer[left++];
+                        } else {
+                            order[i] = buffer[right++];
+                        }
+                    }
+                }
+            }
+            long[] sortedNanos = new long[count];
+            short[] slots = new short[count];
+            for (int i = 0; i < count; i++) {
+                sortedNanos[i] = nanos[order[i]];
+                slots[i] = (short) (firstSlot + order[i]);
+            }
+            return new Sorted(index << AuditLogRepository.SEGMENT_SHIFT, sortedNanos, slots);
+        }
+
+        /**
+         * Merges two runs of the same segment, all slots of {@code later} after those of {@code earlier}.
+         */
+        static Sorted merge(Sorted earlier, Sorted later) {
+            int count = earlier.nanos.length + later.nanos.length;
+            long[] nanos = new long[count];
+            short[] slots = new short[count];
+            int left = 0;
+            int right = 0;
+            for (int i = 0; i < count; i++) {
+                if (right >= later.nanos.length || left < earlier.nanos.length && earlier.nanos[left] <= later.nanos[right]) {
+                    nanos[i] = earlier.nanos[left];
+                    slots[i] = earlier.slots[left++];
+                } else {
+                    nanos[i] = later.nanos[right];
+                    slots[i] = later.slots[right++];
+                }
+            }
+            return new Sorted(later.start, nanos, slots);
+        }
+
+        boolean overlaps(long lowerNanos, long upperNanos) {
+            return nanos.length > 0 && nanos[nanos.length - 1] >= lowerNanos && nanos[0] < upperNanos;
+        }
+
+        long position(int i) {
+            return start + slots[i];
+        }
+
+        /**
+         * Index of the first key at or after {@code key}.
+         */
+        int from(Key key) {
+            int low = 0;
+            int high = nanos.length;
+            while (low < high) {
+                int middle = (low + high) >>> 1;
+                int byTime = Long.compare(nanos[middle], key.epochNanos);
+                if (byTime < 0 || byTime == 0 && position(middle) < key.position) {
+                    low = middle + 1;
+                } else {
+                    high = middle;
+                }
+            }
+            return low;
+        }
+
+        /**
+         * Index of the first key with a timestamp at or after {@code upperNanos}.
+         */
+        int before(long upperNanos) {
+            int low = 0;
+            int high = nanos.length;
+            while (low < high) {
+                int middle = (low + high) >>> 1;
+                if (nanos[middle] < upperNanos) {
+                    low = middle + 1;
+                } else {
+                    high = middle;
+                }
+            }
+            return low;
+        }
+    }
+
+    private static final class Cursor implements Comparable<Cursor> {
+        private final Sorted sorted;
+        private final int end;
+        private int next;
+
+        Cursor(Sorted sorted, int from, int end) {
+            this.sorted = sorted;
+            this.next = from;
+            this.end = end;
+        }
+
+        boolean done() {
+            return next >= end;
+        }
+
+        void advance() {
+            next++;
+        }
+
+        Key key() {
+            return new Key(sorted.nanos[next], sorted.position(next));
+        }
+
+        @Override
+        public int compareTo(Cursor other) {
+            int byTime = Long.compare(sorted.nanos[next], other.sorted.nanos[other.next]);
+            return byTime != 0 ? byTime : Long.compare(sorted.position(next), other.sorted.position(other.next));
+        }
+    }
+
+    static long epochNanos(Instant instant) {
+        return Math.addExact(Math.multiplyExact(instant.getEpochSecond(), 1_000_000_000L), instant.getNano());
+    }
+
+    static class Key implements Comparable<Key> {
+        private static final Base64.Encoder ENCODER = Base64.getUrlEncoder().withoutPadding();
+        private static final Base64.Decoder DECODER = Base64.getUrlDecoder();
+
+        private final long epochNanos;
+        private final long position;
+
+        Key(long epochNanos, long position) {
+            this.epochNanos = epochNanos;
+            this.position = position;
+        }
+
+        long position() {
+            return position;
+        }
+
+        /**
+         * The smallest key after this one, null if there is none.
+         */
+        Key next() {
+            if (position != Long.MAX_VALUE) {
+                return new Key(epochNanos, position + 1);
+            }
+            return epochNanos == Long.MAX_VALUE ? null : new Key(epochNanos + 1, Long.MIN_VALUE);
+        }
+
+        String toCursor() {
+            return ENCODER.encodeToString(ByteBuffer.allocate(16).putLong(epochNanos).putLong(position).array());
+        }
+
+        static Key fromCursor(String cursor) {
+            byte[] bytes;
+            try {
+                bytes = DECODER.decode(cursor);
+            } catch (IllegalArgumentException e) {
+                throw new IllegalArgumentException("Malformed cursor " + cursor, e);
+            }
+            if (bytes.length != 16) {
+                throw new IllegalArgumentException("Malformed cursor " + cursor);
+            }
+            ByteBuffer buffer = ByteBuffer.wrap(bytes);
+            return new Key(buffer.getLong(), buffer.getLong());
+        }
+
+        @Override
+        public int compareTo(Key other) {
+            int byTime = Long.compare(epochNanos, other.epochNanos);
+            return byTime != 0 ? byTime : Long.compare(position, other.position);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof Key)) return false;
+            Key key = (Key) o;
+            return epochNanos == key.epochNanos && position == key.position;
+        }
+
+        @Override
+        public int hashCode() {
+            return Long.hashCode(epochNanos) * 31 + Long.hashCode(position);
+        }
+    }
+}
@@ -0,0 +1,44 @@
+package se.nackademin.messaging.audit;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ApplicationConfigurationTest {
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void seedsTheDedupWindowPastTombstones() throws IOException {
+        try (AuditLogRepository repository = new AuditLogRepository(journal())) {
+            repository.recover();
+            repository.add(new AuditEntry(AuditEntry.AuditType.OPEN_ACCOUNT, 1, Instant.now(), "", 1, 1));
+            // Too large for a journal segment, its position becomes a tombstone
+            assertThrows(IllegalArgumentException.class, () -> repository.add(new AuditEntry(AuditEntry.AuditType.DEPOSIT, 1, Instant.now(), "x".repeat(300), 1, 2)));
+            repository.add(new AuditEntry(AuditEntry.AuditType.DEPOSIT, 1, Instant.now(), "Deposit amount of 5", 1, 3));
+
+            DedupWindow live = new ApplicationConfiguration().dedupWindow(repository, 10, 60_000);
+            assertTrue(live.contains(1, 1));
+            assertFalse(live.contains(1, 2));
+            assertTrue(live.contains(1, 3));
+        }
+
+        try (AuditLogRepository recovered = new AuditLogRepository(journal())) {
+            recovered.recover();
+            DedupWindow restarted = new ApplicationConfiguration().dedupWindow(recovered, 10, 60_000);
+            assertTrue(restarted.contains(1, 1));
+            assertTrue(restarted.contains(1, 3));
+        }
+    }
+
+    private MappedAuditJournal journal() {
+        return new MappedAuditJournal(directory, 200, MappedAuditJournal.FsyncPolicy.BATCH, 10, Duration.ofSeconds(1));
+    }
+}
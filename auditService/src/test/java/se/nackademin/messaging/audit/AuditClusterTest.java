@@ -0,0 +1,94 @@
+package se.nackademin.messaging.audit;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class AuditClusterTest {
+    private static final Instant START = Instant.parse("2021-09-01T10:00:00Z");
+
+    @Test
+    void pagesThroughAllNodesInOneTimeOrder() {
+        List<AuditLogRepository> repositories = List.of(new AuditLogRepository(), new AuditLogRepository(), new AuditLogRepository());
+        for (int i = 0; i < 30; i++) {
+            // Equal timestamps on different nodes, ordered by node
+            repositories.get(i % 3).add(new AuditEntry(AuditEntry.AuditType.DEPOSIT, i, START.plusSeconds(i / 2), "Deposit amount of " + i));
+        }
+        AuditCluster cluster = cluster(repositories);
+
+        List<Long> seen = new ArrayList<>();
+        String cursor = null;
+        int pages = 0;
+        do {
+            AuditPage page = cluster.page(START.plusSeconds(1), START.plusSeconds(14), cursor, 4);
+            page.getEntries().forEach(e -> seen.add(e.getAccountId()));
+            cursor = page.getNextCursor();
+            pages++;
+        } while (cursor != null);
+
+        // Entry i is at second i / 2 on node i % 3
+        assertEquals(List.of(3L, 2L, 4L, 5L, 6L, 7L, 9L, 8L, 10L, 11L, 12L, 13L, 15L, 14L, 16L, 17L, 18L, 19L, 21L, 20L,
+                22L, 23L, 24L, 25L, 27L, 26L), seen);
+        assertEquals(7, pages);
+        assertThrows(IllegalArgumentException.class, () -> cluster.page(null, null, "bm90LWEtY3Vyc29y", 4));
+    }
+
+    @Test
+    void mergesAccountEntriesFromEveryNode() {
+        List<AuditLogRepository> repositories = List.of(new AuditLogRepository(), new AuditLogRepository());
+        repositories.get(1).add(new AuditEntry(AuditEntry.AuditType.DEPOSIT, 7, START.plusSeconds(2), "Deposit amount of 2"));
+        repositories.get(0).add(new AuditEntry(AuditEntry.AuditType.OPEN_ACCOUNT, 7, START, ""));
+        repositories.get(0).add(new AuditEntry(AuditEntry.AuditType.DEPOSIT, 7, START.plusSeconds(3), "Deposit amount of 3"));
+        repositories.get(1).add(new AuditEntry(AuditEntry.AuditType.DEPOSIT, 8, START.plusSeconds(1), "Deposit amount of 1"));
+
+        List<AuditEntry> entries = cluster(repositories).findByAccountId(7);
+        AccountSummary summary = cluster(repositories).summary(7);
+
+        assertEquals(List.of("", "Deposit amount of 2", "Deposit amount of 3"), List.of(entries.get(0).getData(), entries.get(1).getData(), entries.get(2).getData()));
+        assertEquals(3, summary.getEntries());
+        assertEquals(2, summary.getDeposits());
+        assertEquals(5, summary.getDepositSum());
+        assertEquals(START, summary.getOpenedAt());
+        assertEquals(START.plusSeconds(3), summary.getLastAt());
+    }
+
+    @Test
+    void splitsShardsAndFailsWhenANodeIsDown() {
+        AuditLogRepository local = new AuditLogRepository();
+        AuditNode down = new AuditNode() {
+            @Override
+            public CompletableFuture<List<AuditRecord>> page(Instant from, Instant to, TimeIndex.Key after, int size) {
+                return CompletableFuture.failedFuture(new IllegalStateException("Connection refused"));
+            }
+
+            @Override
+            public CompletableFuture<List<AuditRecord>> account(long accountId) {
+                return CompletableFuture.failedFuture(new IllegalStateException("Connection refused"));
+            }
+
+            @Override
+            public CompletableFuture<AccountSummary> summary(long accountId) {
+                return CompletableFuture.failedFuture(new IllegalStateException("Connection refused"));
+            }
+        };
+        AuditCluster cluster = new AuditCluster(local, List.of(down, new LocalAuditNode(local)), 1);
+
+        assertFalse(cluster.owns(0));
+        assertTrue(cluster.owns(1));
+        assertTrue(cluster.owns(3));
+        assertThrows(IllegalStateException.class, () -> cluster.page(null, null, null, 10));
+        assertThrows(IllegalStateException.class, () -> cluster.findByAccountId(1));
+        assertThrows(IllegalStateException.class, () -> cluster.summary(1));
+    }
+
+    private static AuditCluster cluster(List<AuditLogRepository> repositories) {
+        List<AuditNode> nodes = new ArrayList<>();
+        repositories.forEach(repository -> nodes.add(new LocalAuditNode(repository)));
+        return new AuditCluster(repositories.get(0), nodes, 0);
+    }
+}
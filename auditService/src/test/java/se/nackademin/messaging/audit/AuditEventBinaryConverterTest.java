@@ -0,0 +1,92 @@
+package se.nackademin.messaging.audit;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.Test;
+import org.springframework.amqp.core.Message;
+import org.springframework.amqp.core.MessageProperties;
+import org.springframework.amqp.support.converter.ContentTypeDelegatingMessageConverter;
+import org.springframework.amqp.support.converter.Jackson2JsonMessageConverter;
+import org.springframework.amqp.support.converter.MessageConversionException;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class AuditEventBinaryConverterTest {
+    private static final Instant TIMESTAMP = Instant.parse("2021-09-01T10:15:30.123456789Z");
+
+    @Test
+    void readsLayoutWrittenByBusinessService() {
+        byte[] data = "Deposit amount of 100".getBytes(StandardCharsets.UTF_8);
+        byte[] body = ByteBuffer.allocate(21 + data.length)
+                .put((byte) 2)
+                .putLong(1234)
+                .putLong(1630491330123456789L)
+                .putInt(data.length)
+                .put(data)
+                .array();
+        MessageProperties properties = new MessageProperties();
+        properties.setContentType(AuditEventBinaryConverter.CONTENT_TYPE);
+
+        AuditEvent event = (AuditEvent) converter().fromMessage(new Message(body, properties));
+
+        assertEquals("DEPOSIT", event.getType());
+        assertEquals(1234, event.getAccountId());
+        assertEquals(TIMESTAMP, event.getInstant());
+        assertEquals(TIMESTAMP.toString(), event.getTimestamp());
+        assertEquals("Deposit amount of 100", event.getData());
+    }
+
+    @Test
+    void readsIdWhenTypeCodeHasTheFlag() {
+        byte[] body = ByteBuffer.allocate(37)
+                .put((byte) (AuditEventBinaryConverter.OPEN_ACCOUNT | AuditEventBinaryConverter.HAS_ID))
+                .putLong(0x0123_4567_89ab_7cdeL)
+                .putLong(0x8000_0000_0000_0042L)
+                .putLong(1234)
+                .putLong(1630491330123456789L)
+                .putInt(0)
+                .array();
+        MessageProperties properties = new MessageProperties();
+        properties.setContentType(AuditEventBinaryConverter.CONTENT_TYPE);
+
+        AuditEvent event = (AuditEvent) converter().fromMessage(new Message(body, properties));
+
+        assertEquals("OPEN_ACCOUNT", event.getType());
+        assertEquals("01234567-89ab-7cde-8000-000000000042", event.getId());
+        assertEquals(1234, event.getAccountId());
+        assertEquals(TIMESTAMP, event.getInstant());
+        assertArrayEquals(body, new AuditEventBinaryConverter().toMessage(event, new MessageProperties()).getBody());
+    }
+
+    @Test
+    void fallsBackToJsonForOtherContentTypes() {
+        ContentTypeDelegatingMessageConverter converter = converter();
+        Message json = new Jackson2JsonMessageConverter()
+                .toMessage(new AuditEvent("01234567-89ab-7cde-8000-000000000042", 1, "", "OPEN_ACCOUNT", TIMESTAMP.toString()), new MessageProperties());
+        json.getMessageProperties().setInferredArgumentType(AuditEvent.class);
+
+        AuditEvent event = (AuditEvent) converter.fromMessage(json);
+
+        assertEquals("OPEN_ACCOUNT", event.getType());
+        assertEquals(0x0123_4567_89ab_7cdeL, event.idHigh());
+        assertEquals(0x8000_0000_0000_0042L, event.idLow());
+        assertEquals(TIMESTAMP, event.getInstant());
+    }
+
+    @Test
+    void rejectsTruncatedMessage() {
+        MessageProperties properties = new MessageProperties();
+        properties.setContentType(AuditEventBinaryConverter.CONTENT_TYPE);
+
+        assertThrows(MessageConversionException.class, () -> converter().fromMessage(new Message(new byte[]{2, 0, 0}, properties)));
+    }
+
+    private static ContentTypeDelegatingMessageConverter converter() {
+        ContentTypeDelegatingMessageConverter converter = new ContentTypeDelegatingMessageConverter(new Jackson2JsonMessageConverter(new ObjectMapper()));
+        converter.addDelegate(AuditEventBinaryConverter.CONTENT_TYPE, new AuditEventBinaryConverter());
+        return converter;
+    }
+}
@@ -0,0 +1,48 @@
+package se.nackademin.messaging.audit;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+
+import java.time.Instant;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class AuditLogReceiverTest {
+
+    @Test
+    void storesEachEventOnceAndRecordsMetrics() {
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        AuditLogReceiver receiver = new AuditLogReceiver();
+        receiver.auditLogRepository = new AuditLogRepository();
+        receiver.dedupWindow = new DedupWindow(100, 1, TimeUnit.HOURS);
+        receiver.metrics = new ConsumeMetrics(registry);
+        Instant sent = Instant.now().minusMillis(50);
+        AuditEvent first = new AuditEvent(1, 1, 7, "", "OPEN_ACCOUNT", sent);
+        AuditEvent second = new AuditEvent(1, 2, 7, "Deposit amount of 5", "DEPOSIT", sent);
+        AuditEvent withoutId = new AuditEvent(7, "Deposit amount of 6", "DEPOSIT", sent);
+
+        receiver.receiveMessages(List.of(first, second));
+        receiver.receiveMessages(List.of(second, withoutId));
+
+        assertEquals(3, receiver.auditLogRepository.size());
+        assertEquals(11, receiver.auditLogRepository.summary(7).getDepositSum());
+        assertEquals(1, registry.get("audit.consume.duplicates").counter().count());
+        assertEquals(2, registry.get("audit.consume.batch.size").summary().count());
+        assertEquals(3, registry.get("audit.consume.end-to-end").timer().count());
+        assertTrue(registry.get("audit.consume.end-to-end").timer().max(TimeUnit.MILLISECONDS) >= 50);
+    }
+
+    @Test
+    void rejectsSummaryEvents() {
+        AuditLogReceiver receiver = new AuditLogReceiver();
+        receiver.auditLogRepository = new AuditLogRepository();
+        receiver.dedupWindow = new DedupWindow(100, 1, TimeUnit.HOURS);
+        receiver.metrics = new ConsumeMetrics(new SimpleMeterRegistry());
+
+        assertThrows(IllegalArgumentException.class, () -> receiver.receiveMessages(List.of(new AuditEvent(7, "3 entries compacted", "SUMMARY", Instant.now()))));
+
+        assertEquals(0, receiver.auditLogRepository.size());
+    }
+}
@@ -0,0 +1,370 @@
+package se.nackademin.messaging.audit;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class AuditLogRepositoryTest {
+
+    @Test
+    void keepsEveryEntryWhenWrittenConcurrently() throws Exception {
+        AuditLogRepository repository = new AuditLogRepository();
+        int writers = 8;
+        int perWriter = AuditLogRepository.SEGMENT_SIZE + 100;
+        ExecutorService executor = Executors.newFixedThreadPool(writers);
+        CountDownLatch start = new CountDownLatch(1);
+        for (int w = 0; w < writers; w++) {
+            long accountId = w;
+            executor.submit(() -> {
+                start.await();
+                for (int i = 0; i < perWriter; i++) {
+                    repository.add(new AuditEntry(AuditEntry.AuditType.DEPOSIT, accountId, Instant.now(), "" + i));
+                }
+                return null;
+            });
+        }
+        start.countDown();
+        executor.shutdown();
+        assertTrue(executor.awaitTermination(30, TimeUnit.SECONDS));
+
+        List<AuditEntry> all = repository.getAll();
+        assertEquals(writers * perWriter, all.size());
+        Set<String> seen = new HashSet<>();
+        for (AuditEntry entry : all) {
+            assertTrue(seen.add(entry.getAccountId() + ":" + entry.getData()));
+        }
+    }
+
+    @Test
+    void snapshotDoesNotSeeLaterEntries() {
+        AuditLogRepository repository = new AuditLogRepository();
+        repository.add(new AuditEntry(AuditEntry.AuditType.OPEN_ACCOUNT, 1, Instant.now(), ""));
+
+        List<AuditEntry> snapshot = repository.getAll();
+        repository.add(new AuditEntry(AuditEntry.AuditType.DEPOSIT, 1, Instant.now(), "Deposit amount of 10"));
+
+        assertEquals(1, snapshot.size());
+        assertEquals(AuditEntry.AuditType.OPEN_ACCOUNT, snapshot.get(0).getType());
+        assertEquals(2, repository.getAll().size());
+    }
+
+    @Test
+    void findsEntriesOfOneAccountInAppendOrder() {
+        AuditLogRepository repository = new AuditLogRepository();
+        for (long accountId = 0; accountId < 5000; accountId++) {
+            repository.add(new AuditEntry(AuditEntry.AuditType.OPEN_ACCOUNT, accountId, Instant.now(), ""));
+        }
+        repository.add(new AuditEntry(AuditEntry.AuditType.DEPOSIT, 42, Instant.now(), "Deposit amount of 10"));
+        repository.add(new AuditEntry(AuditEntry.AuditType.DEPOSIT, Long.MIN_VALUE, Instant.now(), "Deposit amount of 20"));
+
+        List<AuditEntry> entries = repository.findByAccountId(42);
+
+        assertEquals(2, entries.size());
+        assertEquals(AuditEntry.AuditType.OPEN_ACCOUNT, entries.get(0).getType());
+        assertEquals("Deposit amount of 10", entries.get(1).getData());
+        assertEquals(1, repository.findByAccountId(Long.MIN_VALUE).size());
+        assertTrue(repository.findByAccountId(-1).isEmpty());
+    }
+
+    @Test
+    void addsBatchInOrderAcrossSegmentBoundary() {
+        AuditLogRepository repository = new AuditLogRepository();
+        List<AuditEntry> batch = new ArrayList<>();
+        for (int i = 0; i < AuditLogRepository.SEGMENT_SIZE + 10; i++) {
+            batch.add(new AuditEntry(AuditEntry.AuditType.DEPOSIT, i, Instant.now(), "Deposit amount of " + i));
+        }
+
+        repository.add(new AuditEntry(AuditEntry.AuditType.OPEN_ACCOUNT, 1, Instant.now(), ""));
+        repository.addAll(batch);
+
+        List<AuditEntry> all = repository.getAll();
+        assertEquals(batch.size() + 1, all.size());
+        assertEquals(batch, all.subList(1, all.size()));
+        assertEquals(2, repository.findByAccountId(1).size());
+    }
+
+    @Test
+    void skipsPositionsWhoseEntryWasNotStored() {
+        AtomicBoolean journalFails = new AtomicBoolean();
+        AuditJournal journal = new AuditJournal() {
+            @Override
+            public long recover(Recovery recovery) {
+                return 0;
+            }
+
+            @Override
+            public void append(long position, AuditEntry entry) {
+                if (journalFails.get()) {
+                    throw new UncheckedIOException(new IOException("Disk full"));
+                }
+            }
+
+            @Override
+            public void close() {
+            }
+        };
+        AuditLogRepository repository = new AuditLogRepository(journal, 0, true);
+        Instant now = Instant.now();
+        repository.add(new AuditEntry(AuditEntry.AuditType.DEPOSIT, 1, now, "Deposit amount of 10"));
+        // The off-heap columns have no type to store
+        assertThrows(NullPointerException.class, () -> repository.addAll(List.of(
+                new AuditEntry(null, 1, now, "No type"),
+                new AuditEntry(AuditEntry.AuditType.DEPOSIT, 1, now, "Deposit amount of 20"))));
+        journalFails.set(true);
+        assertThrows(UncheckedIOException.class, () -> repository.add(new AuditEntry(AuditEntry.AuditType.DEPOSIT, 1, now, "Lost")));
+
+        assertEquals(4, repository.size());
+        assertTimeoutPreemptively(Duration.ofSeconds(1), () -> {
+            assertThrows(IllegalStateException.class, () -> repository.get(1));
+            assertThrows(IllegalStateException.class, () -> repository.get(3));
+            assertNull(repository.retained(3));
+            assertEquals("Deposit amount of 20", repository.get(2).getData());
+            assertEquals(2, repository.findByAccountId(1).size());
+            assertEquals(2, repository.page(null, null, null, 10).getEntries().size());
+        });
+    }
+
+    @Test
+    void sealsSegmentsWithGapsOnceRecoveryEnds() throws IOException {
+        Instant start = Instant.parse("2021-09-01T10:00:00Z");
+        AuditJournal journal = new AuditJournal() {
+            @Override
+            public long recover(Recovery recovery) {
+                for (int position = 0; position < 2 * AuditLogRepository.SEGMENT_SIZE + 10; position++) {
+                    // Lost in a crash, the first segment is not complete until recovery tombstones it
+                    if (position != 5) {
+                        recovery.recovered(position, new AuditEntry(AuditEntry.AuditType.DEPOSIT, position, start.plusSeconds(position), ""));
+                    }
+                }
+                return 2 * AuditLogRepository.SEGMENT_SIZE + 9;
+            }
+
+            @Override
+            public void append(long position, AuditEntry entry) {
+            }
+
+            @Override
+            public void close() {
+            }
+        };
+        AuditLogRepository repository = new AuditLogRepository(journal, 1, false, Runnable::run);
+
+        assertTimeoutPreemptively(Duration.ofSeconds(2), repository::recover);
+
+        assertEquals(2 * AuditLogRepository.SEGMENT_SIZE, repository.coldEntries());
+        assertNull(repository.retained(5));
+        assertEquals(6, repository.get(6).getAccountId());
+        assertEquals(List.of(4L, 6L), accountIds(repository.page(start.plusSeconds(4), start.plusSeconds(7), null, 10)));
+    }
+
+    @Test
+    void pagesThroughTimeRangeInTimestampOrder() {
+        AuditLogRepository repository = new AuditLogRepository();
+        Instant start = Instant.parse("2021-09-01T10:00:00Z");
+        for (int i = 9; i >= 0; i--) {
+            repository.add(new AuditEntry(AuditEntry.AuditType.DEPOSIT, i, start.plusSeconds(i), "Deposit amount of " + i));
+        }
+
+        AuditPage first = repository.page(start.plusSeconds(2), start.plusSeconds(8), null, 4);
+        AuditPage second = repository.page(start.plusSeconds(2), start.plusSeconds(8), first.getNextCursor(), 4);
+
+        assertEquals(List.of(2L, 3L, 4L, 5L), accountIds(first));
+        assertEquals(List.of(6L, 7L), accountIds(second));
+        assertNull(second.getNextCursor());
+        assertThrows(IllegalArgumentException.class, () -> repository.page(null, null, "not-a-cursor", 4));
+    }
+
+    @Test
+    void pagesTheSegmentBeingFilledBetweenAppends() {
+        AuditLogRepository repository = new AuditLogRepository();
+        Instant start = Instant.parse("2021-09-01T10:00:00Z");
+        Random random = new Random(7);
+        for (int i = 0; i < 3000; i++) {
+            repository.add(new AuditEntry(AuditEntry.AuditType.DEPOSIT, i, start.plusSeconds(random.nextInt(500)), "Deposit amount of 1"));
+            if (i % 37 == 0) {
+                // Each query sorts what was stored since the one before into another run
+                List<AuditEntry> all = repository.page(null, null, null, 5000).getEntries();
+                assertEquals(i + 1, all.size());
+                for (int j = 1; j < all.size(); j++) {
+                    assertFalse(all.get(j).getTimestamp().isBefore(all.get(j - 1).getTimestamp()));
+                }
+            }
+        }
+
+        List<Long> paged = new ArrayList<>();
+        String cursor = null;
+        do {
+            AuditPage page = repository.page(start.plusSeconds(100), start.plusSeconds(400), cursor, 64);
+            paged.addAll(accountIds(page));
+            cursor = page.getNextCursor();
+        } while (cursor != null);
+
+        List<AuditEntry> expected = new ArrayList<>(repository.getAll());
+        expected.removeIf(entry -> entry.getTimestamp().isBefore(start.plusSeconds(100)) || !entry.getTimestamp().isBefore(start.plusSeconds(400)));
+        // Stable, so ties stay in log order as the account ids are
+        expected.sort(Comparator.comparing(AuditEntry::getTimestamp));
+        assertEquals(expected.stream().map(AuditEntry::getAccountId).collect(Collectors.toList()), paged);
+    }
+
+    @Test
+    void pagesAcrossSealedHotAndDroppedSegments() {
+        AuditLogRepository repository = new AuditLogRepository(AuditJournal.NONE, 1, false, Runnable::run);
+        Instant start = Instant.parse("2021-09-01T10:00:00Z");
+        int count = 3 * AuditLogRepository.SEGMENT_SIZE + 100;
+        for (int i = 0; i < count; i++) {
+            // Every segment overlaps the next in time, and every tenth entry shares its timestamp with the one before
+            long second = i - i % 10 / 9 - (i % 3 == 0 ? 20_000 : 0);
+            repository.add(new AuditEntry(AuditEntry.AuditType.DEPOSIT, i, start.plusSeconds(second), "Deposit amount of 1"));
+        }
+        assertTrue(repository.dropOldestSegment(false));
+
+        List<AuditEntry> entries = new ArrayList<>();
+        String cursor = null;
+        do {
+            AuditPage page = repository.page(null, start.plusSeconds(count - 50), cursor, 1000);
+            entries.addAll(page.getEntries());
+            cursor = page.getNextCursor();
+        } while (cursor != null);
+
+        List<AuditEntry> expected = new ArrayList<>();
+        for (long position = repository.first(); position < repository.size(); position++) {
+            AuditEntry entry = repository.get(position);
+            if (entry.getTimestamp().isBefore(start.plusSeconds(count - 50))) {
+                expected.add(entry);
+            }
+        }
+        // Sorting is stable, equal timestamps stay in position order
+        expected.sort(Comparator.comparing(AuditEntry::getTimestamp));
+        assertEquals(expected.size(), entries.size());
+        for (int i = 0; i < expected.size(); i++) {
+            assertEquals(expected.get(i).getAccountId(), entries.get(i).getAccountId());
+        }
+    }
+
+    private static List<Long> accountIds(AuditPage page) {
+        List<Long> ids = new ArrayList<>();
+        page.getEntries().forEach(e -> ids.add(e.getAccountId()));
+        return ids;
+    }
+
+    @Test
+    void keepsAccountTotalsAsEntriesArrive() {
+        AuditLogRepository repository = new AuditLogRepository();
+        Instant start = Instant.parse("2021-09-01T10:00:00Z");
+        for (long accountId = 0; accountId < 5000; accountId++) {
+            repository.add(new AuditEntry(AuditEntry.AuditType.DEPOSIT, accountId, start.plusSeconds(2), "Deposit amount of " + accountId));
+        }
+        repository.add(new AuditEntry(AuditEntry.AuditType.OPEN_ACCOUNT, 42, start.plusSeconds(1), ""));
+        repository.add(new AuditEntry(AuditEntry.AuditType.DEPOSIT, 42, start, "Deposit amount of -2"));
+        repository.add(new AuditEntry(AuditEntry.AuditType.DEPOSIT, 42, start.plusSeconds(3), "Deposit of something"));
+        repository.add(new AuditEntry(AuditEntry.AuditType.DEPOSIT, 43, start, "Deposit amount of " + Long.MAX_VALUE));
+
+        AccountSummary summary = repository.summary(42);
+
+        assertEquals(4, summary.getEntries());
+        assertEquals(3, summary.getDeposits());
+        assertEquals(40, summary.getDepositSum());
+        assertEquals(start.plusSeconds(1), summary.getOpenedAt());
+        assertEquals(start, summary.getFirstAt());
+        assertEquals(start.plusSeconds(3), summary.getLastAt());
+        assertEquals(Long.MAX_VALUE, repository.summary(43).getDepositSum());
+        assertNull(repository.summary(43).getOpenedAt());
+        assertEquals(0, repository.summary(-1).getEntries());
+    }
+
+    @ParameterizedTest(name = "off-heap {0}")
+    @ValueSource(booleans = {false, true})
+    void readsSealedSegmentsLikeHotOnes(boolean offHeap) {
+        AuditLogRepository repository = new AuditLogRepository(AuditJournal.NONE, 1, offHeap, Runnable::run);
+        Instant start = Instant.parse("2021-09-01T10:00:00.123456789Z");
+        int count = 3 * AuditLogRepository.SEGMENT_SIZE + 5;
+        for (int i = 0; i < count; i++) {
+            // Timestamps and accounts going both ways, a few entries without data or id
+            String data = i % 1000 == 0 ? null : "Deposit amount of " + (i % 300);
+            long idHigh = i % 7 == 0 ? 0 : (1_630_000_000_000L + i) << 16;
+            long idLow = i % 7 == 0 ? 0 : Long.MIN_VALUE | i * 0x9E3779B97F4A7C15L;
+            repository.add(new AuditEntry(i % 10 == 0 ? AuditEntry.AuditType.OPEN_ACCOUNT : AuditEntry.AuditType.DEPOSIT,
+                    i % 2 == 0 ? i % 97 : -i, start.plusNanos(i % 3 == 0 ? -i : i * 1000L), data, idHigh, idLow));
+        }
+
+        assertEquals(3L * AuditLogRepository.SEGMENT_SIZE, repository.coldEntries(), "All but the segment being filled");
+        assertTrue(repository.coldBytes() > 0);
+        List<AuditEntry> all = repository.getAll();
+        assertEquals(count, all.size());
+        for (int i = 0; i < count; i += 13) {
+            AuditEntry entry = all.get(i);
+            assertEquals(i % 10 == 0 ? AuditEntry.AuditType.OPEN_ACCOUNT : AuditEntry.AuditType.DEPOSIT, entry.getType());
+            assertEquals(i % 2 == 0 ? i % 97 : -i, entry.getAccountId());
+            assertEquals(start.plusNanos(i % 3 == 0 ? -i : i * 1000L), entry.getTimestamp());
+            assertEquals(i % 1000 == 0 ? null : "Deposit amount of " + (i % 300), entry.getData());
+            assertEquals(i % 7 == 0 ? 0 : (1_630_000_000_000L + i) << 16, entry.idHigh());
+            assertEquals(i % 7 == 0 ? 0 : Long.MIN_VALUE | i * 0x9E3779B97F4A7C15L, entry.idLow());
+        }
+        List<AuditEntry> account = repository.findByAccountId(4);
+        assertEquals(count / 194 + 1, account.size(), "Even i with i % 97 == 4");
+        assertTrue(account.stream().allMatch(entry -> entry.getAccountId() == 4));
+        assertEquals(25, repository.page(null, null, null, 25).getEntries().size());
+    }
+
+    @Test
+    void keepsDataSpanningOffHeapChunks() {
+        AuditLogRepository repository = new AuditLogRepository(AuditJournal.NONE, 0, true);
+        Instant now = Instant.now();
+        String data = "Överföring ".repeat(10_000);
+        for (int i = 0; i < 30; i++) {
+            repository.add(new AuditEntry(AuditEntry.AuditType.DEPOSIT, i, now, i + data, 1, i));
+        }
+        repository.add(new AuditEntry(AuditEntry.AuditType.OPEN_ACCOUNT, 30, now, null));
+
+        List<AuditEntry> all = repository.getAll();
+        for (int i = 0; i < 30; i++) {
+            assertEquals(i + data, all.get(i).getData());
+            assertEquals(new UUID(1, i).toString(), all.get(i).getId());
+        }
+        assertNull(all.get(30).getData());
+        assertNull(all.get(30).getId());
+        assertEquals(AuditEntry.AuditType.OPEN_ACCOUNT, all.get(30).getType());
+        assertEquals(now, all.get(30).getTimestamp());
+        assertTrue(repository.offHeapBytes() > 30 * 120_000L, "Data of 120 kB per entry spans several chunks");
+    }
+
+    @Test
+    void keepsLargeDataBeyondTheOffHeapChunks() {
+        AuditLogRepository repository = new AuditLogRepository(AuditJournal.NONE, 0, true);
+        Instant now = Instant.now();
+        String megabyte = "x".repeat(1 << 20);
+        int count = OffHeapSegment.DATA_CHUNK_SIZE * 1024 / megabyte.length() + 6;
+        for (int i = 0; i < count; i++) {
+            repository.add(new AuditEntry(AuditEntry.AuditType.DEPOSIT, i, now, i + megabyte));
+        }
+        repository.add(new AuditEntry(AuditEntry.AuditType.DEPOSIT, count, now, "Deposit amount of 10"));
+
+        assertEquals(count + 1, repository.size());
+        List<AuditEntry> all = repository.getAll();
+        for (int i = 0; i < count; i++) {
+            assertEquals(i + megabyte, all.get(i).getData());
+        }
+        assertEquals("Deposit amount of 10", all.get(count).getData());
+        assertTrue(repository.retainedBytes() > (long) count << 20);
+    }
+}
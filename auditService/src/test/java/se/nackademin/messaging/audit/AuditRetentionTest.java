@@ -0,0 +1,137 @@
+package se.nackademin.messaging.audit;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.util.List;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class AuditRetentionTest {
+    private static final int SEGMENT = AuditLogRepository.SEGMENT_SIZE;
+    private static final Instant START = Instant.parse("2021-09-01T10:00:00Z");
+
+    @Test
+    void dropsWholeSegmentsOverTheEntryLimit() {
+        AuditLogRepository repository = filled(new AuditLogRepository(), 3 * SEGMENT + 10);
+        AuditRetention retention = new AuditRetention(repository, Duration.ZERO, SEGMENT + 10, 0, false);
+
+        assertEquals(2, retention.run());
+
+        assertEquals(2L * SEGMENT, repository.first());
+        List<AuditEntry> all = repository.getAll();
+        assertEquals(SEGMENT + 10, all.size());
+        assertEquals(2L * SEGMENT % 100, all.get(0).getAccountId());
+        assertThrows(IllegalStateException.class, () -> repository.get(0));
+        List<AuditEntry> account = repository.findByAccountId(7);
+        assertEquals(entriesOf(7, 2 * SEGMENT, 3 * SEGMENT + 10), account.size());
+        assertFalse(account.get(0).getTimestamp().isBefore(START.plusSeconds(2L * SEGMENT)));
+        assertEquals(START.plusSeconds(2L * SEGMENT), repository.page(null, null, null, 1).getEntries().get(0).getTimestamp());
+        assertTrue(repository.postings(7).first() > 0, "Postings of dropped entries are removed");
+        assertEquals(entriesOf(7, 0, 3 * SEGMENT + 10), repository.summary(7).getEntries(), "Totals keep dropped entries");
+    }
+
+    @Test
+    void compactsSegmentsOlderThanTheMaxAge() {
+        AuditLogRepository repository = filled(new AuditLogRepository(), 2 * SEGMENT + 1);
+        Clock clock = Clock.fixed(START.plusSeconds(SEGMENT + 3600), ZoneOffset.UTC);
+        AuditRetention retention = new AuditRetention(repository, Duration.ofHours(1), 0, 0, true, clock);
+
+        assertEquals(1, retention.run());
+
+        List<AuditEntry> account = repository.findByAccountId(7);
+        AuditEntry summary = account.get(0);
+        assertEquals(AuditEntry.AuditType.SUMMARY, summary.getType());
+        assertEquals(7, summary.getAccountId());
+        int compacted = entriesOf(7, 0, SEGMENT);
+        assertTrue(summary.getData().startsWith(compacted + " entries compacted"), summary.getData());
+        assertFalse(account.get(1).getTimestamp().isBefore(START.plusSeconds(SEGMENT)));
+        assertEquals(1 + entriesOf(7, SEGMENT, 2 * SEGMENT + 1), account.size());
+        assertEquals(-1, repository.accountRecords(7).get(0).getPosition());
+    }
+
+    @Test
+    void dropsSealedSegmentsUnderTheByteLimitButNotTheOneBeingFilled() {
+        AuditLogRepository repository = new AuditLogRepository(AuditJournal.NONE, 1, false, Runnable::run);
+        filled(repository, 4 * SEGMENT + 5);
+        assertEquals(4L * SEGMENT, repository.coldEntries());
+        long limit = repository.retainedBytes() - repository.coldBytes() / 2;
+
+        int dropped = new AuditRetention(repository, Duration.ZERO, 0, limit, false).run();
+        assertTrue(dropped >= 2 && dropped < 4, "Dropped " + dropped);
+        assertTrue(repository.retainedBytes() <= limit);
+        assertEquals((4L - dropped) * SEGMENT, repository.coldEntries());
+
+        assertEquals(4 - dropped, new AuditRetention(repository, Duration.ZERO, 0, 1, false).run());
+        assertEquals(4L * SEGMENT, repository.first());
+        assertEquals(5, repository.getAll().size());
+        assertEquals(0, repository.coldBytes());
+    }
+
+    @Test
+    void accountListTakenBeforeRetentionStaysReadable() {
+        AuditLogRepository repository = filled(new AuditLogRepository(), 2 * SEGMENT + 1);
+        List<AuditEntry> account = repository.findByAccountId(7);
+
+        assertEquals(1, new AuditRetention(repository, Duration.ZERO, SEGMENT + 1, 0, false).run());
+
+        assertEquals(entriesOf(7, 0, 2 * SEGMENT + 1), account.size());
+        account.forEach(entry -> assertEquals(7, entry.getAccountId()));
+    }
+
+    @Test
+    void truncatesTheJournalAndRecoversTheCompactedSummaries(@TempDir Path directory) throws IOException {
+        AuditLogRepository repository = new AuditLogRepository(journal(directory));
+        repository.recover();
+        filled(repository, 2 * SEGMENT + 1);
+        long segmentsBefore = journalSegments(directory);
+
+        assertEquals(1, new AuditRetention(repository, Duration.ZERO, SEGMENT + 1, 0, true).run());
+        List<AuditEntry> account = repository.findByAccountId(7);
+        repository.close();
+
+        // Half the entries were dropped, the segments holding only those are deleted
+        assertTrue(journalSegments(directory) < segmentsBefore * 2 / 3, journalSegments(directory) + " of " + segmentsBefore);
+        AuditLogRepository recovered = new AuditLogRepository(journal(directory));
+        assertEquals(SEGMENT + 1, recovered.recover());
+        assertEquals(SEGMENT, recovered.first());
+        assertEquals(2L * SEGMENT + 1, recovered.size());
+        assertEquals(account.get(0).getData(), recovered.findByAccountId(7).get(0).getData());
+        assertEquals(account.size(), recovered.findByAccountId(7).size());
+        assertEquals(entriesOf(7, 0, 2 * SEGMENT + 1), recovered.summary(7).getEntries());
+        assertEquals(START.plusSeconds(SEGMENT), recovered.get(SEGMENT).getTimestamp());
+        recovered.add(new AuditEntry(AuditEntry.AuditType.DEPOSIT, 7, START, "Deposit amount of 1"));
+        assertEquals(2L * SEGMENT + 2, recovered.size());
+        recovered.close();
+    }
+
+    private static MappedAuditJournal journal(Path directory) {
+        return new MappedAuditJournal(directory, 64 * 1024, MappedAuditJournal.FsyncPolicy.INTERVAL, 0, Duration.ofSeconds(10));
+    }
+
+    private static long journalSegments(Path directory) throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.filter(file -> file.toString().endsWith(".segment")).count();
+        }
+    }
+
+    private static int entriesOf(int accountId, int from, int to) {
+        return (int) IntStream.range(from, to).filter(i -> i % 100 == accountId).count();
+    }
+
+    private static AuditLogRepository filled(AuditLogRepository repository, int count) {
+        for (int i = 0; i < count; i++) {
+            repository.add(new AuditEntry(AuditEntry.AuditType.DEPOSIT, i % 100, START.plusSeconds(i), "Deposit amount of " + i));
+        }
+        return repository;
+    }
+}
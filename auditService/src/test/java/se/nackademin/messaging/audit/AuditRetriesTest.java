@@ -0,0 +1,115 @@
+package se.nackademin.messaging.audit;
+
+import com.rabbitmq.client.AMQP;
+import com.rabbitmq.client.Channel;
+import com.rabbitmq.client.Envelope;
+import com.rabbitmq.client.GetResponse;
+import com.rabbitmq.client.ReturnListener;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.amqp.AmqpException;
+import org.springframework.amqp.core.Binding;
+import org.springframework.amqp.core.Declarable;
+import org.springframework.amqp.core.Message;
+import org.springframework.amqp.core.MessageProperties;
+import org.springframework.amqp.core.Queue;
+import org.springframework.amqp.rabbit.core.ChannelCallback;
+import org.springframework.amqp.rabbit.core.RabbitTemplate;
+
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyBoolean;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+class AuditRetriesTest {
+
+    private final RabbitTemplate template = mock(RabbitTemplate.class);
+    private final Channel channel = mock(Channel.class);
+
+    @BeforeEach
+    void executeOnTheChannel() throws Exception {
+        when(template.execute(any())).thenAnswer(invocation -> invocation.<ChannelCallback<?>>getArgument(0).doInRabbit(channel));
+        when(channel.waitForConfirms(anyLong())).thenReturn(true);
+    }
+
+    @Test
+    void retriesWithGrowingDelayThenParks() throws Exception {
+        AuditRetries retries = new AuditRetries(template, 2, 100);
+        Message message = new Message(new byte[]{1}, new MessageProperties());
+
+        retries.reject(message, "audit-log.3", new IllegalArgumentException("No enum constant WITHDRAWAL"));
+        verify(channel).basicPublish(eq("audit-retry.0"), eq("audit-log.3"), eq(true), any(), eq(message.getBody()));
+        retries.reject(message, "audit-log.3", new IllegalArgumentException("No enum constant WITHDRAWAL"));
+        verify(channel).basicPublish(eq("audit-retry.1"), eq("audit-log.3"), eq(true), any(), eq(message.getBody()));
+        retries.reject(message, "audit-log.3", new IllegalArgumentException("No enum constant WITHDRAWAL"));
+        verify(channel).basicPublish(eq(""), eq("audit-parking-lot"), eq(true), any(), eq(message.getBody()));
+        verify(channel, times(3)).waitForConfirms(anyLong());
+
+        assertEquals(2, (Integer) message.getMessageProperties().getHeader(AuditRetries.RETRIES_HEADER));
+        assertEquals("audit-log.3", message.getMessageProperties().getHeader(AuditRetries.QUEUE_HEADER));
+        assertEquals("java.lang.IllegalArgumentException: No enum constant WITHDRAWAL", message.getMessageProperties().getHeader(AuditRetries.ERROR_HEADER));
+    }
+
+    @Test
+    void throwsWhenTheBrokerDoesNotConfirmARetry() throws Exception {
+        when(channel.waitForConfirms(anyLong())).thenReturn(false);
+
+        assertThrows(AmqpException.class, () -> new AuditRetries(template, 2, 100)
+                .reject(new Message(new byte[]{1}, new MessageProperties()), "audit-log", new IllegalStateException()));
+    }
+
+    @Test
+    void replaysToTheAuditQueueAndLeavesMessagesWithoutOneParked() throws Exception {
+        when(channel.basicGet("audit-parking-lot", false)).thenReturn(parked(1, "audit-log.2"), parked(2, null), parked(3, "audit-log.0"), null);
+
+        assertEquals(2, new AuditRetries(template, 2, 100).replay(10));
+
+        verify(channel).basicPublish(eq("audit-retry-return"), eq("audit-log.2"), eq(true), any(), any());
+        verify(channel).basicPublish(eq("audit-retry-return"), eq("audit-log.0"), eq(true), any(), any());
+        verify(channel, never()).basicPublish(eq("audit-retry-return"), eq("null"), anyBoolean(), any(), any());
+        verify(channel).basicAck(1, false);
+        verify(channel).basicAck(3, false);
+        verify(channel).basicNack(2, false, true);
+    }
+
+    @Test
+    void keepsAReturnedMessageParked() throws Exception {
+        when(channel.basicGet("audit-parking-lot", false)).thenReturn(parked(1, "audit-log.7"), null);
+        ArgumentCaptor<ReturnListener> listener = ArgumentCaptor.forClass(ReturnListener.class);
+        doAnswer(invocation -> {
+            verify(channel).addReturnListener(listener.capture());
+            listener.getValue().handleReturn(312, "NO_ROUTE", "audit-retry-return", "audit-log.7", null, new byte[0]);
+            return null;
+        }).when(channel).basicPublish(any(), any(), anyBoolean(), any(), any());
+
+        assertThrows(AmqpException.class, () -> new AuditRetries(template, 2, 100).replay(10));
+
+        verify(channel, never()).basicAck(anyLong(), anyBoolean());
+        verify(channel).basicNack(1, false, true);
+    }
+
+    private static GetResponse parked(long tag, String queue) {
+        AMQP.BasicProperties properties = new AMQP.BasicProperties.Builder()
+                .headers(queue == null ? Map.of() : Map.of(AuditRetries.QUEUE_HEADER, queue))
+                .build();
+        return new GetResponse(new Envelope(tag, false, "", "audit-parking-lot"), properties, new byte[]{1}, 0);
+    }
+
+    @Test
+    void delayQueuesDeadLetterBackToTheAuditQueues() {
+        List<Declarable> topology = new AuditRetries(mock(RabbitTemplate.class), 3, 100).topology(List.of("audit-log.0", "audit-log.1"));
+
+        Queue last = (Queue) topology.stream().filter(d -> d instanceof Queue && ((Queue) d).getName().equals("audit-retry.2")).findFirst().orElseThrow();
+        assertEquals(400L, last.getArguments().get("x-message-ttl"));
+        assertEquals("audit-retry-return", last.getArguments().get("x-dead-letter-exchange"));
+        assertTrue(topology.stream().anyMatch(d -> d instanceof Binding && ((Binding) d).getDestination().equals("audit-log.1")
+                && ((Binding) d).getExchange().equals("audit-retry-return") && ((Binding) d).getRoutingKey().equals("audit-log.1")));
+        assertTrue(topology.stream().anyMatch(d -> d instanceof Queue && ((Queue) d).getName().equals("audit-parking-lot")));
+    }
+}
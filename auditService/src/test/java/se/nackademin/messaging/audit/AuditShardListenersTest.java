@@ -0,0 +1,124 @@
+package se.nackademin.messaging.audit;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.amqp.core.Message;
+import org.springframework.amqp.core.MessageProperties;
+import org.springframework.amqp.rabbit.config.SimpleRabbitListenerContainerFactory;
+import org.springframework.amqp.rabbit.config.SimpleRabbitListenerEndpoint;
+import org.springframework.amqp.rabbit.listener.RabbitListenerEndpointRegistrar;
+import org.springframework.amqp.support.converter.Jackson2JsonMessageConverter;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.function.IntConsumer;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+class AuditShardListenersTest {
+    private final SimpleRabbitListenerContainerFactory factory = new SimpleRabbitListenerContainerFactory();
+    private final Jackson2JsonMessageConverter json = new Jackson2JsonMessageConverter(new ObjectMapper().registerModule(new JavaTimeModule()));
+
+    @Test
+    void registersOneSingleConsumerListenerPerShard() {
+        RabbitListenerEndpointRegistrar registrar = mock(RabbitListenerEndpointRegistrar.class);
+
+        new AuditShardListeners(mock(AuditLogReceiver.class), factory, json, new AuditCluster(new AuditLogRepository()), mock(AuditRetries.class), 4, AuditMessageReceiver.Transport.RABBIT).configureRabbitListeners(registrar);
+
+        ArgumentCaptor<SimpleRabbitListenerEndpoint> endpoints = ArgumentCaptor.forClass(SimpleRabbitListenerEndpoint.class);
+        verify(registrar, times(4)).registerEndpoint(endpoints.capture(), eq(factory));
+        assertArrayEquals(new String[]{"audit-log.3"}, endpoints.getAllValues().get(3).getQueueNames().toArray());
+        assertEquals("1", endpoints.getAllValues().get(3).getConcurrency());
+        assertEquals(List.of("audit-log"), ApplicationConfiguration.auditQueues(1));
+    }
+
+    @Test
+    void leavesTheQueuesToTheInProcessTransport() {
+        RabbitListenerEndpointRegistrar registrar = mock(RabbitListenerEndpointRegistrar.class);
+        AuditCluster cluster = new AuditCluster(new AuditLogRepository(), List.of(mock(AuditNode.class), mock(AuditNode.class)), 1);
+
+        AuditMessageReceiver listeners = new AuditShardListeners(mock(AuditLogReceiver.class), factory, json, cluster,
+                mock(AuditRetries.class), 4, AuditMessageReceiver.Transport.IN_PROCESS);
+        ((AuditShardListeners) listeners).configureRabbitListeners(registrar);
+
+        verifyNoInteractions(registrar);
+        assertEquals(List.of("audit-log.1", "audit-log.3"), listeners.queues());
+    }
+
+    @Test
+    void convertsProducerJsonToAuditEvents() {
+        MessageProperties properties = new MessageProperties();
+        properties.setContentType(MessageProperties.CONTENT_TYPE_JSON);
+        properties.setHeader("__TypeId__", "se.nackademin.messaging.business.DepositEvent");
+        String body = "{\"type\":\"DEPOSIT\",\"accountId\":7,\"timestamp\":\"2021-09-01T10:00:00Z\",\"data\":\"Deposit amount of 5\"}";
+        Message message = new Message(body.getBytes(StandardCharsets.UTF_8), properties);
+
+        List<AuditEvent> events = new AuditShardListeners(mock(AuditLogReceiver.class), factory, json, new AuditCluster(new AuditLogRepository()), mock(AuditRetries.class), 1, AuditMessageReceiver.Transport.RABBIT).convert(List.of(message));
+
+        assertEquals(7, events.get(0).getAccountId());
+        assertEquals("Deposit amount of 5", events.get(0).getData());
+    }
+
+    @Test
+    void storesTheRestOfABatchAndRejectsThePoisonMessage() {
+        AuditLogReceiver receiver = receiver();
+        AuditRetries retries = mock(AuditRetries.class);
+        AuditShardListeners listeners = new AuditShardListeners(receiver, factory, json, new AuditCluster(receiver.auditLogRepository), retries, 1, AuditMessageReceiver.Transport.RABBIT);
+        Message poison = message("WITHDRAWAL", 2);
+
+        listeners.receive("audit-log", List.of(message("OPEN_ACCOUNT", 1), poison, message("DEPOSIT", 3)));
+
+        assertEquals(2, receiver.auditLogRepository.size());
+        verify(retries).reject(eq(poison), eq("audit-log"), any(IllegalArgumentException.class));
+        verifyNoMoreInteractions(retries);
+    }
+
+    @Test
+    void retriesOnlyWhatAFailedBatchDidNotStore() {
+        AuditLogReceiver receiver = receiver();
+        receiver.auditLogRepository = new AuditLogRepository() {
+            @Override
+            void addAll(List<AuditEntry> auditEntries, IntConsumer stored) {
+                if (auditEntries.size() == 1) {
+                    super.addAll(auditEntries, stored);
+                    return;
+                }
+                // The first entry of a batch gets stored, then the log fails
+                super.addAll(auditEntries.subList(0, 1), stored);
+                throw new IllegalStateException("Audit log is full");
+            }
+        };
+        AuditRetries retries = mock(AuditRetries.class);
+        AuditShardListeners listeners = new AuditShardListeners(receiver, factory, json, new AuditCluster(receiver.auditLogRepository), retries, 1, AuditMessageReceiver.Transport.RABBIT);
+
+        // Without event ids, only the listener can tell which of them were stored
+        listeners.receive("audit-log", List.of(message("OPEN_ACCOUNT", 1), message("DEPOSIT", 2), message("DEPOSIT", 3)));
+
+        assertEquals(3, receiver.auditLogRepository.size());
+        assertEquals(List.of(1L, 2L, 3L), receiver.auditLogRepository.getAll().stream().map(AuditEntry::getAccountId).collect(Collectors.toList()));
+        verifyNoInteractions(retries);
+    }
+
+    private static AuditLogReceiver receiver() {
+        AuditLogReceiver receiver = new AuditLogReceiver();
+        receiver.auditLogRepository = new AuditLogRepository();
+        receiver.dedupWindow = new DedupWindow(100, 1, TimeUnit.HOURS);
+        receiver.metrics = new ConsumeMetrics(new SimpleMeterRegistry());
+        return receiver;
+    }
+
+    private static Message message(String type, long accountId) {
+        MessageProperties properties = new MessageProperties();
+        properties.setContentType(MessageProperties.CONTENT_TYPE_JSON);
+        String body = "{\"type\":\"" + type + "\",\"accountId\":" + accountId + ",\"timestamp\":\"2021-09-01T10:00:00Z\",\"data\":\"\"}";
+        return new Message(body.getBytes(StandardCharsets.UTF_8), properties);
+    }
+}
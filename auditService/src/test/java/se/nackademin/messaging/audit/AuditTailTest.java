@@ -0,0 +1,139 @@
+package se.nackademin.messaging.audit;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class AuditTailTest {
+
+    @Test
+    void sendsNewEntriesMatchingTheFilters() {
+        AuditLogRepository repository = new AuditLogRepository();
+        repository.add(entry(AuditEntry.AuditType.OPEN_ACCOUNT, 1));
+        AuditTail tail = new AuditTail(repository, Runnable::run, 10, 100, Duration.ofHours(1));
+        RecordingEmitter all = new RecordingEmitter();
+        RecordingEmitter deposits = new RecordingEmitter();
+        RecordingEmitter account = new RecordingEmitter();
+        tail.subscribe(all, null, null, null);
+        tail.subscribe(deposits, null, AuditEntry.AuditType.DEPOSIT, null);
+        tail.subscribe(account, 2L, null, null);
+
+        repository.add(entry(AuditEntry.AuditType.OPEN_ACCOUNT, 2));
+        repository.add(entry(AuditEntry.AuditType.DEPOSIT, 1));
+        repository.add(entry(AuditEntry.AuditType.DEPOSIT, 2));
+        tail.poll();
+
+        assertEquals(List.of(2L, 1L, 2L), accountIds(all));
+        assertEquals(List.of(1L, 2L), accountIds(deposits));
+        assertEquals(List.of(AuditEntry.AuditType.OPEN_ACCOUNT, AuditEntry.AuditType.DEPOSIT), types(account));
+    }
+
+    @Test
+    void resumesFromOffsetInBatches() {
+        AuditLogRepository repository = new AuditLogRepository();
+        for (int i = 0; i < 10; i++) {
+            repository.add(entry(AuditEntry.AuditType.DEPOSIT, i % 2));
+        }
+        AuditTail tail = new AuditTail(repository, Runnable::run, 10, 3, Duration.ofHours(1));
+        RecordingEmitter all = new RecordingEmitter();
+        RecordingEmitter account = new RecordingEmitter();
+        tail.subscribe(all, null, null, 6L);
+        tail.subscribe(account, 1L, null, 4L);
+
+        tail.poll();
+        assertEquals(List.of(0L, 1L, 0L), accountIds(all));
+        assertEquals(3, account.entries.size());
+        tail.poll();
+        assertEquals(List.of(0L, 1L, 0L, 1L), accountIds(all));
+        assertEquals(List.of(1L, 1L, 1L), accountIds(account));
+    }
+
+    @Test
+    void dropsSubscribersThatFailAndRejectsBeyondTheLimit() {
+        AuditLogRepository repository = new AuditLogRepository();
+        AuditTail tail = new AuditTail(repository, Runnable::run, 1, 100, Duration.ofHours(1));
+        RecordingEmitter broken = new RecordingEmitter();
+        broken.failing = true;
+        tail.subscribe(broken, null, null, null);
+
+        assertThrows(IllegalStateException.class, () -> tail.subscribe(new RecordingEmitter(), null, null, null));
+        assertThrows(IllegalArgumentException.class, () -> tail.subscribe(new RecordingEmitter(), null, null, -1L));
+
+        repository.add(entry(AuditEntry.AuditType.DEPOSIT, 1));
+        tail.poll();
+        assertEquals(0, tail.subscribers());
+        assertTrue(broken.completed, "The response of a dropped subscriber is ended");
+    }
+
+    @Test
+    void skipsEntriesThatRetentionDropsWhileSending() {
+        AuditLogRepository repository = new AuditLogRepository();
+        int count = 2 * AuditLogRepository.SEGMENT_SIZE + 1;
+        for (int i = 0; i < count; i++) {
+            repository.add(entry(AuditEntry.AuditType.DEPOSIT, i));
+        }
+        AuditTail tail = new AuditTail(repository, Runnable::run, 10, count, Duration.ofHours(1));
+        RecordingEmitter all = new RecordingEmitter();
+        AuditRetention retention = new AuditRetention(repository, Duration.ZERO, AuditLogRepository.SEGMENT_SIZE + 1, 0, false);
+        all.onFirstSend = retention::run;
+        tail.subscribe(all, null, null, 0L);
+
+        tail.poll();
+
+        assertEquals(1, tail.subscribers());
+        assertFalse(all.completed);
+        assertEquals(1 + AuditLogRepository.SEGMENT_SIZE + 1, all.entries.size());
+        assertEquals(AuditLogRepository.SEGMENT_SIZE, all.entries.get(1).getAccountId());
+    }
+
+    private static AuditEntry entry(AuditEntry.AuditType type, long accountId) {
+        return new AuditEntry(type, accountId, Instant.now(), "");
+    }
+
+    private static List<Long> accountIds(RecordingEmitter emitter) {
+        List<Long> ids = new ArrayList<>();
+        emitter.entries.forEach(e -> ids.add(e.getAccountId()));
+        return ids;
+    }
+
+    private static List<AuditEntry.AuditType> types(RecordingEmitter emitter) {
+        List<AuditEntry.AuditType> types = new ArrayList<>();
+        emitter.entries.forEach(e -> types.add(e.getType()));
+        return types;
+    }
+
+    private static class RecordingEmitter extends SseEmitter {
+        final List<AuditEntry> entries = new ArrayList<>();
+        boolean failing;
+        boolean completed;
+        Runnable onFirstSend;
+
+        @Override
+        public void send(SseEventBuilder builder) throws IOException {
+            if (failing) {
+                throw new IOException("Broken pipe");
+            }
+            if (onFirstSend != null) {
+                onFirstSend.run();
+                onFirstSend = null;
+            }
+            builder.build().forEach(part -> {
+                if (part.getData() instanceof AuditEntry) {
+                    entries.add((AuditEntry) part.getData());
+                }
+            });
+        }
+
+        @Override
+        public void complete() {
+            completed = true;
+        }
+    }
+}
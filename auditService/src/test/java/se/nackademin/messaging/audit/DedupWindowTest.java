@@ -0,0 +1,51 @@
+package se.nackademin.messaging.audit;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class DedupWindowTest {
+
+    @Test
+    void remembersAtLeastCapacityIdsInFixedTables() {
+        DedupWindow window = new DedupWindow(1000, Long.MAX_VALUE, System::nanoTime);
+        for (long i = 1; i <= 10_000; i++) {
+            assertFalse(window.contains(i, -i));
+            window.add(i, -i);
+            window.add(i, -i);
+        }
+
+        for (long i = 9_001; i <= 10_000; i++) {
+            assertTrue(window.contains(i, -i));
+        }
+        assertFalse(window.contains(1, -1));
+        assertTrue(window.size() <= 2000);
+    }
+
+    @Test
+    void forgetsIdsAfterTwoGenerationsOfMaxAge() {
+        AtomicLong now = new AtomicLong();
+        DedupWindow window = new DedupWindow(1000, 100, now::get);
+        window.add(1, 1);
+
+        now.set(150);
+        window.add(2, 2);
+        assertTrue(window.contains(1, 1));
+
+        now.set(300);
+        window.add(3, 3);
+        assertFalse(window.contains(1, 1));
+        assertTrue(window.contains(2, 2));
+    }
+
+    @Test
+    void neverRemembersEventsWithoutId() {
+        DedupWindow window = new DedupWindow(10, Long.MAX_VALUE, System::nanoTime);
+        window.add(0, 0);
+
+        assertFalse(window.contains(0, 0));
+        assertEquals(0, window.size());
+    }
+}
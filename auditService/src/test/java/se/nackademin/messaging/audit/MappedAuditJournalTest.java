@@ -0,0 +1,108 @@
+package se.nackademin.messaging.audit;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class MappedAuditJournalTest {
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void recoversEntriesAcrossSegments() throws IOException {
+        Instant timestamp = Instant.parse("2021-09-01T10:15:30.123456789Z");
+        try (AuditLogRepository repository = new AuditLogRepository(journal())) {
+            repository.recover();
+            for (int i = 0; i < 100; i++) {
+                repository.add(new AuditEntry(AuditEntry.AuditType.DEPOSIT, i, timestamp, "Deposit amount of " + i));
+            }
+        }
+
+        AuditLogRepository recovered = new AuditLogRepository(journal());
+        assertEquals(100, recovered.recover());
+        assertTrue(segments().size() > 1);
+        recovered.add(new AuditEntry(AuditEntry.AuditType.OPEN_ACCOUNT, 7, timestamp, "åäö", 0x0123_4567_89ab_7cdeL, 0x8000_0000_0000_0042L));
+        recovered.close();
+
+        AuditLogRepository again = new AuditLogRepository(journal());
+        assertEquals(101, again.recover());
+        List<AuditEntry> account = again.findByAccountId(7);
+        assertEquals("Deposit amount of 7", account.get(0).getData());
+        assertEquals(timestamp, account.get(0).getTimestamp());
+        assertNull(account.get(0).getId());
+        assertEquals("åäö", account.get(1).getData());
+        assertEquals(AuditEntry.AuditType.OPEN_ACCOUNT, account.get(1).getType());
+        assertEquals("01234567-89ab-7cde-8000-000000000042", account.get(1).getId());
+    }
+
+    @Test
+    void ignoresRecordTornByCrash() throws IOException {
+        try (AuditLogRepository repository = new AuditLogRepository(journal())) {
+            repository.recover();
+            repository.add(new AuditEntry(AuditEntry.AuditType.OPEN_ACCOUNT, 1, Instant.now(), ""));
+            repository.add(new AuditEntry(AuditEntry.AuditType.DEPOSIT, 1, Instant.now(), "Deposit amount of 10"));
+        }
+        Path last = segments().get(segments().size() - 1);
+        try (FileChannel channel = FileChannel.open(last, StandardOpenOption.WRITE)) {
+            // Flip a byte in the data of the second record
+            channel.write(ByteBuffer.wrap(new byte[]{'X'}), 8 + 25 + 8 + 25);
+        }
+
+        AuditLogRepository recovered = new AuditLogRepository(journal());
+        assertEquals(1, recovered.recover());
+        recovered.add(new AuditEntry(AuditEntry.AuditType.DEPOSIT, 1, Instant.now(), "Deposit amount of 20"));
+        recovered.close();
+
+        AuditLogRepository again = new AuditLogRepository(journal());
+        assertEquals(2, again.recover());
+        assertEquals("Deposit amount of 20", again.getAll().get(1).getData());
+    }
+
+    @Test
+    void recoversEntriesToThePositionsTheyWereWrittenAt() throws IOException {
+        Instant now = Instant.now();
+        try (MappedAuditJournal journal = journal()) {
+            journal.recover((position, entry) -> fail("Empty journal"));
+            // Concurrent writers journal in another order than they claimed, position 2 never made it
+            journal.append(1, new AuditEntry(AuditEntry.AuditType.DEPOSIT, 1, now, "Deposit amount of 10"));
+            journal.appendAll(3, List.of(new AuditEntry(AuditEntry.AuditType.DEPOSIT, 2, now, "Deposit amount of 20")));
+            journal.append(0, new AuditEntry(AuditEntry.AuditType.OPEN_ACCOUNT, 1, now, ""));
+        }
+
+        AuditLogRepository recovered = new AuditLogRepository(journal());
+        assertEquals(3, recovered.recover());
+
+        assertEquals(4, recovered.size());
+        assertEquals(AuditEntry.AuditType.OPEN_ACCOUNT, recovered.get(0).getType());
+        assertEquals("Deposit amount of 10", recovered.get(1).getData());
+        assertNull(recovered.retained(2));
+        assertEquals("Deposit amount of 20", recovered.get(3).getData());
+        recovered.add(new AuditEntry(AuditEntry.AuditType.DEPOSIT, 2, now, "Deposit amount of 30"));
+        assertEquals("Deposit amount of 30", recovered.get(4).getData());
+        recovered.close();
+    }
+
+    private MappedAuditJournal journal() {
+        return new MappedAuditJournal(directory, 1024, MappedAuditJournal.FsyncPolicy.BATCH, 10, Duration.ofSeconds(1));
+    }
+
+    private List<Path> segments() throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.sorted().collect(Collectors.toList());
+        }
+    }
+}
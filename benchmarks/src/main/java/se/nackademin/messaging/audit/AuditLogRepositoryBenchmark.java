@@ -0,0 +1,99 @@
+package se.nackademin.messaging.audit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.time.Instant;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+@Fork(value = 1, jvmArgsAppend = "-Xmx2g")
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class AuditLogRepositoryBenchmark {
+
+    /**
+     * A fresh repository per iteration so the log does not grow without bound during a run.
+     */
+    @State(Scope.Benchmark)
+    public static class Writers {
+        AuditLogRepository repository;
+        AuditEntry entry;
+
+        @Setup(Level.Iteration)
+        public void setUp() {
+            repository = new AuditLogRepository();
+            entry = new AuditEntry(AuditEntry.AuditType.DEPOSIT, 1234, Instant.now(), "Deposit amount of 100");
+        }
+    }
+
+    @State(Scope.Benchmark)
+    public static class Filled {
+        @Param({"10000", "1000000"})
+        int entries;
+        @Param({"false", "true"})
+        boolean offHeap;
+        AuditLogRepository repository;
+
+        @Setup(Level.Trial)
+        public void setUp() {
+            repository = new AuditLogRepository(AuditJournal.NONE, 0, offHeap);
+            Instant start = Instant.now();
+            for (int i = 0; i < entries; i++) {
+                repository.add(new AuditEntry(AuditEntry.AuditType.DEPOSIT, i % 10_000, start.plusNanos(i), "Deposit amount of " + i));
+            }
+        }
+    }
+
+    @Benchmark
+    @Threads(1)
+    @BenchmarkMode(Mode.Throughput)
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public void add1(Writers writers) {
+        writers.repository.add(writers.entry);
+    }
+
+    @Benchmark
+    @Threads(4)
+    @BenchmarkMode(Mode.Throughput)
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public void add4(Writers writers) {
+        writers.repository.add(writers.entry);
+    }
+
+    @Benchmark
+    @Threads(16)
+    @BenchmarkMode(Mode.Throughput)
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public void add16(Writers writers) {
+        writers.repository.add(writers.entry);
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    @OutputTimeUnit(TimeUnit.NANOSECONDS)
+    public List<AuditEntry> getAll(Filled filled) {
+        return filled.repository.getAll();
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public void getAllAndIterate(Filled filled, Blackhole blackhole) {
+        for (AuditEntry entry : filled.repository.getAll()) {
+            blackhole.consume(entry);
+        }
+    }
+}
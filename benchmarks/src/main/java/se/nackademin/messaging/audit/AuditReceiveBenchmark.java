@@ -0,0 +1,60 @@
+package se.nackademin.messaging.audit;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.amqp.core.Message;
+import org.springframework.amqp.core.MessageProperties;
+import org.springframework.amqp.support.converter.Jackson2JsonMessageConverter;
+
+import java.time.Instant;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Consumer side: decoding an {@link AuditEvent} and mapping it to an {@link AuditEntry} as {@link AuditLogReceiver}
+ * does for every message.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class AuditReceiveBenchmark {
+    private Jackson2JsonMessageConverter json;
+    private AuditEventBinaryConverter binary;
+    private Message jsonMessage;
+    private Message binaryMessage;
+
+    @Setup
+    public void setUp() {
+        ObjectMapper objectMapper = new ObjectMapper();
+        objectMapper.registerModule(new JavaTimeModule());
+        json = new Jackson2JsonMessageConverter(objectMapper);
+        binary = new AuditEventBinaryConverter();
+        AuditEvent event = new AuditEvent(1234, "Deposit amount of 100", "DEPOSIT", Instant.now().toString());
+        jsonMessage = json.toMessage(event, new MessageProperties());
+        // The listener adapter sets this from the List<AuditEvent> parameter
+        jsonMessage.getMessageProperties().setInferredArgumentType(AuditEvent.class);
+        binaryMessage = binary.toMessage(event, new MessageProperties());
+    }
+
+    @Benchmark
+    public AuditEntry json() {
+        return AuditLogReceiver.toEntry((AuditEvent) json.fromMessage(jsonMessage));
+    }
+
+    @Benchmark
+    public AuditEntry binary() {
+        return AuditLogReceiver.toEntry((AuditEvent) binary.fromMessage(binaryMessage));
+    }
+}
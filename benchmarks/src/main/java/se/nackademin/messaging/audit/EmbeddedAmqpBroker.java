@@ -0,0 +1,60 @@
+package se.nackademin.messaging.audit;
+
+import org.apache.qpid.server.SystemLauncher;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Qpid Broker-J speaking AMQP 0-9-1 on a free local port, with everything in memory, user and password guest.
+ * <p>
+ * It lacks some RabbitMQ extensions: exchange to exchange bindings and the {@code x-message-ttl} and
+ * {@code x-dead-letter-exchange} queue arguments are refused. That leaves the single audit queue on the fanout
+ * exchange, not the shard or retry topology.
+ */
+public class EmbeddedAmqpBroker implements Closeable {
+    private final SystemLauncher launcher = new SystemLauncher();
+    private final int port;
+
+    private EmbeddedAmqpBroker(int port) {
+        this.port = port;
+    }
+
+    public static EmbeddedAmqpBroker start() throws Exception {
+        int port;
+        try (ServerSocket socket = new ServerSocket(0)) {
+            port = socket.getLocalPort();
+        }
+        EmbeddedAmqpBroker broker = new EmbeddedAmqpBroker(port);
+        Map<String, Object> attributes = new HashMap<>();
+        attributes.put("type", "Memory");
+        attributes.put("initialConfigurationLocation",
+                EmbeddedAmqpBroker.class.getResource("/embedded-broker.json").toExternalForm());
+        attributes.put("startupLoggedToSystemOut", false);
+        attributes.put("context", Map.of(
+                "qpid.amqp_port", Integer.toString(port),
+                "qpid.work_dir", workDirectory().toString()));
+        broker.launcher.startup(attributes);
+        return broker;
+    }
+
+    public int getPort() {
+        return port;
+    }
+
+    @Override
+    public void close() {
+        launcher.shutdown();
+    }
+
+    private static Path workDirectory() throws IOException {
+        Path directory = Files.createTempDirectory("qpid-");
+        directory.toFile().deleteOnExit();
+        return directory;
+    }
+}
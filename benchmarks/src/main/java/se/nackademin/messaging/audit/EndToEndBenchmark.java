@@ -0,0 +1,157 @@
+package se.nackademin.messaging.audit;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.amqp.core.BatchMessageListener;
+import org.springframework.amqp.core.Binding;
+import org.springframework.amqp.core.FanoutExchange;
+import org.springframework.amqp.core.Queue;
+import org.springframework.amqp.rabbit.connection.CachingConnectionFactory;
+import org.springframework.amqp.rabbit.core.RabbitAdmin;
+import org.springframework.amqp.rabbit.core.RabbitTemplate;
+import org.springframework.amqp.rabbit.listener.SimpleMessageListenerContainer;
+import org.springframework.amqp.support.converter.ContentTypeDelegatingMessageConverter;
+import org.springframework.amqp.support.converter.Jackson2JsonMessageConverter;
+import org.springframework.amqp.support.converter.MessageConverter;
+import se.nackademin.messaging.business.AuditLogger;
+import se.nackademin.messaging.business.DepositEvent;
+import se.nackademin.messaging.business.EventBinaryConverter;
+import se.nackademin.messaging.business.InProcessAuditTransport;
+import se.nackademin.messaging.business.InProcessBroker;
+import se.nackademin.messaging.business.RabbitAuditTransport;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Events per second from {@link AuditLogger} until {@link AuditLogReceiver} has stored them, both sides in this JVM.
+ * The in-process transport measures the two services without a broker, amqp goes over the network to an
+ * {@link EmbeddedAmqpBroker}. Each operation is one deposit, published in batches of {@value #EVENTS}.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@OperationsPerInvocation(EndToEndBenchmark.EVENTS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class EndToEndBenchmark {
+    static final int EVENTS = 1000;
+    private static final int BATCH_SIZE = 100;
+    private static final long WAIT_NANOS = TimeUnit.MICROSECONDS.toNanos(50);
+    private static final long TIMEOUT_NANOS = TimeUnit.SECONDS.toNanos(30);
+
+    @Param({"in-process", "amqp"})
+    public String transport;
+
+    @Param({"json", "binary"})
+    public String wireFormat;
+
+    private AuditLogRepository repository;
+    private AuditLogger auditLogger;
+    private InProcessBroker inProcessBroker;
+    private EmbeddedAmqpBroker amqpBroker;
+    private CachingConnectionFactory connectionFactory;
+    private SimpleMessageListenerContainer container;
+    private long amount;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        ObjectMapper objectMapper = new ObjectMapper();
+        objectMapper.registerModule(new JavaTimeModule());
+        // As configured by Spring Boot in both services, the audit side reads the timestamp as an ISO-8601 string
+        objectMapper.disable(SerializationFeature.WRITE_DATES_AS_TIMESTAMPS);
+        Jackson2JsonMessageConverter json = new Jackson2JsonMessageConverter(objectMapper);
+        MessageConverter producerConverter = wireFormat.equals("binary") ? new EventBinaryConverter() : json;
+        ContentTypeDelegatingMessageConverter consumerConverter = new ContentTypeDelegatingMessageConverter(json);
+        consumerConverter.addDelegate(AuditEventBinaryConverter.CONTENT_TYPE, new AuditEventBinaryConverter());
+
+        repository = new AuditLogRepository();
+        AuditLogReceiver receiver = new AuditLogReceiver();
+        receiver.auditLogRepository = repository;
+        receiver.dedupWindow = new DedupWindow(100_000, 10, TimeUnit.MINUTES);
+        receiver.metrics = new ConsumeMetrics(new SimpleMeterRegistry());
+
+        if (transport.equals("in-process")) {
+            inProcessBroker = InProcessBroker.forAudit(1, 8192);
+            // Every event is valid, nothing is ever rejected to the retry queues
+            AuditMessageReceiver listeners = new AuditShardListeners(receiver, null, consumerConverter, new AuditCluster(repository),
+                    null, 1, AuditMessageReceiver.Transport.IN_PROCESS);
+            for (String queue : listeners.queues()) {
+                inProcessBroker.consume(queue, BATCH_SIZE, listeners::receive);
+            }
+            auditLogger = new AuditLogger(new InProcessAuditTransport(inProcessBroker, producerConverter));
+            return;
+        }
+        amqpBroker = EmbeddedAmqpBroker.start();
+        connectionFactory = new CachingConnectionFactory("localhost", amqpBroker.getPort());
+        connectionFactory.setUsername("guest");
+        connectionFactory.setPassword("guest");
+        RabbitAdmin admin = new RabbitAdmin(connectionFactory);
+        admin.declareExchange(new FanoutExchange("exchange"));
+        admin.declareQueue(new Queue(ApplicationConfiguration.AUDIT_QUEUE));
+        admin.declareBinding(new Binding(ApplicationConfiguration.AUDIT_QUEUE, Binding.DestinationType.QUEUE, "exchange", "", null));
+
+        RabbitTemplate template = new RabbitTemplate(connectionFactory);
+        template.setMessageConverter(producerConverter);
+        AuditShardListeners listeners = new AuditShardListeners(receiver, null, consumerConverter, new AuditCluster(repository),
+                new AuditRetries(template, 0, 0), 1, AuditMessageReceiver.Transport.RABBIT);
+        container = new SimpleMessageListenerContainer(connectionFactory);
+        container.setQueueNames(ApplicationConfiguration.AUDIT_QUEUE);
+        container.setConsumerBatchEnabled(true);
+        container.setBatchSize(BATCH_SIZE);
+        container.setPrefetchCount(250);
+        container.setReceiveTimeout(100);
+        container.setMessageListener((BatchMessageListener) messages -> listeners.receive(ApplicationConfiguration.AUDIT_QUEUE, messages));
+        container.start();
+        auditLogger = new AuditLogger(new RabbitAuditTransport(template));
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        if (inProcessBroker != null) {
+            inProcessBroker.close();
+        }
+        if (container != null) {
+            container.stop();
+            connectionFactory.destroy();
+            amqpBroker.close();
+        }
+    }
+
+    @Benchmark
+    public long publishAndStore() {
+        long stored = repository.size() + EVENTS;
+        List<DepositEvent> events = new ArrayList<>(EVENTS);
+        for (int i = 0; i < EVENTS; i++) {
+            events.add(DepositEvent.build(i, amount++));
+        }
+        auditLogger.notifyBatch(events);
+        long deadline = System.nanoTime() + TIMEOUT_NANOS;
+        while (repository.size() < stored) {
+            if (System.nanoTime() > deadline) {
+                throw new IllegalStateException("Only " + repository.size() + " of " + stored + " events stored");
+            }
+            LockSupport.parkNanos(WAIT_NANOS);
+        }
+        return stored;
+    }
+}
@@ -0,0 +1,52 @@
+package se.nackademin.messaging.business;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.amqp.core.Message;
+import org.springframework.amqp.core.MessageProperties;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Garbage created per deposit on the publishing path, run with {@code -prof gc} and compare gc.alloc.rate.norm.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class DepositEventBenchmark {
+    private ByteBuffer buffer;
+    private EventBinaryConverter converter;
+    private MessageProperties properties;
+    private long amount;
+
+    @Setup
+    public void setUp() {
+        buffer = ByteBuffer.allocate(256);
+        converter = new EventBinaryConverter();
+        properties = new MessageProperties();
+    }
+
+    @Benchmark
+    public ByteBuffer buildAndWrite() {
+        buffer.clear();
+        EventBinaryConverter.write(DepositEvent.build(1234, amount++), buffer);
+        return buffer;
+    }
+
+    @Benchmark
+    public Message buildAndConvert() {
+        return converter.toMessage(DepositEvent.build(1234, amount++), properties);
+    }
+}
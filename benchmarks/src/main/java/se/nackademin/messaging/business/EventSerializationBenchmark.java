@@ -0,0 +1,58 @@
+package se.nackademin.messaging.business;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.amqp.core.Message;
+import org.springframework.amqp.core.MessageProperties;
+import org.springframework.amqp.support.converter.Jackson2JsonMessageConverter;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Producer side: turning an {@link Event} into the AMQP message that {@link AuditLogger} publishes.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class EventSerializationBenchmark {
+    private Jackson2JsonMessageConverter json;
+    private EventBinaryConverter binary;
+
+    @Setup
+    public void setUp() {
+        // Same settings as the ObjectMapper Spring Boot hands to ApplicationConfiguration
+        ObjectMapper objectMapper = new ObjectMapper().disable(SerializationFeature.WRITE_DATES_AS_TIMESTAMPS);
+        objectMapper.registerModule(new JavaTimeModule());
+        json = new Jackson2JsonMessageConverter(objectMapper);
+        binary = new EventBinaryConverter();
+    }
+
+    @Benchmark
+    public Message depositJson() {
+        return json.toMessage(DepositEvent.build(1234, 100), new MessageProperties());
+    }
+
+    @Benchmark
+    public Message depositBinary() {
+        return binary.toMessage(DepositEvent.build(1234, 100), new MessageProperties());
+    }
+
+    @Benchmark
+    public Message openAccountJson() {
+        return json.toMessage(new OpenAccountEvent(1234), new MessageProperties());
+    }
+}
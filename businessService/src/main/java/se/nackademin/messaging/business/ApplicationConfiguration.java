@@ -8,9 +8,24 @@ import org.springframework.amqp.rabbit.connection.ConnectionFactory;
 import org.springframework.amqp.rabbit.core.RabbitAdmin;
 import org.springframework.amqp.rabbit.core.RabbitTemplate;
 import org.springframework.amqp.support.converter.Jackson2JsonMessageConverter;
+import org.springframework.amqp.support.converter.MessageConverter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.apache.coyote.ProtocolHandler;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.web.embedded.tomcat.TomcatProtocolHandlerCustomizer;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Profile;
 import org.springframework.scheduling.annotation.EnableScheduling;
+import se.nackademin.messaging.common.VirtualThreads;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
 
 
 @Configuration
@@ -41,22 +56,100 @@ public class ApplicationConfiguration {
      */
 
     @Bean
-    public AuditLogger auditLogger(RabbitTemplate template) {
-        return new AuditLogger(template);
+    @Profile("!reactive")
+    public AuditLogger auditLogger(@Value("${audit.transport}") AuditTransport.Type transportType,
+                                   ObjectProvider<RabbitTemplate> template,
+                                   ObjectProvider<InProcessBroker> inProcessBroker,
+                                   Jackson2JsonMessageConverter converter,
+                                   @Value("${audit.wire-format}") WireFormat wireFormat,
+                                   @Value("${audit.publisher.confirms.enabled}") boolean confirmsEnabled,
+                                   @Value("${audit.publisher.confirms.window}") int confirmWindow,
+                                   @Value("${audit.publisher.confirms.max-retries}") int maxRetries,
+                                   @Value("${audit.publisher.confirms.retry-backoff-ms}") long retryBackoffMs,
+                                   @Value("${audit.publisher.confirms.report-interval-ms}") long reportIntervalMs,
+                                   @Value("${audit.publisher.async}") boolean async,
+                                   @Value("${audit.publisher.buffer-size}") int bufferSize,
+                                   @Value("${audit.publisher.batch-size}") int batchSize,
+                                   @Value("${audit.publisher.overflow}") AsyncAuditLogger.OverflowPolicy overflow,
+                                   @Value("${audit.shards}") int shardCount,
+                                   MeterRegistry meterRegistry) {
+        AuditShards shards = new AuditShards(shardCount);
+        PublishMetrics metrics = new PublishMetrics(meterRegistry);
+        AuditTransport transport;
+        if (transportType == AuditTransport.Type.IN_PROCESS) {
+            transport = new InProcessAuditTransport(inProcessBroker.getObject(), messageConverter(wireFormat, converter));
+        } else {
+            PublisherConfirms confirms = confirmsEnabled
+                    ? new PublisherConfirms(template.getObject(), confirmWindow, maxRetries, Duration.ofMillis(retryBackoffMs), Duration.ofMillis(reportIntervalMs), metrics)
+                    : null;
+            transport = new RabbitAuditTransport(template.getObject(), confirms);
+        }
+        if (!async) {
+            return new AuditLogger(transport, shards, metrics);
+        }
+        AsyncAuditLogger auditLogger = new AsyncAuditLogger(transport, shards, metrics, bufferSize, batchSize, overflow);
+        auditLogger.start();
+        return auditLogger;
+    }
+
+    /**
+     * The queues the audit side declares, in this JVM. Whatever runs the audit side next to this service consumes them.
+     */
+    @Bean(destroyMethod = "close")
+    @Profile("!reactive")
+    @ConditionalOnProperty(name = "audit.transport", havingValue = "in-process")
+    public InProcessBroker inProcessBroker(@Value("${audit.shards}") int shards,
+                                           @Value("${audit.in-process.queue-capacity}") int capacity) {
+        return InProcessBroker.forAudit(shards, capacity);
+    }
+
+    /**
+     * Runs every HTTP request on its own virtual thread, so threads blocked on the broker no longer cap concurrency.
+     */
+    @Bean
+    @ConditionalOnProperty("threads.virtual.enabled")
+    public TomcatProtocolHandlerCustomizer<ProtocolHandler> virtualThreadRequests() {
+        ExecutorService executor = VirtualThreads.newExecutor("http-virtual-")
+                .orElseThrow(() -> new IllegalStateException("threads.virtual.enabled needs Java 21 or later"));
+        return protocolHandler -> protocolHandler.setExecutor(executor);
     }
 
     @Bean
     FanoutExchange exchange() {
-        return new FanoutExchange("exchange");
+        return new FanoutExchange(AuditLogger.EXCHANGE);
     }
 
+    /**
+     * With more than one shard the fanout exchange also feeds a direct exchange that routes each event to the shard
+     * queue named by its routing key. Declared here as well so no event is lost before the audit service starts.
+     */
     @Bean
-    public RabbitTemplate rabbitTemplate(final ConnectionFactory connectionFactory, final Jackson2JsonMessageConverter converter) {
+    Declarables auditShardTopology(@Value("${audit.shards}") int shards) {
+        List<Declarable> declarables = new ArrayList<>();
+        if (shards > 1) {
+            declarables.add(new DirectExchange(AuditShards.EXCHANGE));
+            declarables.add(new Binding(AuditShards.EXCHANGE, Binding.DestinationType.EXCHANGE, AuditLogger.EXCHANGE, "", null));
+            for (int shard = 0; shard < shards; shard++) {
+                String queue = AuditShards.QUEUE_PREFIX + shard;
+                declarables.add(new Queue(queue, true, false, false, Map.of("x-single-active-consumer", true)));
+                declarables.add(new Binding(queue, Binding.DestinationType.QUEUE, AuditShards.EXCHANGE, Integer.toString(shard), null));
+            }
+        }
+        return new Declarables(declarables);
+    }
+
+    @Bean
+    public RabbitTemplate rabbitTemplate(final ConnectionFactory connectionFactory, final Jackson2JsonMessageConverter converter,
+                                         @Value("${audit.wire-format}") WireFormat wireFormat) {
        RabbitTemplate rt = new RabbitTemplate(connectionFactory);
-       rt.setMessageConverter(converter);
+       rt.setMessageConverter(messageConverter(wireFormat, converter));
        return rt;
     }
 
+    static MessageConverter messageConverter(WireFormat wireFormat, Jackson2JsonMessageConverter json) {
+        return wireFormat == WireFormat.BINARY ? new EventBinaryConverter() : json;
+    }
+
     @Bean
     public Jackson2JsonMessageConverter producerJackson2MessageConverter(ObjectMapper objectMapper) {
         objectMapper.registerModule(new JavaTimeModule());
@@ -0,0 +1,139 @@
+package se.nackademin.messaging.business;
+
+import io.micrometer.core.instrument.Gauge;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Audit logger that returns as soon as the event is buffered. A single publisher thread drains the buffer and sends
+ * each batch as one {@link AuditTransport#batch}, so request threads never wait for the broker.
+ */
+public class AsyncAuditLogger extends AuditLogger {
+    private static final Logger LOG = LoggerFactory.getLogger(AsyncAuditLogger.class);
+    private static final long IDLE_PARK_NANOS = TimeUnit.MICROSECONDS.toNanos(100);
+
+    public enum OverflowPolicy {
+        /** Wait for the publisher to free up space. */
+        BLOCK,
+        /** Discard the event and count it in {@link #getDropped()}. */
+        DROP,
+        /** Throw {@link AuditBufferFullException}. */
+        FAIL
+    }
+
+    private final MpscRingBuffer<Event> buffer;
+    private final int batchSize;
+    private final OverflowPolicy overflowPolicy;
+    private final Thread publisher;
+    private final AtomicLong dropped = new AtomicLong();
+    private final PublishMetrics metrics;
+    private final AtomicLong failed = new AtomicLong();
+    private volatile boolean running = true;
+
+    public AsyncAuditLogger(AuditTransport transport, int bufferSize, int batchSize, OverflowPolicy overflowPolicy) {
+        this(transport, AuditShards.SINGLE, PublishMetrics.NONE, bufferSize, batchSize, overflowPolicy);
+    }
+
+    AsyncAuditLogger(AuditTransport transport, AuditShards shards, PublishMetrics metrics,
+                     int bufferSize, int batchSize, OverflowPolicy overflowPolicy) {
+        super(transport, shards, metrics);
+        this.buffer = new MpscRingBuffer<>(bufferSize);
+        this.metrics = metrics;
+        Gauge.builder("audit.publish.buffered", buffer, MpscRingBuffer::size)
+                .description("Audit events waiting in the publisher buffer")
+                .register(metrics.registry);
+        this.batchSize = batchSize;
+        this.overflowPolicy = overflowPolicy;
+        this.publisher = new Thread(this::publish, "audit-publisher");
+        this.publisher.setDaemon(true);
+    }
+
+    public void start() {
+        publisher.start();
+    }
+
+    @Override
+    public void notify(Event auditEvent) {
+        if (buffer.offer(auditEvent)) {
+            return;
+        }
+        switch (overflowPolicy) {
+            case BLOCK:
+                while (!buffer.offer(auditEvent)) {
+                    if (!running) {
+                        throw new AuditBufferFullException("Audit publisher is stopped");
+                    }
+                    LockSupport.parkNanos(IDLE_PARK_NANOS);
+                }
+                break;
+            case DROP:
+                metrics.dropped.increment();
+                if (dropped.incrementAndGet() % 1000 == 1) {
+                    LOG.warn("Audit buffer is full, {} events dropped so far", dropped.get());
+                }
+                break;
+            case FAIL:
+                throw new AuditBufferFullException("Audit buffer of " + buffer.capacity() + " events is full");
+        }
+    }
+
+    /**
+     * Buffers the events one by one, following the overflow policy for each.
+     */
+    @Override
+    public void notifyBatch(List<? extends Event> auditEvents) {
+        for (Event event : auditEvents) {
+            notify(event);
+        }
+    }
+
+    public long getDropped() {
+        return dropped.get();
+    }
+
+    public long getFailed() {
+        return failed.get();
+    }
+
+    public int getBuffered() {
+        return buffer.size();
+    }
+
+    /**
+     * Publishes what is left in the buffer and stops the publisher thread.
+     */
+    @Override
+    public void close() {
+        running = false;
+        LockSupport.unpark(publisher);
+        try {
+            publisher.join(TimeUnit.SECONDS.toMillis(10));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        super.close();
+    }
+
+    private void publish() {
+        List<Event> batch = new ArrayList<>(batchSize);
+        while (running || buffer.size() > 0) {
+            if (buffer.drainTo(batch, batchSize) == 0) {
+                LockSupport.parkNanos(IDLE_PARK_NANOS);
+                continue;
+            }
+            try {
+                sendBatch(batch);
+            } catch (RuntimeException e) {
+                failed.addAndGet(batch.size());
+                LOG.error("Could not publish {} audit events", batch.size(), e);
+            }
+            batch.clear();
+        }
+    }
+}
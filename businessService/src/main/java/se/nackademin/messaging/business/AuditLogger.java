@@ -2,18 +2,38 @@ package se.nackademin.messaging.business;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-import org.springframework.amqp.rabbit.core.RabbitTemplate;
+import se.nackademin.messaging.common.RateLimitedLog;
 
-public class AuditLogger {
+import java.io.Closeable;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Publishes audit events through an {@link AuditTransport}, with the routing key of each set to its account's shard.
+ */
+public class AuditLogger implements Closeable {
     private static final Logger LOG = LoggerFactory.getLogger(AuditLogger.class);
-    private RabbitTemplate template;
+    static final String EXCHANGE = "exchange";
+    private final AuditTransport transport;
+    private final AuditShards shards;
+    private final PublishMetrics metrics;
+    private final RateLimitedLog sent = new RateLimitedLog(Duration.ofSeconds(10));
+
+    public AuditLogger(AuditTransport transport) {
+        this(transport, AuditShards.SINGLE, PublishMetrics.NONE);
+    }
 
-    public AuditLogger(RabbitTemplate template) {
-        this.template = template;
+    /**
+     * @param shards sets the routing key of each event to the audit shard of its account
+     */
+    AuditLogger(AuditTransport transport, AuditShards shards, PublishMetrics metrics) {
+        this.transport = transport;
+        this.shards = shards;
+        this.metrics = metrics;
     }
 
     public void notify(Event auditEvent) {
-        LOG.info("Sending..");
        /*
        TODO: Uppgift 3:
           Vi är inne i audit loggern. Här är det menat att vi ska skicka iväg ett meddelande!
@@ -28,6 +48,36 @@ public class AuditLogger {
           En annan sak vi måste tillhandahålla är Routing key, vilket vi kan använda för att routa till rätt kö.
           I och med att vi använder FanoutExchange kommer den inte att användas dock.
         */
-        template.convertAndSend("exchange","",auditEvent);
+        send(auditEvent);
+    }
+
+    /**
+     * Sends the events in order, over one channel if the transport has channels.
+     */
+    public void notifyBatch(List<? extends Event> auditEvents) {
+        sendBatch(auditEvents);
+    }
+
+    protected void sendBatch(List<? extends Event> auditEvents) {
+        transport.batch(() -> {
+            for (Event event : auditEvents) {
+                send(event);
+            }
+        });
+    }
+
+    protected void send(Event auditEvent) {
+        long start = System.nanoTime();
+        transport.send(shards.routingKey(auditEvent.getAccountId()), auditEvent);
+        metrics.publish.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        long count = sent.add(1);
+        if (count > 0) {
+            LOG.info("Sent {} audit events since the last report", count);
+        }
+    }
+
+    @Override
+    public void close() {
+        transport.close();
     }
 }
@@ -0,0 +1,13 @@
+package se.nackademin.messaging.business;
+
+import org.springframework.http.HttpStatus;
+import org.springframework.web.bind.annotation.ResponseStatus;
+
+@ResponseStatus(HttpStatus.SERVICE_UNAVAILABLE)
+public class AuditNotConfirmedException extends RuntimeException {
+    private static final long serialVersionUID = 1L;
+
+    public AuditNotConfirmedException(String message) {
+        super(message);
+    }
+}
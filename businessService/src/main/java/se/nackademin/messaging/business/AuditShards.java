@@ -0,0 +1,53 @@
+package se.nackademin.messaging.business;
+
+/**
+ * Picks the audit shard of an account, the routing key of an event is the number of its shard.
+ * <p>
+ * Jump consistent hashing (Lamping and Veach) keeps every account on one shard, so its events stay in order, and
+ * when the shard count grows from n to n + 1 only 1/(n + 1) of the accounts move. The routing keys are created once,
+ * picking one allocates nothing. With a single shard the key is empty and the audit service keeps its one queue.
+ */
+final class AuditShards {
+    static final String EXCHANGE = "audit-shards";
+    static final String QUEUE = "audit-log";
+    static final String QUEUE_PREFIX = QUEUE + ".";
+    static final AuditShards SINGLE = new AuditShards(1);
+
+    private final String[] routingKeys;
+
+    AuditShards(int count) {
+        if (count < 1) {
+            throw new IllegalArgumentException("Shard count must be positive, was " + count);
+        }
+        routingKeys = new String[count];
+        for (int shard = 0; shard < count; shard++) {
+            routingKeys[shard] = count == 1 ? "" : Integer.toString(shard);
+        }
+    }
+
+    int count() {
+        return routingKeys.length;
+    }
+
+    /**
+     * Name of the audit queue of {@code shard}, as the audit service declares it.
+     */
+    String queue(int shard) {
+        return routingKeys.length == 1 ? QUEUE : QUEUE_PREFIX + shard;
+    }
+
+    String routingKey(long accountId) {
+        return routingKeys[shard(accountId, routingKeys.length)];
+    }
+
+    static int shard(long key, int buckets) {
+        long bucket = -1;
+        long next = 0;
+        while (next < buckets) {
+            bucket = next;
+            key = key * 2862933555777941757L + 1;
+            next = (long) ((bucket + 1) * ((double) (1L << 31) / (double) ((key >>> 33) + 1)));
+        }
+        return (int) bucket;
+    }
+}
@@ -0,0 +1,39 @@
+package se.nackademin.messaging.business;
+
+import java.io.Closeable;
+
+/**
+ * What {@link AuditLogger} publishes audit events through, to the exchange {@link AuditLogger#EXCHANGE}.
+ * {@link RabbitAuditTransport} talks to RabbitMQ, {@link InProcessAuditTransport} hands the events to an
+ * {@link InProcessBroker} in the same JVM.
+ */
+public interface AuditTransport extends Closeable {
+
+    /**
+     * The transports the application can be configured with in {@code audit.transport}.
+     */
+    enum Type {
+        RABBIT,
+        IN_PROCESS
+    }
+
+    /**
+     * Publishes the event with the routing key, returning once the transport has taken responsibility for it.
+     */
+    void send(String routingKey, Event event);
+
+    /**
+     * Runs {@code sends}, which calls {@link #send} for each event of a batch, over one channel if the transport has
+     * channels.
+     */
+    default void batch(Runnable sends) {
+        sends.run();
+    }
+
+    /**
+     * Waits a bounded time for events in flight, if the transport tracks any.
+     */
+    @Override
+    default void close() {
+    }
+}
@@ -0,0 +1,163 @@
+package se.nackademin.messaging.business;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.JsonToken;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Profile;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Replays many operations in one request. The body is newline delimited JSON, one operation per line:
+ * <pre>
+ * {"type":"OPEN_ACCOUNT","accountId":1}
+ * {"type":"DEPOSIT","accountId":1,"amount":100}
+ * </pre>
+ * Lines are parsed as they arrive and published in batches, so the body is never held in memory. Lines that cannot be
+ * parsed are rejected one by one without stopping the rest of the stream. If a batch cannot be published, reading
+ * stops there and the result reports the lines of that batch as failed, the lines after it were not read.
+ */
+@RestController
+@Profile("!reactive")
+public class BulkResource {
+    static final String NDJSON = "application/x-ndjson";
+
+    private final AuditLogger auditLogger;
+    private final JsonFactory jsonFactory = new JsonFactory();
+    private final int batchSize;
+    private final int maxRejections;
+
+    public BulkResource(AuditLogger auditLogger, @Value("${bulk.batch-size}") int batchSize,
+                        @Value("${bulk.max-reported-rejections}") int maxRejections) {
+        this.auditLogger = auditLogger;
+        this.batchSize = batchSize;
+        this.maxRejections = maxRejections;
+    }
+
+    @PostMapping(value = "/bulk", consumes = NDJSON)
+    public BulkResult bulk(InputStream body) throws IOException {
+        BulkResult result = new BulkResult(maxRejections);
+        List<Event> batch = new ArrayList<>(batchSize);
+        BufferedReader reader = new BufferedReader(new InputStreamReader(body, StandardCharsets.UTF_8));
+        long lineNumber = 0;
+        long batchFirstLine = 0;
+        String line;
+        while ((line = reader.readLine()) != null) {
+            lineNumber++;
+            if (line.isBlank()) {
+                continue;
+            }
+            try {
+                batch.add(parse(line));
+            } catch (IllegalArgumentException e) {
+                result.rejected(lineNumber, e.getMessage());
+                continue;
+            }
+            if (batch.size() == 1) {
+                batchFirstLine = lineNumber;
+            }
+            if (batch.size() == batchSize && !publish(batch, batchFirstLine, lineNumber, result)) {
+                return result;
+            }
+        }
+        publish(batch, batchFirstLine, lineNumber, result);
+        return result;
+    }
+
+    /**
+     * @return whether the batch was handed over, if not it is recorded as failed in the result
+     */
+    private boolean publish(List<Event> batch, long firstLine, long lastLine, BulkResult result) {
+        if (batch.isEmpty()) {
+            return true;
+        }
+        try {
+            auditLogger.notifyBatch(batch);
+        } catch (RuntimeException e) {
+            result.failed(firstLine, lastLine, batch.size(), e.getMessage());
+            return false;
+        }
+        result.accepted(batch.size());
+        batch.clear();
+        return true;
+    }
+
+    /**
+     * @throws IllegalArgumentException naming what is wrong with the line
+     */
+    Event parse(String line) {
+        Event.AuditEventType type = null;
+        Long accountId = null;
+        Long amount = null;
+        try (JsonParser parser = jsonFactory.createParser(line)) {
+            if (parser.nextToken() != JsonToken.START_OBJECT) {
+                throw new IllegalArgumentException("Expected a JSON object");
+            }
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String field = parser.getCurrentName();
+                JsonToken value = parser.nextToken();
+                switch (field) {
+                    case "type":
+                        type = type(parser.getValueAsString());
+                        break;
+                    case "accountId":
+                        accountId = number(parser, value, field);
+                        break;
+                    case "amount":
+                        amount = number(parser, value, field);
+                        break;
+                    default:
+                        parser.skipChildren();
+                }
+            }
+            if (parser.nextToken() != null) {
+                throw new IllegalArgumentException("Expected one JSON object per line");
+            }
+        } catch (JsonProcessingException e) {
+            throw new IllegalArgumentException("Malformed JSON: " + e.getOriginalMessage());
+        } catch (IOException e) {
+            throw new IllegalArgumentException(e.getMessage());
+        }
+        if (type == null) {
+            throw new IllegalArgumentException("Missing type");
+        }
+        if (accountId == null) {
+            throw new IllegalArgumentException("Missing accountId");
+        }
+        if (type == Event.AuditEventType.OPEN_ACCOUNT) {
+            return new OpenAccountEvent(accountId);
+        }
+        if (amount == null) {
+            throw new IllegalArgumentException("Missing amount");
+        }
+        return DepositEvent.build(accountId, amount);
+    }
+
+    private static Event.AuditEventType type(String type) {
+        if (type != null) {
+            for (Event.AuditEventType candidate : Event.AuditEventType.values()) {
+                if (candidate.name().equals(type)) {
+                    return candidate;
+                }
+            }
+        }
+        throw new IllegalArgumentException("Unknown type " + type);
+    }
+
+    private static long number(JsonParser parser, JsonToken value, String field) throws IOException {
+        if (value != JsonToken.VALUE_NUMBER_INT || parser.getNumberType() != JsonParser.NumberType.INT && parser.getNumberType() != JsonParser.NumberType.LONG) {
+            throw new IllegalArgumentException(field + " must be a whole number within the long range");
+        }
+        return parser.getLongValue();
+    }
+}
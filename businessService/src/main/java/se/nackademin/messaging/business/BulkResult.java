@@ -0,0 +1,103 @@
+package se.nackademin.messaging.business;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Outcome of a bulk request. Every line read is either accepted or rejected, the reasons are kept for the first
+ * {@code maxRejections} rejected lines only. If publishing failed, {@link #getFailure()} names the batch that failed
+ * and the request was not read further; events of that batch may or may not have been published.
+ */
+public class BulkResult {
+    private final int maxRejections;
+    private final List<Rejection> rejections = new ArrayList<>();
+    private long accepted;
+    private long rejected;
+    private Failure failure;
+
+    BulkResult(int maxRejections) {
+        this.maxRejections = maxRejections;
+    }
+
+    void accepted(int count) {
+        accepted += count;
+    }
+
+    void rejected(long line, String reason) {
+        rejected++;
+        if (rejections.size() < maxRejections) {
+            rejections.add(new Rejection(line, reason));
+        }
+    }
+
+    void failed(long firstLine, long lastLine, int events, String reason) {
+        failure = new Failure(firstLine, lastLine, events, reason);
+    }
+
+    public long getAccepted() {
+        return accepted;
+    }
+
+    public long getRejected() {
+        return rejected;
+    }
+
+    public List<Rejection> getRejections() {
+        return rejections;
+    }
+
+    /**
+     * The batch that could not be published, null if every batch was.
+     */
+    public Failure getFailure() {
+        return failure;
+    }
+
+    public static class Rejection {
+        private final long line;
+        private final String reason;
+
+        Rejection(long line, String reason) {
+            this.line = line;
+            this.reason = reason;
+        }
+
+        public long getLine() {
+            return line;
+        }
+
+        public String getReason() {
+            return reason;
+        }
+    }
+
+    public static class Failure {
+        private final long firstLine;
+        private final long lastLine;
+        private final int events;
+        private final String reason;
+
+        Failure(long firstLine, long lastLine, int events, String reason) {
+            this.firstLine = firstLine;
+            this.lastLine = lastLine;
+            this.events = events;
+            this.reason = reason;
+        }
+
+        public long getFirstLine() {
+            return firstLine;
+        }
+
+        public long getLastLine() {
+            return lastLine;
+        }
+
+        public int getEvents() {
+            return events;
+        }
+
+        public String getReason() {
+            return reason;
+        }
+    }
+}
@@ -1,13 +1,54 @@
 package se.nackademin.messaging.business;
 
-import java.time.Instant;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 
 public class DepositEvent extends Event {
-    private DepositEvent(long accountId, String data) {
-        super(AuditEventType.DEPOSIT, accountId, Instant.now(), data);
+    private static final String DATA_PREFIX = "Deposit amount of ";
+    private static final byte[] DATA_PREFIX_BYTES = DATA_PREFIX.getBytes(StandardCharsets.US_ASCII);
+
+    private final long amount;
+
+    private DepositEvent(long accountId, long amount) {
+        super(AuditEventType.DEPOSIT, accountId, EpochClock.nowNanos());
+        this.amount = amount;
     }
 
     public static DepositEvent build(long accountId, long amount) {
-        return new DepositEvent(accountId, "Deposit amount of " + amount);
+        return new DepositEvent(accountId, amount);
+    }
+
+    long getAmount() {
+        return amount;
+    }
+
+    @Override
+    String getData() {
+        return DATA_PREFIX + amount;
+    }
+
+    @Override
+    void writeData(ByteBuffer buffer) {
+        buffer.put(DATA_PREFIX_BYTES);
+        writeDecimal(buffer, amount);
+    }
+
+    private static void writeDecimal(ByteBuffer buffer, long value) {
+        if (value < 0) {
+            buffer.put((byte) '-');
+        } else {
+            value = -value;
+        }
+        // Works on the negative value so Long.MIN_VALUE needs no special case
+        int digits = 1;
+        for (long rest = value / 10; rest != 0; rest /= 10) {
+            digits++;
+        }
+        int end = buffer.position() + digits;
+        for (int i = end - 1; i >= end - digits; i--) {
+            buffer.put(i, (byte) ('0' - value % 10));
+            value /= 10;
+        }
+        buffer.position(end);
     }
 }
@@ -0,0 +1,42 @@
+package se.nackademin.messaging.business;
+
+import java.time.Instant;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Wall clock time in nanoseconds since the epoch without allocating an {@link Instant} per call.
+ * <p>
+ * The offset between {@link System#nanoTime()} and the wall clock is measured once a second, so the clock follows
+ * adjustments of the system time with at most that delay.
+ */
+final class EpochClock {
+    private static final long CALIBRATION_INTERVAL = TimeUnit.SECONDS.toNanos(1);
+
+    private static volatile long offset;
+    private static volatile long calibratedAt;
+
+    static {
+        calibrate(System.nanoTime());
+    }
+
+    private EpochClock() {
+    }
+
+    static long nowNanos() {
+        long ticks = System.nanoTime();
+        if (ticks - calibratedAt > CALIBRATION_INTERVAL) {
+            calibrate(ticks);
+        }
+        return offset + ticks;
+    }
+
+    static Instant toInstant(long epochNanos) {
+        return Instant.ofEpochSecond(Math.floorDiv(epochNanos, 1_000_000_000L), Math.floorMod(epochNanos, 1_000_000_000L));
+    }
+
+    private static void calibrate(long ticks) {
+        Instant now = Instant.now();
+        offset = now.getEpochSecond() * 1_000_000_000L + now.getNano() - ticks;
+        calibratedAt = ticks;
+    }
+}
@@ -2,8 +2,16 @@ package se.nackademin.messaging.business;
 
 import com.fasterxml.jackson.annotation.JsonProperty;
 
+import java.nio.ByteBuffer;
 import java.time.Instant;
 
+/**
+ * An audit event keeps its values as primitives and enums. The JSON view ({@link #getId()}, {@link #getTimestamp()},
+ * {@link #getData()}) is only built when Jackson asks for it, the binary format writes straight from the fields.
+ * <p>
+ * Every event gets a time-ordered id when it is created, see {@link EventIds}. A redelivered message carries the
+ * same id, which is what the audit service deduplicates on.
+ */
 public abstract class Event {
 
     enum AuditEventType {
@@ -12,18 +20,56 @@ public abstract class Event {
     }
 
     @JsonProperty("type")
-    private final String type;
+    private final AuditEventType type;
     @JsonProperty("accountId")
     private final long accountId;
-    @JsonProperty("timestamp")
-    private final Instant timestamp;
-    @JsonProperty("data")
-    private final String data;
+    private final long epochNanos;
+    private final long idHigh;
+    private final long idLow;
 
-    protected Event(AuditEventType type, long accountId, Instant timestamp, String data) {
-        this.type = type.toString();
+    protected Event(AuditEventType type, long accountId, long epochNanos) {
+        this.type = type;
         this.accountId = accountId;
-        this.timestamp = timestamp;
-        this.data = data;
+        this.epochNanos = epochNanos;
+        this.idHigh = EventIds.high(Math.floorDiv(epochNanos, 1_000_000L));
+        this.idLow = EventIds.low();
+    }
+
+    @JsonProperty("id")
+    String getId() {
+        return EventIds.toString(idHigh, idLow);
+    }
+
+    long getIdHigh() {
+        return idHigh;
+    }
+
+    long getIdLow() {
+        return idLow;
+    }
+
+    AuditEventType getType() {
+        return type;
     }
+
+    long getAccountId() {
+        return accountId;
+    }
+
+    long getEpochNanos() {
+        return epochNanos;
+    }
+
+    @JsonProperty("timestamp")
+    Instant getTimestamp() {
+        return EpochClock.toInstant(epochNanos);
+    }
+
+    @JsonProperty("data")
+    abstract String getData();
+
+    /**
+     * Writes the same text as {@link #getData()} to {@code buffer} as UTF-8, without allocating.
+     */
+    abstract void writeData(ByteBuffer buffer);
 }
@@ -0,0 +1,83 @@
+package se.nackademin.messaging.business;
+
+import org.springframework.amqp.core.Message;
+import org.springframework.amqp.core.MessageProperties;
+import org.springframework.amqp.support.converter.MessageConversionException;
+import org.springframework.amqp.support.converter.MessageConverter;
+
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+
+/**
+ * Writes an {@link Event} as {@code [byte type][long idHigh][long idLow][long accountId][long epochNanos][int length][utf-8 data]},
+ * the audit service reads it when the content type is {@link #CONTENT_TYPE} and falls back to JSON otherwise.
+ * <p>
+ * The type code has {@link #HAS_ID} set when the id is present, the audit service still reads the older layout
+ * without it.
+ * <p>
+ * Events are encoded into a per-thread scratch buffer, the message body is the only allocation.
+ */
+public class EventBinaryConverter implements MessageConverter {
+    public static final String CONTENT_TYPE = "application/x-audit-event";
+    static final byte OPEN_ACCOUNT = 1;
+    static final byte DEPOSIT = 2;
+    static final byte HAS_ID = (byte) 0x80;
+    private static final int LENGTH_OFFSET = 1 + 8 + 8 + 8 + 8;
+    private static final int FIXED_SIZE = LENGTH_OFFSET + 4;
+
+    private final ThreadLocal<ByteBuffer> scratch = ThreadLocal.withInitial(() -> ByteBuffer.allocate(256));
+
+    @Override
+    public Message toMessage(Object object, MessageProperties messageProperties) {
+        if (!(object instanceof Event)) {
+            throw new MessageConversionException("Can only write Event, got " + object.getClass().getName());
+        }
+        ByteBuffer buffer = scratch.get();
+        while (true) {
+            try {
+                buffer.clear();
+                write((Event) object, buffer);
+                break;
+            } catch (BufferOverflowException | IndexOutOfBoundsException e) {
+                buffer = ByteBuffer.allocate(buffer.capacity() * 2);
+                scratch.set(buffer);
+            }
+        }
+        byte[] body = new byte[buffer.position()];
+        buffer.flip().get(body);
+        messageProperties.setContentType(CONTENT_TYPE);
+        messageProperties.setContentLength(body.length);
+        return new Message(body, messageProperties);
+    }
+
+    @Override
+    public Object fromMessage(Message message) {
+        throw new MessageConversionException("Events are only written by the business service");
+    }
+
+    /**
+     * Encodes the event at the position of {@code buffer}, which is left after the last byte written.
+     */
+    public static void write(Event event, ByteBuffer buffer) {
+        int start = buffer.position();
+        buffer.put((byte) (typeCode(event.getType()) | HAS_ID))
+                .putLong(event.getIdHigh())
+                .putLong(event.getIdLow())
+                .putLong(event.getAccountId())
+                .putLong(event.getEpochNanos())
+                .position(start + FIXED_SIZE);
+        event.writeData(buffer);
+        buffer.putInt(start + LENGTH_OFFSET, buffer.position() - start - FIXED_SIZE);
+    }
+
+    private static byte typeCode(Event.AuditEventType type) {
+        switch (type) {
+            case OPEN_ACCOUNT:
+                return OPEN_ACCOUNT;
+            case DEPOSIT:
+                return DEPOSIT;
+            default:
+                throw new MessageConversionException("No wire code for event type " + type);
+        }
+    }
+}
@@ -0,0 +1,31 @@
+package se.nackademin.messaging.business;
+
+import java.util.UUID;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Event ids are 128 bit and laid out as a version 7 UUID: 48 bits of epoch milliseconds, then version, variant and 74
+ * random bits. Ids sort by the time they were created in, and need no coordination between threads or instances.
+ */
+final class EventIds {
+    private static final long VERSION = 0x7000L;
+    private static final long VARIANT = 0x8000_0000_0000_0000L;
+
+    private EventIds() {
+    }
+
+    /**
+     * The upper half, ordered by {@code epochMillis}.
+     */
+    static long high(long epochMillis) {
+        return epochMillis << 16 | VERSION | ThreadLocalRandom.current().nextInt(1 << 12);
+    }
+
+    static long low() {
+        return ThreadLocalRandom.current().nextLong() >>> 2 | VARIANT;
+    }
+
+    static String toString(long high, long low) {
+        return new UUID(high, low).toString();
+    }
+}
@@ -0,0 +1,23 @@
+package se.nackademin.messaging.business;
+
+import org.springframework.amqp.core.MessageProperties;
+import org.springframework.amqp.support.converter.MessageConverter;
+
+/**
+ * Publishes audit events to an {@link InProcessBroker}, each converted to a message by {@code converter} as it would
+ * be for RabbitMQ. A send waits while the queue it goes to is full.
+ */
+public class InProcessAuditTransport implements AuditTransport {
+    private final InProcessBroker broker;
+    private final MessageConverter converter;
+
+    public InProcessAuditTransport(InProcessBroker broker, MessageConverter converter) {
+        this.broker = broker;
+        this.converter = converter;
+    }
+
+    @Override
+    public void send(String routingKey, Event event) {
+        broker.send(AuditLogger.EXCHANGE, routingKey, converter.toMessage(event, new MessageProperties()));
+    }
+}
@@ -0,0 +1,210 @@
+package se.nackademin.messaging.business;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.amqp.AmqpException;
+import org.springframework.amqp.core.Message;
+import org.springframework.amqp.core.MessageBuilder;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.BiConsumer;
+
+/**
+ * Broker inside the JVM, so the business and audit sides can run together without RabbitMQ, e.g. in end-to-end
+ * benchmarks. {@link InProcessAuditTransport} publishes audit events to it.
+ * <p>
+ * An exchange is just its bindings: a message goes to every queue bound to the exchange with its routing key, or with
+ * a null key for a fanout binding, and is dropped when no binding matches. Each queue is a bounded lock-free
+ * {@link MpscRingBuffer}, publishers wait while it is full. A queue has at most one consumer thread, which hands the
+ * listener up to {@code batchSize} messages at a time and acknowledges them when it returns. If the listener throws,
+ * the same batch is delivered again with the redelivered flag set, ahead of anything published since. Messages are
+ * only held in memory, whatever is unacknowledged when the broker closes is lost.
+ */
+public class InProcessBroker implements Closeable {
+    private static final Logger LOG = LoggerFactory.getLogger(InProcessBroker.class);
+    private static final long IDLE_PARK_NANOS = TimeUnit.MICROSECONDS.toNanos(100);
+    private static final long REDELIVERY_DELAY_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+
+    private final Map<String, List<Binding>> exchanges = new ConcurrentHashMap<>();
+    private final Map<String, BrokerQueue> queues = new ConcurrentHashMap<>();
+    private final LongAdder published = new LongAdder();
+    private final LongAdder unroutable = new LongAdder();
+    private final LongAdder redelivered = new LongAdder();
+    private volatile boolean running = true;
+
+    /**
+     * A broker with the audit queues the audit service declares for {@code shards}, bound to the exchange
+     * {@link AuditLogger} publishes to. Shard queues are bound straight to it by their routing key.
+     *
+     * @param capacity messages per queue, a power of two
+     */
+    public static InProcessBroker forAudit(int shards, int capacity) {
+        AuditShards auditShards = new AuditShards(shards);
+        InProcessBroker broker = new InProcessBroker();
+        for (int shard = 0; shard < shards; shard++) {
+            String queue = auditShards.queue(shard);
+            broker.declareQueue(queue, capacity);
+            broker.bind(AuditLogger.EXCHANGE, shards == 1 ? null : Integer.toString(shard), queue);
+        }
+        return broker;
+    }
+
+    /**
+     * @param capacity messages the queue holds, a power of two
+     */
+    public void declareQueue(String name, int capacity) {
+        queues.computeIfAbsent(name, key -> new BrokerQueue(key, capacity));
+    }
+
+    /**
+     * @param routingKey the routing key a message needs to reach the queue, or null for every message
+     */
+    public void bind(String exchange, String routingKey, String queue) {
+        exchanges.computeIfAbsent(exchange, key -> new CopyOnWriteArrayList<>()).add(new Binding(routingKey, queue(queue)));
+    }
+
+    /**
+     * Starts the consumer of {@code queue}, which calls {@code listener} with the queue name and the next batch.
+     */
+    public void consume(String queue, int batchSize, BiConsumer<String, List<Message>> listener) {
+        queue(queue).start(batchSize, listener);
+    }
+
+    /**
+     * Routes the message to the queues bound to {@code exchange}, waiting while one of them is full.
+     */
+    public void send(String exchange, String routingKey, Message message) {
+        published.increment();
+        boolean routed = false;
+        for (Binding binding : exchanges.getOrDefault(exchange, List.of())) {
+            if (binding.routingKey == null || binding.routingKey.equals(routingKey)) {
+                // Every queue after the first gets its own copy, consumers set properties on what they receive
+                binding.queue.put(routed ? MessageBuilder.fromClonedMessage(message).build() : message, exchange, routingKey);
+                routed = true;
+            }
+        }
+        if (!routed) {
+            unroutable.increment();
+        }
+    }
+
+    public long getPublished() {
+        return published.sum();
+    }
+
+    public long getUnroutable() {
+        return unroutable.sum();
+    }
+
+    public long getRedelivered() {
+        return redelivered.sum();
+    }
+
+    /**
+     * Messages in {@code queue} not yet handed to its consumer.
+     */
+    public int getDepth(String queue) {
+        return queue(queue).buffer.size();
+    }
+
+    /**
+     * Stops the consumers once they are done with their current batch.
+     */
+    @Override
+    public void close() {
+        running = false;
+        for (BrokerQueue queue : queues.values()) {
+            queue.stop();
+        }
+    }
+
+    private BrokerQueue queue(String name) {
+        BrokerQueue queue = queues.get(name);
+        if (queue == null) {
+            throw new IllegalArgumentException("No queue " + name);
+        }
+        return queue;
+    }
+
+    private static final class Binding {
+        private final String routingKey;
+        private final BrokerQueue queue;
+
+        private Binding(String routingKey, BrokerQueue queue) {
+            this.routingKey = routingKey;
+            this.queue = queue;
+        }
+    }
+
+    private final class BrokerQueue {
+        private final String name;
+        private final MpscRingBuffer<Message> buffer;
+        private Thread consumer;
+
+        private BrokerQueue(String name, int capacity) {
+            this.name = name;
+            this.buffer = new MpscRingBuffer<>(capacity);
+        }
+
+        void put(Message message, String exchange, String routingKey) {
+            message.getMessageProperties().setReceivedExchange(exchange);
+            message.getMessageProperties().setReceivedRoutingKey(routingKey);
+            while (!buffer.offer(message)) {
+                if (!running) {
+                    throw new AmqpException("Broker closed while queue " + name + " is full");
+                }
+                LockSupport.parkNanos(IDLE_PARK_NANOS);
+            }
+        }
+
+        synchronized void start(int batchSize, BiConsumer<String, List<Message>> listener) {
+            if (consumer != null) {
+                throw new IllegalStateException("Queue " + name + " already has a consumer");
+            }
+            consumer = new Thread(() -> deliver(batchSize, listener), "in-process-" + name);
+            consumer.setDaemon(true);
+            consumer.start();
+        }
+
+        synchronized void stop() {
+            if (consumer == null) {
+                return;
+            }
+            LockSupport.unpark(consumer);
+            try {
+                consumer.join(TimeUnit.SECONDS.toMillis(10));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        private void deliver(int batchSize, BiConsumer<String, List<Message>> listener) {
+            List<Message> unacked = new ArrayList<>(batchSize);
+            while (running) {
+                if (unacked.isEmpty() && buffer.drainTo(unacked, batchSize) == 0) {
+                    LockSupport.parkNanos(IDLE_PARK_NANOS);
+                    continue;
+                }
+                try {
+                    listener.accept(name, List.copyOf(unacked));
+                    unacked.clear();
+                } catch (RuntimeException e) {
+                    LOG.warn("Listener of {} failed, redelivering {} messages", name, unacked.size(), e);
+                    for (Message message : unacked) {
+                        message.getMessageProperties().setRedelivered(true);
+                    }
+                    redelivered.add(unacked.size());
+                    LockSupport.parkNanos(REDELIVERY_DELAY_NANOS);
+                }
+            }
+        }
+    }
+}
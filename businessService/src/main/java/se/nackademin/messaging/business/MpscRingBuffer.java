@@ -0,0 +1,74 @@
+package se.nackademin.messaging.business;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Bounded lock-free queue for many producers and a single consumer.
+ * <p>
+ * Producers claim a slot by moving the producer index with a CAS and then store the element. The consumer sees an
+ * element once it is stored, clears the slot and then moves the consumer index, which is what frees it for reuse.
+ */
+class MpscRingBuffer<E> {
+    private final AtomicReferenceArray<E> buffer;
+    private final int mask;
+    private final AtomicLong producerIndex = new AtomicLong();
+    private final AtomicLong consumerIndex = new AtomicLong();
+
+    MpscRingBuffer(int capacity) {
+        if (capacity < 1 || Integer.bitCount(capacity) != 1) {
+            throw new IllegalArgumentException("Capacity must be a power of two, was " + capacity);
+        }
+        buffer = new AtomicReferenceArray<>(capacity);
+        mask = capacity - 1;
+    }
+
+    /**
+     * @return false if the buffer is full
+     */
+    boolean offer(E element) {
+        long capacity = mask + 1;
+        while (true) {
+            long index = producerIndex.get();
+            if (index - consumerIndex.get() >= capacity) {
+                return false;
+            }
+            if (producerIndex.compareAndSet(index, index + 1)) {
+                buffer.lazySet((int) (index & mask), element);
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Moves up to {@code max} elements to {@code target}, only the consumer thread may call this.
+     *
+     * @return number of elements moved
+     */
+    int drainTo(List<? super E> target, int max) {
+        long index = consumerIndex.get();
+        int drained = 0;
+        while (drained < max) {
+            int slot = (int) (index & mask);
+            E element = buffer.get(slot);
+            if (element == null) {
+                break;
+            }
+            buffer.lazySet(slot, null);
+            target.add(element);
+            index++;
+            drained++;
+        }
+        consumerIndex.lazySet(index);
+        return drained;
+    }
+
+    int size() {
+        return (int) Math.max(0, producerIndex.get() - consumerIndex.get());
+    }
+
+    int capacity() {
+        return mask + 1;
+    }
+}
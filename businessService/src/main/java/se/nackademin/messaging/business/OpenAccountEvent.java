@@ -1,9 +1,18 @@
 package se.nackademin.messaging.business;
 
-import java.time.Instant;
+import java.nio.ByteBuffer;
 
 public class OpenAccountEvent extends Event {
     public OpenAccountEvent(long accountId) {
-        super(AuditEventType.OPEN_ACCOUNT, accountId, Instant.now(), "");
+        super(AuditEventType.OPEN_ACCOUNT, accountId, EpochClock.nowNanos());
+    }
+
+    @Override
+    String getData() {
+        return "";
+    }
+
+    @Override
+    void writeData(ByteBuffer buffer) {
     }
 }
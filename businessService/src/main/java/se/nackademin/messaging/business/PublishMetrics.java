@@ -0,0 +1,44 @@
+package se.nackademin.messaging.business;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.composite.CompositeMeterRegistry;
+
+/**
+ * Meters shared by the audit publishers, all named {@code audit.publish*}.
+ */
+final class PublishMetrics {
+    /**
+     * Meters on a registry nothing reads, for publishers created without one.
+     */
+    static final PublishMetrics NONE = new PublishMetrics(new CompositeMeterRegistry());
+
+    final MeterRegistry registry;
+    /** Handing one event to the broker client, including any wait for the confirm window. */
+    final Timer publish;
+    /** From publishing an event to the broker's confirm. */
+    final Timer confirm;
+    final Counter acked;
+    final Counter nacked;
+    final Counter returned;
+    final Counter retried;
+    final Counter failed;
+    final Counter dropped;
+
+    PublishMetrics(MeterRegistry registry) {
+        this.registry = registry;
+        publish = Timer.builder("audit.publish").description("Time to hand an audit event to the broker client").register(registry);
+        confirm = Timer.builder("audit.publish.confirm").description("Time from publishing an audit event to its confirm").register(registry);
+        acked = confirms(registry, "acked");
+        nacked = confirms(registry, "nacked");
+        returned = confirms(registry, "returned");
+        retried = Counter.builder("audit.publish.retries").register(registry);
+        failed = Counter.builder("audit.publish.failures").description("Audit events given up on").register(registry);
+        dropped = Counter.builder("audit.publish.dropped").description("Audit events dropped because the buffer was full").register(registry);
+    }
+
+    private static Counter confirms(MeterRegistry registry, String outcome) {
+        return Counter.builder("audit.publish.confirms").tag("outcome", outcome).register(registry);
+    }
+}
@@ -0,0 +1,194 @@
+package se.nackademin.messaging.business;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.amqp.core.ReturnedMessage;
+import org.springframework.amqp.rabbit.connection.CorrelationData;
+import org.springframework.amqp.rabbit.core.RabbitOperations;
+import org.springframework.amqp.rabbit.core.RabbitTemplate;
+
+import java.io.Closeable;
+import java.time.Duration;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Correlated publisher confirms with up to {@code windowSize} unconfirmed events in flight.
+ * <p>
+ * Sends do not wait for their own confirm, they only block when the window is full, so throughput stays close to
+ * unconfirmed publishing. Nacked or unroutable events are sent again with exponential backoff until
+ * {@code maxRetries} is reached. Counts and confirm latency are recorded in {@link PublishMetrics} and logged once per
+ * report interval.
+ */
+public class PublisherConfirms implements RabbitTemplate.ConfirmCallback, RabbitTemplate.ReturnsCallback, Closeable {
+    private static final Logger LOG = LoggerFactory.getLogger(PublisherConfirms.class);
+
+    private final RabbitTemplate template;
+    private final int windowSize;
+    private final Semaphore window;
+    private final int maxRetries;
+    private final long retryBackoffMs;
+    private final ConcurrentHashMap<String, Pending> pending = new ConcurrentHashMap<>();
+    private final AtomicLong sequence = new AtomicLong();
+    private final ScheduledExecutorService scheduler;
+    private final PublishMetrics metrics;
+
+    private final LongAdder confirmed = new LongAdder();
+    private final LongAdder nacked = new LongAdder();
+    private final LongAdder returned = new LongAdder();
+    private final LongAdder retried = new LongAdder();
+    private final LongAdder failed = new LongAdder();
+    private final LongAdder latencyNanos = new LongAdder();
+    private final AtomicLong maxLatencyNanos = new AtomicLong();
+
+    public PublisherConfirms(RabbitTemplate template, int windowSize, int maxRetries, Duration retryBackoff, Duration reportInterval) {
+        this(template, windowSize, maxRetries, retryBackoff, reportInterval, PublishMetrics.NONE);
+    }
+
+    PublisherConfirms(RabbitTemplate template, int windowSize, int maxRetries, Duration retryBackoff, Duration reportInterval,
+                      PublishMetrics metrics) {
+        this.template = template;
+        this.metrics = metrics;
+        this.windowSize = windowSize;
+        this.window = new Semaphore(windowSize);
+        this.maxRetries = maxRetries;
+        this.retryBackoffMs = retryBackoff.toMillis();
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "audit-confirms");
+            thread.setDaemon(true);
+            return thread;
+        });
+        long reportMs = reportInterval.toMillis();
+        scheduler.scheduleAtFixedRate(this::report, reportMs, reportMs, TimeUnit.MILLISECONDS);
+        template.setMandatory(true);
+        template.setConfirmCallback(this);
+        template.setReturnsCallback(this);
+    }
+
+    /**
+     * Sends the event, blocking while {@code windowSize} earlier events are still unconfirmed.
+     */
+    public void send(RabbitOperations operations, Event event, String routingKey) {
+        send(operations, event, routingKey, 0);
+    }
+
+    public int getInFlight() {
+        return windowSize - window.availablePermits();
+    }
+
+    @Override
+    public void confirm(CorrelationData correlationData, boolean ack, String cause) {
+        Pending sent = correlationData == null ? null : pending.remove(correlationData.getId());
+        if (sent == null) {
+            return;
+        }
+        window.release();
+        long latency = System.nanoTime() - sent.sentAt;
+        latencyNanos.add(latency);
+        maxLatencyNanos.accumulateAndGet(latency, Math::max);
+        metrics.confirm.record(latency, TimeUnit.NANOSECONDS);
+        if (ack && correlationData.getReturned() == null) {
+            confirmed.increment();
+            metrics.acked.increment();
+        } else if (ack) {
+            returned.increment();
+            metrics.returned.increment();
+            retry(sent, "unroutable, " + correlationData.getReturned().getReplyText());
+        } else {
+            nacked.increment();
+            metrics.nacked.increment();
+            retry(sent, cause);
+        }
+    }
+
+    @Override
+    public void returnedMessage(ReturnedMessage returnedMessage) {
+        // Handled when the confirm for the same correlation arrives, which always comes after the return
+        LOG.debug("Audit event returned by {}: {}", returnedMessage.getExchange(), returnedMessage.getReplyText());
+    }
+
+    /**
+     * Waits a few seconds for events in flight to be confirmed.
+     */
+    @Override
+    public void close() {
+        try {
+            if (!window.tryAcquire(windowSize, 5, TimeUnit.SECONDS)) {
+                LOG.warn("Closing with {} unconfirmed audit events", getInFlight());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        scheduler.shutdownNow();
+        report();
+    }
+
+    private void send(RabbitOperations operations, Event event, String routingKey, int attempt) {
+        window.acquireUninterruptibly();
+        String id = Long.toString(sequence.incrementAndGet());
+        pending.put(id, new Pending(event, routingKey, attempt, System.nanoTime()));
+        try {
+            operations.convertAndSend(AuditLogger.EXCHANGE, routingKey, event, new CorrelationData(id));
+        } catch (RuntimeException e) {
+            pending.remove(id);
+            window.release();
+            throw e;
+        }
+    }
+
+    private void retry(Pending sent, String reason) {
+        if (sent.attempt >= maxRetries) {
+            failed.increment();
+            metrics.failed.increment();
+            LOG.error("Giving up on audit event after {} attempts: {}", sent.attempt + 1, reason);
+            return;
+        }
+        retried.increment();
+        metrics.retried.increment();
+        long delayMs = retryBackoffMs << Math.min(sent.attempt, 10);
+        // Never resend from the confirm callback, the window may be full and the callback thread has to release it
+        scheduler.schedule(() -> {
+            try {
+                send(template, sent.event, sent.routingKey, sent.attempt + 1);
+            } catch (RuntimeException e) {
+                retry(new Pending(sent.event, sent.routingKey, sent.attempt + 1, 0), e.getMessage());
+            }
+        }, delayMs, TimeUnit.MILLISECONDS);
+    }
+
+    private void report() {
+        long acked = confirmed.sumThenReset();
+        long nacks = nacked.sumThenReset();
+        long returns = returned.sumThenReset();
+        long total = acked + nacks + returns;
+        long latency = latencyNanos.sumThenReset();
+        long maxLatency = maxLatencyNanos.getAndSet(0);
+        long retries = retried.sumThenReset();
+        long failures = failed.sumThenReset();
+        if (total == 0 && retries == 0 && failures == 0) {
+            return;
+        }
+        LOG.info("Confirms: {} acked, {} nacked, {} returned, {} retried, {} failed, latency mean {} us max {} us, {} in flight",
+                acked, nacks, returns, retries, failures,
+                total == 0 ? 0 : latency / total / 1000, maxLatency / 1000, getInFlight());
+    }
+
+    private static class Pending {
+        private final Event event;
+        private final String routingKey;
+        private final int attempt;
+        private final long sentAt;
+
+        Pending(Event event, String routingKey, int attempt, long sentAt) {
+            this.event = event;
+            this.routingKey = routingKey;
+            this.attempt = attempt;
+            this.sentAt = sentAt;
+        }
+    }
+}
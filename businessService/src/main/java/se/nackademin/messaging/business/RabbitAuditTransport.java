@@ -0,0 +1,50 @@
+package se.nackademin.messaging.business;
+
+import org.springframework.amqp.rabbit.core.RabbitTemplate;
+
+/**
+ * Publishes audit events to RabbitMQ with a {@link RabbitTemplate}, converted by its message converter.
+ */
+public class RabbitAuditTransport implements AuditTransport {
+    private final RabbitTemplate template;
+    private final PublisherConfirms confirms;
+
+    public RabbitAuditTransport(RabbitTemplate template) {
+        this(template, null);
+    }
+
+    /**
+     * @param confirms tracks publisher confirms for every send, or null to publish without confirms
+     */
+    public RabbitAuditTransport(RabbitTemplate template, PublisherConfirms confirms) {
+        this.template = template;
+        this.confirms = confirms;
+    }
+
+    @Override
+    public void send(String routingKey, Event event) {
+        if (confirms == null) {
+            template.convertAndSend(AuditLogger.EXCHANGE, routingKey, event);
+        } else {
+            confirms.send(template, event, routingKey);
+        }
+    }
+
+    /**
+     * Sends within {@link RabbitTemplate#invoke}, where every operation of the template uses the same channel.
+     */
+    @Override
+    public void batch(Runnable sends) {
+        template.invoke(operations -> {
+            sends.run();
+            return null;
+        });
+    }
+
+    @Override
+    public void close() {
+        if (confirms != null) {
+            confirms.close();
+        }
+    }
+}
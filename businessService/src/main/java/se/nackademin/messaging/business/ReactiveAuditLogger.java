@@ -0,0 +1,229 @@
+package se.nackademin.messaging.business;
+
+import com.rabbitmq.client.AMQP;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.amqp.core.Message;
+import org.springframework.amqp.core.MessageProperties;
+import org.springframework.amqp.rabbit.support.DefaultMessagePropertiesConverter;
+import org.springframework.amqp.rabbit.support.MessagePropertiesConverter;
+import org.springframework.amqp.support.converter.MessageConverter;
+import reactor.core.Disposable;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.Sinks;
+import reactor.rabbitmq.BindingSpecification;
+import reactor.rabbitmq.CorrelableOutboundMessage;
+import reactor.rabbitmq.ExchangeSpecification;
+import reactor.rabbitmq.OutboundMessageResult;
+import reactor.rabbitmq.QueueSpecification;
+import reactor.rabbitmq.SendOptions;
+import reactor.rabbitmq.Sender;
+import reactor.util.retry.Retry;
+
+import java.io.Closeable;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Audit logger for the reactive profile, {@link #notify(Event)} never blocks the calling event loop thread.
+ * <p>
+ * Every request feeds one bounded buffer that a single publisher confirm stream drains, with at most
+ * {@code maxInFlight} unconfirmed events. Requests queue their event and whichever request finds no one else emitting
+ * moves the queued events into the buffer, so concurrent requests never wait for each other. The returned {@link Mono}
+ * completes when the broker confirms the event, so a slow broker slows the HTTP responses down, and once the buffer is
+ * full events are rejected with {@link AuditBufferFullException} instead of queueing without bound. An event whose
+ * request fails or is cancelled before the event left the buffer is dropped from it, so a client that retries does
+ * not log it twice.
+ */
+public class ReactiveAuditLogger implements Closeable {
+    private static final Logger LOG = LoggerFactory.getLogger(ReactiveAuditLogger.class);
+
+    private final Sender sender;
+    private final MessageConverter converter;
+    private final AuditShards shards;
+    private final MessagePropertiesConverter propertiesConverter = new DefaultMessagePropertiesConverter();
+    private final Queue<CorrelableOutboundMessage<Pending>> queued = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger emitting = new AtomicInteger();
+    private final Sinks.Many<CorrelableOutboundMessage<Pending>> outbound;
+    private final int bufferSize;
+    private final int maxInFlight;
+    private final Duration confirmTimeout;
+    private final PublishMetrics metrics;
+    private final CountDownLatch stopped = new CountDownLatch(1);
+    private volatile boolean closed;
+    private Disposable publisher;
+
+    ReactiveAuditLogger(Sender sender, MessageConverter converter, AuditShards shards, int bufferSize, int maxInFlight,
+                        Duration confirmTimeout, PublishMetrics metrics) {
+        this.sender = sender;
+        this.metrics = metrics;
+        this.converter = converter;
+        this.shards = shards;
+        // Not cancelled when the publisher stream fails, so a retry can subscribe again and pick up what is buffered.
+        // Only emitted to from drain(), which is serialized already
+        this.outbound = Sinks.unsafe().many().multicast().onBackpressureBuffer(bufferSize, false);
+        this.bufferSize = bufferSize;
+        this.maxInFlight = maxInFlight;
+        this.confirmTimeout = confirmTimeout;
+    }
+
+    public void start() {
+        publisher = declareTopology()
+                .thenMany(sender.sendWithTypedPublishConfirms(outbound.asFlux().filter(message -> message.getCorrelationMetadata().send()), new SendOptions().maxInFlight(maxInFlight).trackReturned(true)))
+                .retryWhen(Retry.backoff(Long.MAX_VALUE, Duration.ofSeconds(1))
+                        .maxBackoff(Duration.ofSeconds(30))
+                        .doBeforeRetry(signal -> LOG.warn("Audit publisher failed, reconnecting: {}", signal.failure().toString())))
+                .doFinally(signal -> stopped.countDown())
+                .subscribe(this::confirmed);
+    }
+
+    /**
+     * Declares the same exchanges, shard queues and bindings as {@link ApplicationConfiguration} does for the blocking
+     * profile.
+     */
+    private Mono<Void> declareTopology() {
+        Mono<?> topology = sender.declareExchange(ExchangeSpecification.exchange(AuditLogger.EXCHANGE).type("fanout").durable(true));
+        if (shards.count() > 1) {
+            topology = topology
+                    .then(sender.declareExchange(ExchangeSpecification.exchange(AuditShards.EXCHANGE).type("direct").durable(true)))
+                    .then(sender.bindExchange(BindingSpecification.exchangeBinding(AuditLogger.EXCHANGE, "", AuditShards.EXCHANGE)));
+            for (int shard = 0; shard < shards.count(); shard++) {
+                String queue = AuditShards.QUEUE_PREFIX + shard;
+                String routingKey = Integer.toString(shard);
+                topology = topology
+                        .then(sender.declareQueue(QueueSpecification.queue(queue).durable(true).arguments(Map.of("x-single-active-consumer", true))))
+                        .then(sender.bindQueue(BindingSpecification.queueBinding(AuditShards.EXCHANGE, routingKey, queue)));
+            }
+        }
+        return topology.then();
+    }
+
+    /**
+     * Queues the event for publishing.
+     *
+     * @return completes when the broker confirmed the event, fails with {@link AuditBufferFullException} when the
+     * buffer is full and with {@link AuditNotConfirmedException} when the broker did not accept it in time. The event
+     * is then only published if it had already been sent to the broker
+     */
+    public Mono<Void> notify(Event auditEvent) {
+        return Mono.defer(() -> {
+            CorrelableOutboundMessage<Pending> message = toOutbound(auditEvent, new Pending());
+            Pending pending = message.getCorrelationMetadata();
+            queued.offer(message);
+            drain();
+            return pending.confirmation.asMono()
+                    .doOnSuccess(confirmed -> metrics.confirm.record(System.nanoTime() - pending.start, TimeUnit.NANOSECONDS))
+                    .timeout(confirmTimeout, Mono.error(() -> pending.cancel()
+                            ? new AuditNotConfirmedException("Audit event was not sent within " + confirmTimeout + ", it was dropped")
+                            : new AuditNotConfirmedException("Audit event was not confirmed within " + confirmTimeout)))
+                    .doOnCancel(pending::cancel);
+        });
+    }
+
+    /**
+     * Emits the queued events to the buffer, and completes it once closed. Only one thread drains at a time, a thread
+     * that finds another one draining leaves its event to it.
+     */
+    private void drain() {
+        if (emitting.getAndIncrement() != 0) {
+            return;
+        }
+        int missed = 1;
+        do {
+            CorrelableOutboundMessage<Pending> message;
+            while ((message = queued.poll()) != null) {
+                emit(message);
+            }
+            if (closed) {
+                outbound.tryEmitComplete();
+            }
+            missed = emitting.addAndGet(-missed);
+        } while (missed != 0);
+    }
+
+    private void emit(CorrelableOutboundMessage<Pending> message) {
+        Pending pending = message.getCorrelationMetadata();
+        Sinks.EmitResult result = outbound.tryEmitNext(message);
+        if (result == Sinks.EmitResult.FAIL_OVERFLOW) {
+            metrics.dropped.increment();
+            pending.confirmation.tryEmitError(new AuditBufferFullException("Audit buffer of " + bufferSize + " events is full"));
+        } else if (result.isFailure()) {
+            pending.confirmation.tryEmitError(new AuditBufferFullException("Audit publisher is stopped"));
+        } else {
+            metrics.publish.record(System.nanoTime() - pending.start, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    private CorrelableOutboundMessage<Pending> toOutbound(Event auditEvent, Pending pending) {
+        Message message = converter.toMessage(auditEvent, new MessageProperties());
+        AMQP.BasicProperties properties = propertiesConverter.fromMessageProperties(message.getMessageProperties(), StandardCharsets.UTF_8.name());
+        return new CorrelableOutboundMessage<>(AuditLogger.EXCHANGE, shards.routingKey(auditEvent.getAccountId()), properties, message.getBody(), pending);
+    }
+
+    private void confirmed(OutboundMessageResult<CorrelableOutboundMessage<Pending>> result) {
+        Sinks.Empty<Void> confirmation = result.getOutboundMessage().getCorrelationMetadata().confirmation;
+        if (result.isReturned()) {
+            metrics.returned.increment();
+            confirmation.tryEmitError(new AuditNotConfirmedException("Audit event was not routed to any queue"));
+        } else if (!result.isAck()) {
+            metrics.nacked.increment();
+            confirmation.tryEmitError(new AuditNotConfirmedException("Audit event was nacked by the broker"));
+        } else {
+            metrics.acked.increment();
+            confirmation.tryEmitEmpty();
+        }
+    }
+
+    /**
+     * Stops accepting events and waits up to the confirm timeout for the buffered ones to be confirmed.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        drain();
+        try {
+            if (publisher != null && !stopped.await(confirmTimeout.toMillis(), TimeUnit.MILLISECONDS)) {
+                LOG.warn("Audit publisher did not drain within {}", confirmTimeout);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (publisher != null) {
+            publisher.dispose();
+        }
+        sender.close();
+    }
+
+    /**
+     * An event from its request until the broker confirms it. It is either sent or cancelled, whichever comes first.
+     */
+    private static final class Pending {
+        private static final int BUFFERED = 0;
+        private static final int SENT = 1;
+        private static final int CANCELLED = 2;
+
+        private final long start = System.nanoTime();
+        private final Sinks.Empty<Void> confirmation = Sinks.empty();
+        private final AtomicInteger state = new AtomicInteger(BUFFERED);
+
+        /**
+         * @return false if the event was cancelled and must not be published
+         */
+        boolean send() {
+            return state.compareAndSet(BUFFERED, SENT);
+        }
+
+        /**
+         * @return false if the event has already been sent
+         */
+        boolean cancel() {
+            return state.compareAndSet(BUFFERED, CANCELLED);
+        }
+    }
+}
@@ -0,0 +1,34 @@
+package se.nackademin.messaging.business;
+
+import org.springframework.context.annotation.Profile;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+import reactor.core.publisher.Mono;
+
+/**
+ * Same endpoints as {@link BankResource}, answered once the broker confirmed the audit event without holding a thread.
+ */
+@RestController
+@Profile("reactive")
+public class ReactiveBankResource {
+    private final ReactiveAuditLogger auditLogger;
+
+    public ReactiveBankResource(ReactiveAuditLogger auditLogger) {
+        this.auditLogger = auditLogger;
+    }
+
+    @PostMapping("/openAccount/{accountId}")
+    public Mono<ResponseEntity<String>> open(@PathVariable("accountId") long accountId) {
+        return auditLogger.notify(new OpenAccountEvent(accountId))
+                .thenReturn(ResponseEntity.accepted().build());
+    }
+
+    @PostMapping("/deposit/{accountId}")
+    public Mono<ResponseEntity<String>> deposit(@PathVariable("accountId") long accountId, @RequestParam("amount") long amount) {
+        return auditLogger.notify(DepositEvent.build(accountId, amount))
+                .thenReturn(ResponseEntity.accepted().build());
+    }
+}
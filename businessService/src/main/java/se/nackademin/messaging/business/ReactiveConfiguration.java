@@ -0,0 +1,61 @@
+package se.nackademin.messaging.business;
+
+import com.rabbitmq.client.ConnectionFactory;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.amqp.support.converter.Jackson2JsonMessageConverter;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.amqp.RabbitProperties;
+import org.springframework.boot.web.embedded.netty.NettyReactiveWebServerFactory;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Profile;
+import reactor.core.scheduler.Schedulers;
+import reactor.rabbitmq.RabbitFlux;
+import reactor.rabbitmq.Sender;
+import reactor.rabbitmq.SenderOptions;
+
+import java.time.Duration;
+
+/**
+ * Beans of the {@code reactive} profile, which serves {@link ReactiveBankResource} from WebFlux on Netty.
+ */
+@Configuration
+@Profile("reactive")
+public class ReactiveConfiguration {
+
+    /**
+     * Tomcat is on the classpath for the default profile and would otherwise be picked for WebFlux as well.
+     */
+    @Bean
+    public NettyReactiveWebServerFactory reactiveWebServerFactory() {
+        return new NettyReactiveWebServerFactory();
+    }
+
+    @Bean(initMethod = "start", destroyMethod = "close")
+    public ReactiveAuditLogger reactiveAuditLogger(RabbitProperties rabbitProperties, Jackson2JsonMessageConverter converter,
+                                                   @Value("${audit.wire-format}") WireFormat wireFormat,
+                                                   @Value("${audit.shards}") int shards,
+                                                   @Value("${audit.reactive.buffer-size}") int bufferSize,
+                                                   @Value("${audit.reactive.max-in-flight}") int maxInFlight,
+                                                   @Value("${audit.reactive.confirm-timeout-ms}") long confirmTimeoutMs,
+                                                   MeterRegistry meterRegistry) {
+        // The connection is opened and recovered on boundedElastic, never on the event loop
+        Sender sender = RabbitFlux.createSender(new SenderOptions()
+                .connectionFactory(connectionFactory(rabbitProperties))
+                .resourceManagementScheduler(Schedulers.boundedElastic()));
+        return new ReactiveAuditLogger(sender, ApplicationConfiguration.messageConverter(wireFormat, converter),
+                new AuditShards(shards), bufferSize, maxInFlight, Duration.ofMillis(confirmTimeoutMs), new PublishMetrics(meterRegistry));
+    }
+
+    private static ConnectionFactory connectionFactory(RabbitProperties properties) {
+        ConnectionFactory connectionFactory = new ConnectionFactory();
+        connectionFactory.setHost(properties.determineHost());
+        connectionFactory.setPort(properties.determinePort());
+        connectionFactory.setUsername(properties.determineUsername());
+        connectionFactory.setPassword(properties.determinePassword());
+        if (properties.determineVirtualHost() != null) {
+            connectionFactory.setVirtualHost(properties.determineVirtualHost());
+        }
+        return connectionFactory;
+    }
+}
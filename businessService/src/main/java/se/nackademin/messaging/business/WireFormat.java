@@ -0,0 +1,9 @@
+package se.nackademin.messaging.business;
+
+/**
+ * How audit events are written to the exchange, the audit service reads both.
+ */
+public enum WireFormat {
+    JSON,
+    BINARY
+}
@@ -0,0 +1,77 @@
+package se.nackademin.messaging.business;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.amqp.rabbit.core.RabbitOperations;
+import org.springframework.amqp.rabbit.core.RabbitTemplate;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+class AsyncAuditLoggerTest {
+
+    @Test
+    void publishesBufferedEventsOnOneChannel() {
+        RabbitTemplate template = mock(RabbitTemplate.class);
+        AtomicInteger batches = new AtomicInteger();
+        AtomicBoolean inBatch = new AtomicBoolean();
+        AtomicInteger sentInBatch = new AtomicInteger();
+        when(template.invoke(any())).thenAnswer(invocation -> {
+            // The template passes itself, its operations use the channel bound for the callback
+            batches.incrementAndGet();
+            inBatch.set(true);
+            try {
+                return invocation.<RabbitOperations.OperationsCallback<?>>getArgument(0).doInRabbit(template);
+            } finally {
+                inBatch.set(false);
+            }
+        });
+        doAnswer(invocation -> inBatch.get() ? sentInBatch.incrementAndGet() : 0)
+                .when(template).convertAndSend(eq("exchange"), eq(""), any(Event.class));
+
+        AsyncAuditLogger auditLogger = new AsyncAuditLogger(new RabbitAuditTransport(template), 16, 8, AsyncAuditLogger.OverflowPolicy.BLOCK);
+        auditLogger.start();
+        for (int i = 0; i < 100; i++) {
+            auditLogger.notify(new OpenAccountEvent(i));
+        }
+        auditLogger.close();
+
+        assertEquals(100, sentInBatch.get());
+        assertTrue(batches.get() >= 100 / 8 && batches.get() <= 100, "Sent in batches of at most 8");
+    }
+
+    @Test
+    void dropsOrFailsWhenBufferIsFull() throws Exception {
+        RabbitTemplate template = mock(RabbitTemplate.class);
+        CountDownLatch release = new CountDownLatch(1);
+        CountDownLatch sending = new CountDownLatch(1);
+        when(template.invoke(any())).thenAnswer(invocation -> {
+            sending.countDown();
+            release.await();
+            return null;
+        });
+
+        AsyncAuditLogger dropping = new AsyncAuditLogger(new RabbitAuditTransport(template), 2, 1, AsyncAuditLogger.OverflowPolicy.DROP);
+        dropping.start();
+        dropping.notify(new OpenAccountEvent(1));
+        assertTrue(sending.await(5, TimeUnit.SECONDS));
+        for (int i = 0; i < 5; i++) {
+            dropping.notify(new OpenAccountEvent(i));
+        }
+        assertEquals(3, dropping.getDropped());
+
+        AsyncAuditLogger failing = new AsyncAuditLogger(new RabbitAuditTransport(template), 2, 1, AsyncAuditLogger.OverflowPolicy.FAIL);
+        failing.notify(new OpenAccountEvent(1));
+        failing.notify(new OpenAccountEvent(2));
+        assertThrows(AuditBufferFullException.class, () -> failing.notify(new OpenAccountEvent(3)));
+
+        release.countDown();
+        dropping.close();
+    }
+}
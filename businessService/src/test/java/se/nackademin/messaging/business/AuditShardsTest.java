@@ -0,0 +1,36 @@
+package se.nackademin.messaging.business;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class AuditShardsTest {
+
+    @Test
+    void spreadsAccountsEvenlyOverTheShards() {
+        AuditShards shards = new AuditShards(8);
+        int[] counts = new int[8];
+        for (long accountId = 0; accountId < 80_000; accountId++) {
+            counts[Integer.parseInt(shards.routingKey(accountId))]++;
+        }
+        for (int count : counts) {
+            assertEquals(10_000, count, 600);
+        }
+        assertEquals("", AuditShards.SINGLE.routingKey(42));
+        assertSame(shards.routingKey(42), shards.routingKey(42));
+    }
+
+    @Test
+    void addingAShardOnlyMovesAccountsToTheNewShard() {
+        int moved = 0;
+        for (long accountId = 0; accountId < 10_000; accountId++) {
+            int before = AuditShards.shard(accountId, 4);
+            int after = AuditShards.shard(accountId, 5);
+            if (before != after) {
+                assertEquals(4, after);
+                moved++;
+            }
+        }
+        assertEquals(2_000, moved, 200);
+    }
+}
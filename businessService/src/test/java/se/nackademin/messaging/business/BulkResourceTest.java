@@ -0,0 +1,89 @@
+package se.nackademin.messaging.business;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.amqp.AmqpConnectException;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doNothing;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+class BulkResourceTest {
+
+    @Test
+    void publishesValidLinesInBatchesAndReportsTheRest() throws Exception {
+        AuditLogger auditLogger = mock(AuditLogger.class);
+        List<List<Event>> batches = new ArrayList<>();
+        doAnswer(invocation -> batches.add(new ArrayList<>(invocation.getArgument(0)))).when(auditLogger).notifyBatch(anyList());
+        BulkResource resource = new BulkResource(auditLogger, 2, 2);
+
+        BulkResult result = resource.bulk(body(
+                "{\"type\":\"OPEN_ACCOUNT\",\"accountId\":1}",
+                "{\"type\":\"DEPOSIT\",\"accountId\":1,\"amount\":100}",
+                "",
+                "{\"type\":\"DEPOSIT\",\"accountId\":1}",
+                "{\"type\":\"WITHDRAWAL\",\"accountId\":1,\"amount\":5}",
+                "not json",
+                "{\"type\":\"DEPOSIT\",\"accountId\":2,\"amount\":7,\"note\":{\"ignored\":true}}"));
+
+        assertEquals(3, result.getAccepted());
+        assertEquals(3, result.getRejected());
+        assertEquals(2, result.getRejections().size());
+        assertEquals(4, result.getRejections().get(0).getLine());
+        assertEquals("Missing amount", result.getRejections().get(0).getReason());
+        assertEquals(5, result.getRejections().get(1).getLine());
+
+        assertEquals(2, batches.size());
+        assertEquals(2, batches.get(0).size());
+        DepositEvent last = (DepositEvent) batches.get(1).get(0);
+        assertEquals(2, last.getAccountId());
+        assertEquals(7, last.getAmount());
+    }
+
+    @Test
+    void stopsAtTheBatchThatCannotBePublished() throws Exception {
+        AuditLogger auditLogger = mock(AuditLogger.class);
+        doNothing().doThrow(new AmqpConnectException(new IOException("Connection refused"))).when(auditLogger).notifyBatch(anyList());
+        BulkResource resource = new BulkResource(auditLogger, 2, 2);
+
+        BulkResult result = resource.bulk(body(
+                "{\"type\":\"OPEN_ACCOUNT\",\"accountId\":1}",
+                "{\"type\":\"DEPOSIT\",\"accountId\":1,\"amount\":100}",
+                "{\"type\":\"DEPOSIT\",\"accountId\":1,\"amount\":5}",
+                "not json",
+                "{\"type\":\"DEPOSIT\",\"accountId\":1,\"amount\":6}",
+                "{\"type\":\"DEPOSIT\",\"accountId\":1,\"amount\":7}",
+                "not json either"));
+
+        assertEquals(2, result.getAccepted());
+        assertEquals(1, result.getRejected());
+        assertEquals(3, result.getFailure().getFirstLine());
+        assertEquals(5, result.getFailure().getLastLine());
+        assertEquals(2, result.getFailure().getEvents());
+        assertTrue(result.getFailure().getReason().contains("Connection refused"));
+        verify(auditLogger, times(2)).notifyBatch(anyList());
+    }
+
+    @Test
+    void rejectsValuesOutsideTheLongRange() {
+        BulkResource resource = new BulkResource(mock(AuditLogger.class), 10, 10);
+
+        assertThrows(IllegalArgumentException.class, () -> resource.parse("{\"type\":\"DEPOSIT\",\"accountId\":1,\"amount\":1e3}"));
+        assertThrows(IllegalArgumentException.class, () -> resource.parse("{\"type\":\"DEPOSIT\",\"accountId\":99999999999999999999,\"amount\":1}"));
+        assertThrows(IllegalArgumentException.class, () -> resource.parse("{\"type\":\"OPEN_ACCOUNT\",\"accountId\":1} {}"));
+    }
+
+    private static InputStream body(String... lines) {
+        return new ByteArrayInputStream(String.join("\n", lines).getBytes(StandardCharsets.UTF_8));
+    }
+}
@@ -0,0 +1,79 @@
+package se.nackademin.messaging.business;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+import org.springframework.amqp.core.Message;
+import org.springframework.amqp.core.MessageProperties;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class EventBinaryConverterTest {
+
+    @Test
+    void writesFixedLayout() {
+        DepositEvent event = DepositEvent.build(1234, 100);
+        Message message = new EventBinaryConverter().toMessage(event, new MessageProperties());
+
+        ByteBuffer body = ByteBuffer.wrap(message.getBody());
+        assertEquals(EventBinaryConverter.CONTENT_TYPE, message.getMessageProperties().getContentType());
+        assertEquals(EventBinaryConverter.DEPOSIT | EventBinaryConverter.HAS_ID, body.get());
+        assertEquals(event.getId(), new UUID(body.getLong(), body.getLong()).toString());
+        assertEquals(1234, body.getLong());
+        assertTrue(body.getLong() > 0);
+        int length = body.getInt();
+        assertEquals(length, body.remaining());
+        assertEquals("Deposit amount of 100", StandardCharsets.UTF_8.decode(body).toString());
+    }
+
+    @ParameterizedTest
+    @ValueSource(longs = {0, 7, 100, -42, Long.MAX_VALUE, Long.MIN_VALUE})
+    void writesSameDataAsJson(long amount) {
+        DepositEvent event = DepositEvent.build(1, amount);
+        ByteBuffer buffer = ByteBuffer.allocate(128);
+
+        EventBinaryConverter.write(event, buffer);
+
+        buffer.flip().position(33);
+        int length = buffer.getInt();
+        assertEquals(length, buffer.remaining());
+        assertEquals(event.getData(), StandardCharsets.UTF_8.decode(buffer).toString());
+    }
+
+    @Test
+    void keepsJsonFormat() throws Exception {
+        ObjectMapper objectMapper = new ObjectMapper().disable(SerializationFeature.WRITE_DATES_AS_TIMESTAMPS);
+        objectMapper.registerModule(new JavaTimeModule());
+
+        JsonNode json = objectMapper.readTree(objectMapper.writeValueAsString(DepositEvent.build(1234, 100)));
+
+        assertEquals("DEPOSIT", json.get("type").asText());
+        assertEquals(1234, json.get("accountId").asLong());
+        assertEquals("Deposit amount of 100", json.get("data").asText());
+        assertTrue(Instant.parse(json.get("timestamp").asText()).isAfter(Instant.now().minusSeconds(10)));
+        assertEquals(7, UUID.fromString(json.get("id").asText()).version());
+        assertEquals(5, json.size());
+    }
+
+    @Test
+    void idsAreUniqueAndOrderedByCreationTime() {
+        Event first = new OpenAccountEvent(1);
+        Event second = new OpenAccountEvent(1);
+
+        assertNotEquals(first.getId(), second.getId());
+        assertEquals(Math.floorDiv(first.getEpochNanos(), 1_000_000L), first.getIdHigh() >>> 16);
+        assertEquals(2, UUID.fromString(first.getId()).variant());
+        long millis = System.currentTimeMillis();
+        assertTrue(Long.compareUnsigned(EventIds.high(millis) | 0xfff, EventIds.high(millis + 1) & ~0xfffL) < 0);
+    }
+}
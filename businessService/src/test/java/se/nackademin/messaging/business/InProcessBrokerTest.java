@@ -0,0 +1,82 @@
+package se.nackademin.messaging.business;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.amqp.core.Message;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class InProcessBrokerTest {
+
+    @Test
+    void routesEventsOfAnAccountToItsShardQueueInOrder() throws Exception {
+        AuditShards shards = new AuditShards(4);
+        List<BlockingQueue<Message>> received = new ArrayList<>();
+        try (InProcessBroker broker = InProcessBroker.forAudit(4, 64)) {
+            for (int shard = 0; shard < 4; shard++) {
+                BlockingQueue<Message> queue = new LinkedBlockingQueue<>();
+                received.add(queue);
+                broker.consume(shards.queue(shard), 8, (name, messages) -> queue.addAll(messages));
+            }
+            AuditLogger auditLogger = new AuditLogger(new InProcessAuditTransport(broker, new EventBinaryConverter()), shards, PublishMetrics.NONE);
+            for (int i = 0; i < 100; i++) {
+                auditLogger.notify(DepositEvent.build(7, i));
+            }
+
+            BlockingQueue<Message> queue = received.get(AuditShards.shard(7, 4));
+            for (int i = 0; i < 100; i++) {
+                Message message = queue.poll(5, TimeUnit.SECONDS);
+                assertNotNull(message);
+                assertEquals(shards.routingKey(7), message.getMessageProperties().getReceivedRoutingKey());
+                assertTrue(new String(message.getBody()).endsWith("Deposit amount of " + i));
+            }
+            assertEquals(100, broker.getPublished());
+            assertEquals(0, broker.getUnroutable());
+        }
+    }
+
+    @Test
+    void redeliversTheBatchWhenTheListenerFails() throws Exception {
+        BlockingQueue<Message> received = new LinkedBlockingQueue<>();
+        AtomicBoolean failed = new AtomicBoolean();
+        try (InProcessBroker broker = InProcessBroker.forAudit(1, 16)) {
+            broker.consume("audit-log", 4, (name, messages) -> {
+                if (failed.compareAndSet(false, true)) {
+                    throw new IllegalStateException("Store failed");
+                }
+                received.addAll(messages);
+            });
+            AuditLogger auditLogger = new AuditLogger(new InProcessAuditTransport(broker, new EventBinaryConverter()));
+            auditLogger.notify(new OpenAccountEvent(1));
+
+            Message message = received.poll(5, TimeUnit.SECONDS);
+            assertNotNull(message);
+            assertTrue(message.getMessageProperties().isRedelivered());
+            assertEquals(1, broker.getRedelivered());
+        }
+    }
+
+    @Test
+    void copiesMessagesForEveryFanoutQueueAndDropsUnroutableOnes() {
+        try (InProcessBroker broker = new InProcessBroker()) {
+            broker.declareQueue("a", 4);
+            broker.declareQueue("b", 4);
+            broker.bind("exchange", null, "a");
+            broker.bind("exchange", null, "b");
+
+            broker.send("exchange", "", new Message(new byte[]{1}));
+            broker.send("other", "", new Message(new byte[]{2}));
+
+            assertEquals(1, broker.getDepth("a"));
+            assertEquals(1, broker.getDepth("b"));
+            assertEquals(2, broker.getPublished());
+            assertEquals(1, broker.getUnroutable());
+        }
+    }
+}
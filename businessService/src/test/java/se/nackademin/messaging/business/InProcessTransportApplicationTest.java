@@ -0,0 +1,40 @@
+package se.nackademin.messaging.business;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.amqp.core.Message;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.request.MockMvcRequestBuilders;
+
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+@SpringBootTest(properties = {"audit.transport=in-process", "audit.in-process.queue-capacity=16"})
+@AutoConfigureMockMvc
+class InProcessTransportApplicationTest {
+
+    @Autowired
+    InProcessBroker broker;
+
+    @Autowired
+    MockMvc mockMvc;
+
+    @Test
+    void publishesToTheBrokerInThisJvm() throws Exception {
+        BlockingQueue<Message> received = new LinkedBlockingQueue<>();
+        broker.consume("audit-log", 8, (queue, messages) -> received.addAll(messages));
+
+        mockMvc.perform(MockMvcRequestBuilders.post("/openAccount/1234")).andExpect(status().is2xxSuccessful());
+
+        Message message = received.poll(5, TimeUnit.SECONDS);
+        assertNotNull(message);
+        assertTrue(new String(message.getBody()).contains("OPEN_ACCOUNT"));
+        assertEquals(1, broker.getPublished());
+    }
+}
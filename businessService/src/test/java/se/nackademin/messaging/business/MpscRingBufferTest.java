@@ -0,0 +1,70 @@
+package se.nackademin.messaging.business;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class MpscRingBufferTest {
+
+    @Test
+    void rejectsOfferWhenFull() {
+        MpscRingBuffer<Integer> buffer = new MpscRingBuffer<>(4);
+        for (int i = 0; i < 4; i++) {
+            assertTrue(buffer.offer(i));
+        }
+        assertFalse(buffer.offer(4));
+
+        List<Integer> drained = new ArrayList<>();
+        assertEquals(2, buffer.drainTo(drained, 2));
+        assertTrue(buffer.offer(4));
+        buffer.drainTo(drained, 10);
+
+        assertEquals(List.of(0, 1, 2, 3, 4), drained);
+    }
+
+    @Test
+    void deliversEveryElementFromConcurrentProducers() throws Exception {
+        MpscRingBuffer<Long> buffer = new MpscRingBuffer<>(64);
+        int producers = 4;
+        int perProducer = 20_000;
+        ExecutorService executor = Executors.newFixedThreadPool(producers);
+        List<Future<?>> futures = new ArrayList<>();
+        for (int p = 0; p < producers; p++) {
+            long producer = p;
+            futures.add(executor.submit(() -> {
+                for (long i = 0; i < perProducer; i++) {
+                    while (!buffer.offer(producer << 32 | i)) {
+                        Thread.yield();
+                    }
+                }
+            }));
+        }
+
+        long[] next = new long[producers];
+        List<Long> batch = new ArrayList<>();
+        int received = 0;
+        while (received < producers * perProducer) {
+            batch.clear();
+            int drained = buffer.drainTo(batch, 16);
+            if (drained == 0) {
+                Thread.yield();
+            }
+            received += drained;
+            for (long value : batch) {
+                int producer = (int) (value >>> 32);
+                assertEquals(next[producer]++, value & 0xFFFFFFFFL);
+            }
+        }
+        for (Future<?> future : futures) {
+            future.get();
+        }
+        executor.shutdown();
+        assertEquals(0, buffer.size());
+    }
+}
@@ -0,0 +1,68 @@
+package se.nackademin.messaging.business;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.amqp.rabbit.connection.CorrelationData;
+import org.springframework.amqp.rabbit.core.RabbitTemplate;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+class PublisherConfirmsTest {
+
+    @Test
+    void releasesWindowOnConfirmAndRetriesNacks() throws Exception {
+        RabbitTemplate template = mock(RabbitTemplate.class);
+        List<CorrelationData> sent = new CopyOnWriteArrayList<>();
+        doAnswer(invocation -> sent.add(invocation.getArgument(3)))
+                .when(template).convertAndSend(eq("exchange"), eq(""), any(Object.class), any(CorrelationData.class));
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        PublisherConfirms confirms = new PublisherConfirms(template, 2, 1, Duration.ofMillis(200), Duration.ofMinutes(1), new PublishMetrics(registry));
+
+        confirms.send(template, new OpenAccountEvent(1), "");
+        confirms.send(template, new OpenAccountEvent(2), "");
+        assertEquals(2, confirms.getInFlight());
+
+        confirms.confirm(sent.get(0), true, null);
+        confirms.confirm(sent.get(1), false, "nack");
+        assertEquals(0, confirms.getInFlight());
+
+        long deadline = System.currentTimeMillis() + 5000;
+        while (sent.size() < 3 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(5);
+        }
+        assertEquals(3, sent.size());
+        assertEquals(1, confirms.getInFlight());
+
+        // Out of retries, the event is given up and the window released
+        confirms.confirm(sent.get(2), false, "nack");
+        Thread.sleep(300);
+        assertEquals(3, sent.size());
+        assertEquals(0, confirms.getInFlight());
+        confirms.close();
+
+        assertEquals(3, registry.get("audit.publish.confirm").timer().count());
+        assertEquals(1, registry.get("audit.publish.confirms").tag("outcome", "acked").counter().count());
+        assertEquals(2, registry.get("audit.publish.confirms").tag("outcome", "nacked").counter().count());
+        assertEquals(1, registry.get("audit.publish.retries").counter().count());
+        assertEquals(1, registry.get("audit.publish.failures").counter().count());
+    }
+
+    @Test
+    void releasesWindowWhenSendFails() {
+        RabbitTemplate template = mock(RabbitTemplate.class);
+        doThrow(new IllegalStateException("broker down"))
+                .when(template).convertAndSend(eq("exchange"), eq(""), any(Object.class), any(CorrelationData.class));
+        PublisherConfirms confirms = new PublisherConfirms(template, 1, 0, Duration.ofMillis(1), Duration.ofMinutes(1));
+
+        assertThrows(IllegalStateException.class, () -> confirms.send(template, new OpenAccountEvent(1), ""));
+        assertEquals(0, confirms.getInFlight());
+        confirms.close();
+    }
+}
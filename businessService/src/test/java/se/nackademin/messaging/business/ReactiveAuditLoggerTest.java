@@ -0,0 +1,133 @@
+package se.nackademin.messaging.business;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.amqp.support.converter.Jackson2JsonMessageConverter;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.rabbitmq.OutboundMessage;
+import reactor.rabbitmq.OutboundMessageResult;
+import reactor.rabbitmq.Sender;
+import reactor.test.StepVerifier;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class ReactiveAuditLoggerTest {
+    private final Jackson2JsonMessageConverter converter = new Jackson2JsonMessageConverter(new ObjectMapper().registerModule(new JavaTimeModule()));
+    private final List<ReactiveAuditLogger> started = new ArrayList<>();
+
+    @AfterEach
+    void close() {
+        started.forEach(ReactiveAuditLogger::close);
+    }
+
+    @Test
+    void completesWhenTheBrokerConfirms() {
+        List<OutboundMessage> sent = new CopyOnWriteArrayList<>();
+        ReactiveAuditLogger auditLogger = start(sender(messages -> messages.doOnNext(sent::add).map(m -> new OutboundMessageResult<>(m, true))), 16);
+
+        StepVerifier.create(auditLogger.notify(DepositEvent.build(42, 100))).verifyComplete();
+
+        assertEquals(1, sent.size());
+        assertEquals("exchange", sent.get(0).getExchange());
+        assertEquals("application/json", sent.get(0).getProperties().getContentType());
+        assertTrue(new String(sent.get(0).getBody(), StandardCharsets.UTF_8).contains("\"accountId\":42"));
+    }
+
+    @Test
+    void failsWhenTheBrokerNacksOrReturns() {
+        ReactiveAuditLogger nacking = start(sender(messages -> messages.map(m -> new OutboundMessageResult<>(m, false))), 16);
+        StepVerifier.create(nacking.notify(new OpenAccountEvent(1))).verifyError(AuditNotConfirmedException.class);
+
+        ReactiveAuditLogger returning = start(sender(messages -> messages.map(m -> new OutboundMessageResult<>(m, true, true))), 16);
+        StepVerifier.create(returning.notify(new OpenAccountEvent(1))).verifyError(AuditNotConfirmedException.class);
+    }
+
+    @Test
+    void confirmsEventsFromConcurrentRequests() throws Exception {
+        List<OutboundMessage> sent = new CopyOnWriteArrayList<>();
+        ReactiveAuditLogger auditLogger = start(sender(messages -> messages.doOnNext(sent::add).map(m -> new OutboundMessageResult<>(m, true))), 4096);
+        ExecutorService requests = Executors.newFixedThreadPool(8);
+
+        List<Future<?>> done = new ArrayList<>();
+        for (int thread = 0; thread < 8; thread++) {
+            done.add(requests.submit(() -> {
+                for (int i = 0; i < 500; i++) {
+                    auditLogger.notify(new OpenAccountEvent(i)).block(Duration.ofSeconds(5));
+                }
+            }));
+        }
+        for (Future<?> request : done) {
+            request.get(30, TimeUnit.SECONDS);
+        }
+        requests.shutdown();
+
+        assertEquals(4000, sent.size());
+    }
+
+    @Test
+    void rejectsEventsWhenTheBufferIsFull() {
+        ReactiveAuditLogger auditLogger = start(sender(messages -> Flux.never()), 8);
+
+        for (int i = 0; i < 8; i++) {
+            // They time out, the broker never takes them
+            auditLogger.notify(new OpenAccountEvent(i)).subscribe(confirmed -> {
+            }, error -> assertTrue(error instanceof AuditNotConfirmedException));
+        }
+
+        StepVerifier.create(auditLogger.notify(new OpenAccountEvent(9))).verifyError(AuditBufferFullException.class);
+    }
+
+    @Test
+    void dropsAnEventThatTimedOutInTheBuffer() {
+        List<OutboundMessage> sent = new CopyOnWriteArrayList<>();
+        ReactiveAuditLogger auditLogger = start(sender(messages -> messages.delaySubscription(Duration.ofMillis(400))
+                .doOnNext(sent::add)
+                .map(m -> new OutboundMessageResult<>(m, true))), 16);
+
+        StepVerifier.create(auditLogger.notify(new OpenAccountEvent(1))).verifyError(AuditNotConfirmedException.class);
+        StepVerifier.create(Mono.delay(Duration.ofMillis(300)).then(auditLogger.notify(new OpenAccountEvent(2)))).verifyComplete();
+
+        assertEquals(1, sent.size());
+        assertTrue(new String(sent.get(0).getBody(), StandardCharsets.UTF_8).contains("\"accountId\":2"));
+    }
+
+    @Test
+    void timesOutWhenNoConfirmArrives() {
+        ReactiveAuditLogger auditLogger = start(sender(messages -> messages.thenMany(Flux.never())), 16);
+
+        StepVerifier.create(auditLogger.notify(new OpenAccountEvent(1))).verifyError(AuditNotConfirmedException.class);
+    }
+
+    private ReactiveAuditLogger start(Sender sender, int bufferSize) {
+        ReactiveAuditLogger auditLogger = new ReactiveAuditLogger(sender, converter, AuditShards.SINGLE, bufferSize, 8, Duration.ofMillis(200), PublishMetrics.NONE);
+        auditLogger.start();
+        started.add(auditLogger);
+        return auditLogger;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Sender sender(Function<Flux<OutboundMessage>, Flux<OutboundMessageResult<OutboundMessage>>> broker) {
+        Sender sender = mock(Sender.class);
+        when(sender.declareExchange(any())).thenReturn(Mono.empty());
+        when(sender.sendWithTypedPublishConfirms(any(), any())).thenAnswer(invocation ->
+                broker.apply(Flux.from(invocation.getArgument(0))));
+        return sender;
+    }
+}
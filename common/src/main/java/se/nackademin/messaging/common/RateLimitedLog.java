@@ -0,0 +1,35 @@
+package se.nackademin.messaging.common;
+
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counts what a hot path would otherwise log once per event, and says when a summary is due, at most once per
+ * interval. Counting is a {@link LongAdder} increment and a clock read, without locks.
+ */
+public final class RateLimitedLog {
+    private final long intervalNanos;
+    private final LongAdder count = new LongAdder();
+    private final AtomicLong nextReport;
+
+    public RateLimitedLog(Duration interval) {
+        this.intervalNanos = interval.toNanos();
+        this.nextReport = new AtomicLong(System.nanoTime() + intervalNanos);
+    }
+
+    /**
+     * Counts {@code events} more.
+     *
+     * @return the events counted since the last summary when one is due now, otherwise 0
+     */
+    public long add(long events) {
+        count.add(events);
+        long now = System.nanoTime();
+        long next = nextReport.get();
+        if (now - next < 0 || !nextReport.compareAndSet(next, now + intervalNanos)) {
+            return 0;
+        }
+        return count.sumThenReset();
+    }
+}
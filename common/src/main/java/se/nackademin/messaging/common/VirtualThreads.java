@@ -0,0 +1,30 @@
+package se.nackademin.messaging.common;
+
+import java.lang.reflect.Method;
+import java.util.Optional;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Creates executors that start a virtual thread per task. The services are built for Java 11, so the Java 21 API is
+ * looked up at runtime and nothing is returned on older runtimes.
+ */
+public final class VirtualThreads {
+
+    private VirtualThreads() {
+    }
+
+    public static Optional<ExecutorService> newExecutor(String namePrefix) {
+        try {
+            Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+            Class<?> builderType = Class.forName("java.lang.Thread$Builder");
+            builder = builderType.getMethod("name", String.class, long.class).invoke(builder, namePrefix, 0L);
+            ThreadFactory factory = (ThreadFactory) builderType.getMethod("factory").invoke(builder);
+            Method newThreadPerTaskExecutor = Executors.class.getMethod("newThreadPerTaskExecutor", ThreadFactory.class);
+            return Optional.of((ExecutorService) newThreadPerTaskExecutor.invoke(null, factory));
+        } catch (ReflectiveOperationException e) {
+            return Optional.empty();
+        }
+    }
+}
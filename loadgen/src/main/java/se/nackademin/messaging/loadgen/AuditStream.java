@@ -0,0 +1,82 @@
+package se.nackademin.messaging.loadgen;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.stream.Stream;
+
+/**
+ * Follows {@code GET /audit/stream} and reports every new audit entry with the {@link System#nanoTime()} it arrived at.
+ * The audit service checks for new entries every {@code audit.stream.poll-interval-ms}, which is part of the lag seen
+ * here.
+ */
+class AuditStream implements Closeable {
+    interface Listener {
+        void onEntry(String type, long accountId, String data, long arrivedNanos);
+    }
+
+    private static final String DATA = "data:";
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final Listener listener;
+    private Stream<String> lines;
+    private Thread reader;
+
+    AuditStream(Listener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * Returns once the audit service has accepted the subscription, entries stored from then on are reported.
+     */
+    void open(HttpClient client, URI audit, Duration timeout) throws IOException, InterruptedException {
+        HttpRequest request = HttpRequest.newBuilder(audit.resolve("/audit/stream"))
+                .header("Accept", "text/event-stream")
+                .timeout(timeout)
+                .build();
+        HttpResponse<Stream<String>> response = client.send(request, HttpResponse.BodyHandlers.ofLines());
+        if (response.statusCode() != 200) {
+            response.body().close();
+            throw new IOException("GET " + request.uri() + " answered " + response.statusCode());
+        }
+        lines = response.body();
+        reader = new Thread(this::read, "audit-stream");
+        reader.setDaemon(true);
+        reader.start();
+    }
+
+    @Override
+    public void close() {
+        if (lines != null) {
+            lines.close();
+        }
+    }
+
+    private void read() {
+        try {
+            lines.forEach(line -> onLine(line, System.nanoTime()));
+        } catch (UncheckedIOException e) {
+            // Closed
+        }
+    }
+
+    void onLine(String line, long arrivedNanos) {
+        if (!line.startsWith(DATA)) {
+            return;
+        }
+        try {
+            JsonNode entry = objectMapper.readTree(line.substring(DATA.length()));
+            listener.onEntry(entry.path("type").asText(), entry.path("accountId").asLong(), entry.path("data").asText(), arrivedNanos);
+        } catch (IOException e) {
+            System.err.println("Skipping unreadable audit entry " + line);
+        }
+    }
+}
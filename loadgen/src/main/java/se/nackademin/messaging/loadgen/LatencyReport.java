@@ -0,0 +1,42 @@
+package se.nackademin.messaging.loadgen;
+
+import org.HdrHistogram.Histogram;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Turns a histogram of microseconds into the JSON the report holds: count, mean, percentiles and max in milliseconds,
+ * plus the whole histogram compressed and base64 encoded, which HdrHistogram tools can decode to compare or merge runs.
+ */
+final class LatencyReport {
+    private static final double[] PERCENTILES = {50, 90, 99, 99.9, 99.99};
+
+    private LatencyReport() {
+    }
+
+    static Map<String, Object> of(Histogram micros) {
+        Map<String, Object> report = new LinkedHashMap<>();
+        report.put("count", micros.getTotalCount());
+        report.put("meanMs", micros.getMean() / 1000);
+        for (double percentile : PERCENTILES) {
+            report.put("p" + format(percentile) + "Ms", micros.getValueAtPercentile(percentile) / 1000.0);
+        }
+        report.put("maxMs", micros.getMaxValue() / 1000.0);
+        report.put("histogram", encode(micros));
+        return report;
+    }
+
+    static String encode(Histogram histogram) {
+        ByteBuffer buffer = ByteBuffer.allocate(histogram.getNeededByteBufferCapacity());
+        int length = histogram.encodeIntoCompressedByteBuffer(buffer);
+        return Base64.getEncoder().encodeToString(Arrays.copyOf(buffer.array(), length));
+    }
+
+    private static String format(double percentile) {
+        return percentile == Math.rint(percentile) ? Long.toString((long) percentile) : Double.toString(percentile).replace(".", "_");
+    }
+}
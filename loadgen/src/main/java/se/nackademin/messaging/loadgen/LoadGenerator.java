@@ -0,0 +1,217 @@
+package se.nackademin.messaging.loadgen;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.HdrHistogram.ConcurrentHistogram;
+import org.HdrHistogram.Histogram;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.SplittableRandom;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Sends {@code /openAccount} and {@code /deposit} requests to the business service at a fixed rate and waits for each
+ * event to show up on the audit service's stream.
+ * <p>
+ * The load is open loop: request n is due at {@code start + n / rate} no matter how long earlier ones take, and its
+ * response time and audit visibility are measured from when it was due, not from when it could be sent. A stalled
+ * server therefore shows up as the latency its callers would have seen instead of as fewer, faster samples, which is
+ * the coordinated omission correction. The service time, measured from the actual send, is reported next to it.
+ * <p>
+ * Every request is recognisable in the audit log: account ids start at a base unique to the run, an account opened by
+ * request n has id {@code base + accounts + n} and a deposit sent by request n has amount n.
+ */
+public final class LoadGenerator {
+    private static final String DEPOSIT_PREFIX = "Deposit amount of ";
+    private static final long START_DELAY_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+    private static final long VISIBILITY_POLL_MILLIS = 10;
+
+    private final LoadOptions options;
+    private final HttpClient client;
+    private final int total;
+    private final int warmupCount;
+    private final long accountBase;
+    private final SplittableRandom random = new SplittableRandom();
+    /** System.nanoTime() each request was due at */
+    private final AtomicLongArray due;
+    private final AtomicIntegerArray visible;
+    private final Histogram serviceTime = new ConcurrentHistogram(3);
+    private final Histogram responseTime = new ConcurrentHistogram(3);
+    private final Histogram visibility = new ConcurrentHistogram(3);
+    private final LongAdder accepted = new LongAdder();
+    private final LongAdder failed = new LongAdder();
+    private final LongAdder visibleRecorded = new LongAdder();
+    private final Map<String, LongAdder> errors = new ConcurrentHashMap<>();
+
+    LoadGenerator(LoadOptions options, long accountBase) {
+        this.options = options;
+        this.client = HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_1_1)
+                .connectTimeout(Duration.ofSeconds(5))
+                .build();
+        long warmup = Math.round(options.warmup.toNanos() * options.rate / 1e9);
+        long count = warmup + Math.round(options.duration.toNanos() * options.rate / 1e9);
+        if (count > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("At most " + Integer.MAX_VALUE + " requests per run");
+        }
+        this.total = (int) count;
+        this.warmupCount = (int) warmup;
+        this.accountBase = accountBase;
+        this.due = new AtomicLongArray(total);
+        this.visible = new AtomicIntegerArray(total);
+    }
+
+    public static void main(String[] args) throws Exception {
+        LoadOptions options;
+        try {
+            options = LoadOptions.parse(args);
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            System.err.println(LoadOptions.USAGE);
+            System.exit(2);
+            return;
+        }
+        // Millisecond clock times a thousand stays clear of ids from earlier runs
+        Map<String, Object> report = new LoadGenerator(options, System.currentTimeMillis() * 1000).run();
+        new ObjectMapper().writerWithDefaultPrettyPrinter().writeValue(options.report.toFile(), report);
+        System.out.println("Report written to " + options.report.toAbsolutePath());
+    }
+
+    Map<String, Object> run() throws Exception {
+        Instant startedAt = Instant.now();
+        long firstRecorded;
+        long lastSent;
+        try (AuditStream stream = new AuditStream(this::onAuditEntry)) {
+            stream.open(client, options.audit, Duration.ofSeconds(10));
+            Semaphore inFlight = new Semaphore(options.maxInFlight);
+            long start = System.nanoTime() + START_DELAY_NANOS;
+            firstRecorded = start + dueOffset(warmupCount);
+            System.out.printf("Sending %d requests at %.0f/s, the first %d are warmup%n", total, options.rate, warmupCount);
+            for (int n = 0; n < total; n++) {
+                long dueNanos = start + dueOffset(n);
+                long wait;
+                while ((wait = dueNanos - System.nanoTime()) > 0) {
+                    LockSupport.parkNanos(wait);
+                }
+                // Waiting here delays the send but not the due time the latency is measured from
+                inFlight.acquire();
+                send(n, dueNanos).whenComplete((response, error) -> inFlight.release());
+            }
+            lastSent = System.nanoTime();
+            inFlight.acquire(options.maxInFlight);
+            long deadline = System.nanoTime() + options.visibilityTimeout.toNanos();
+            while (visibleRecorded.sum() < accepted.sum() && System.nanoTime() < deadline) {
+                Thread.sleep(VISIBILITY_POLL_MILLIS);
+            }
+        }
+        return report(startedAt, (lastSent - firstRecorded) / 1e9);
+    }
+
+    private long dueOffset(int n) {
+        return Math.round(n * 1e9 / options.rate);
+    }
+
+    private CompletableFuture<HttpResponse<Void>> send(int n, long dueNanos) {
+        boolean open = random.nextDouble() < options.openRatio;
+        URI uri = open
+                ? options.business.resolve("/openAccount/" + (accountBase + options.accounts + n))
+                : options.business.resolve("/deposit/" + (accountBase + random.nextInt(options.accounts)) + "?amount=" + n);
+        HttpRequest request = HttpRequest.newBuilder(uri).POST(HttpRequest.BodyPublishers.noBody()).build();
+        due.set(n, dueNanos);
+        long sent = System.nanoTime();
+        return client.sendAsync(request, HttpResponse.BodyHandlers.discarding()).whenComplete((response, error) -> {
+            long now = System.nanoTime();
+            if (n < warmupCount) {
+                return;
+            }
+            if (error != null || response.statusCode() / 100 != 2) {
+                failed.increment();
+                Throwable cause = error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+                String reason = cause != null ? cause.getClass().getSimpleName() : Integer.toString(response.statusCode());
+                errors.computeIfAbsent(reason, key -> new LongAdder()).increment();
+                return;
+            }
+            accepted.increment();
+            serviceTime.recordValue(Math.max(0, now - sent) / 1000);
+            responseTime.recordValue(Math.max(0, now - dueNanos) / 1000);
+        });
+    }
+
+    void onAuditEntry(String type, long accountId, String data, long arrivedNanos) {
+        long n = requestOf(type, accountId, data);
+        if (n < 0 || n >= total || !visible.compareAndSet((int) n, 0, 1)) {
+            return;
+        }
+        if (n >= warmupCount) {
+            visibility.recordValue(Math.max(0, arrivedNanos - due.get((int) n)) / 1000);
+            visibleRecorded.increment();
+        }
+    }
+
+    /**
+     * The request that caused an audit entry, or -1 if it did not come from this run.
+     */
+    long requestOf(String type, long accountId, String data) {
+        if (type.equals("OPEN_ACCOUNT")) {
+            long n = accountId - accountBase - options.accounts;
+            return n >= 0 ? n : -1;
+        }
+        if (type.equals("DEPOSIT") && accountId >= accountBase && accountId < accountBase + options.accounts
+                && data.startsWith(DEPOSIT_PREFIX)) {
+            try {
+                return Long.parseLong(data.substring(DEPOSIT_PREFIX.length()));
+            } catch (NumberFormatException e) {
+                return -1;
+            }
+        }
+        return -1;
+    }
+
+    private Map<String, Object> report(Instant startedAt, double recordedSeconds) {
+        long recorded = total - warmupCount;
+        Map<String, Object> requests = new LinkedHashMap<>();
+        requests.put("sent", recorded);
+        requests.put("accepted", accepted.sum());
+        requests.put("failed", failed.sum());
+        Map<String, Long> errorCounts = new LinkedHashMap<>();
+        errors.forEach((reason, count) -> errorCounts.put(reason, count.sum()));
+        requests.put("errors", errorCounts);
+
+        Map<String, Object> report = new LinkedHashMap<>();
+        report.put("startedAt", startedAt.toString());
+        report.put("options", options.toMap());
+        report.put("achievedRate", recordedSeconds > 0 ? recorded / recordedSeconds : 0);
+        report.put("requests", requests);
+        report.put("httpServiceTime", LatencyReport.of(serviceTime));
+        report.put("httpResponseTime", LatencyReport.of(responseTime));
+        report.put("auditVisibility", LatencyReport.of(visibility));
+        report.put("notVisible", accepted.sum() - visibleRecorded.sum());
+
+        System.out.printf("Sent %d at %.0f/s, %d accepted, %d failed, %d never reached the audit log%n",
+                recorded, report.get("achievedRate"), accepted.sum(), failed.sum(), accepted.sum() - visibleRecorded.sum());
+        print("HTTP response time", responseTime);
+        print("HTTP service time", serviceTime);
+        print("Audit visibility", visibility);
+        return report;
+    }
+
+    private static void print(String name, Histogram micros) {
+        System.out.printf("%-20s p50 %8.2f ms  p99 %8.2f ms  p99.9 %8.2f ms  max %8.2f ms%n", name,
+                micros.getValueAtPercentile(50) / 1000.0, micros.getValueAtPercentile(99) / 1000.0,
+                micros.getValueAtPercentile(99.9) / 1000.0, micros.getMaxValue() / 1000.0);
+    }
+}
@@ -0,0 +1,118 @@
+package se.nackademin.messaging.loadgen;
+
+import java.net.URI;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Command line options, each given as {@code --name=value}. Durations take a unit, e.g. {@code 500ms}, {@code 30s}
+ * or {@code 2m}.
+ */
+final class LoadOptions {
+    static final String USAGE = String.join("\n",
+            "java -jar loadgen.jar [--name=value]...",
+            "  --business=http://localhost:8081   BusinessService base URL",
+            "  --audit=http://localhost:8082      AuditService base URL, the node that stores the accounts",
+            "  --rate=500                          requests per second, sent on schedule whatever the latency",
+            "  --duration=60s                      recorded part of the run",
+            "  --warmup=10s                        sent before the recorded part and not recorded",
+            "  --open-ratio=0.1                    share of requests that open an account, the rest are deposits",
+            "  --accounts=1000                     accounts the deposits are spread over",
+            "  --max-in-flight=1000                requests waiting for a response before sending waits",
+            "  --visibility-timeout=30s            how long to wait for the last events to reach the audit log",
+            "  --report=loadgen-report.json        where the JSON report is written");
+
+    final URI business;
+    final URI audit;
+    final double rate;
+    final Duration duration;
+    final Duration warmup;
+    final double openRatio;
+    final int accounts;
+    final int maxInFlight;
+    final Duration visibilityTimeout;
+    final Path report;
+
+    private LoadOptions(Map<String, String> values) {
+        business = URI.create(values.remove("business"));
+        audit = URI.create(values.remove("audit"));
+        rate = Double.parseDouble(values.remove("rate"));
+        duration = parseDuration(values.remove("duration"));
+        warmup = parseDuration(values.remove("warmup"));
+        openRatio = Double.parseDouble(values.remove("open-ratio"));
+        accounts = Integer.parseInt(values.remove("accounts"));
+        maxInFlight = Integer.parseInt(values.remove("max-in-flight"));
+        visibilityTimeout = parseDuration(values.remove("visibility-timeout"));
+        report = Path.of(values.remove("report"));
+        if (!values.isEmpty()) {
+            throw new IllegalArgumentException("Unknown options " + values.keySet());
+        }
+        if (rate <= 0 || accounts < 1 || maxInFlight < 1 || openRatio < 0 || openRatio > 1) {
+            throw new IllegalArgumentException("rate, accounts and max-in-flight must be positive, open-ratio between 0 and 1");
+        }
+    }
+
+    static LoadOptions parse(String... args) {
+        Map<String, String> values = new HashMap<>(defaults());
+        for (String arg : args) {
+            int equals = arg.indexOf('=');
+            if (!arg.startsWith("--") || equals < 0) {
+                throw new IllegalArgumentException("Expected --name=value, was " + arg);
+            }
+            values.put(arg.substring(2, equals), arg.substring(equals + 1));
+        }
+        return new LoadOptions(values);
+    }
+
+    /**
+     * The options as given, for the report.
+     */
+    Map<String, Object> toMap() {
+        Map<String, Object> map = new LinkedHashMap<>();
+        map.put("business", business.toString());
+        map.put("audit", audit.toString());
+        map.put("rate", rate);
+        map.put("durationMs", duration.toMillis());
+        map.put("warmupMs", warmup.toMillis());
+        map.put("openRatio", openRatio);
+        map.put("accounts", accounts);
+        map.put("maxInFlight", maxInFlight);
+        map.put("visibilityTimeoutMs", visibilityTimeout.toMillis());
+        return map;
+    }
+
+    static Duration parseDuration(String value) {
+        if (value.endsWith("ms")) {
+            return Duration.ofMillis(Long.parseLong(value.substring(0, value.length() - 2)));
+        }
+        long amount = Long.parseLong(value.substring(0, value.length() - 1));
+        switch (value.charAt(value.length() - 1)) {
+            case 's':
+                return Duration.ofSeconds(amount);
+            case 'm':
+                return Duration.ofMinutes(amount);
+            case 'h':
+                return Duration.ofHours(amount);
+            default:
+                throw new IllegalArgumentException("Duration needs a unit of ms, s, m or h, was " + value);
+        }
+    }
+
+    private static Map<String, String> defaults() {
+        Map<String, String> defaults = new HashMap<>();
+        defaults.put("business", "http://localhost:8081");
+        defaults.put("audit", "http://localhost:8082");
+        defaults.put("rate", "500");
+        defaults.put("duration", "60s");
+        defaults.put("warmup", "10s");
+        defaults.put("open-ratio", "0.1");
+        defaults.put("accounts", "1000");
+        defaults.put("max-in-flight", "1000");
+        defaults.put("visibility-timeout", "30s");
+        defaults.put("report", "loadgen-report.json");
+        return defaults;
+    }
+}
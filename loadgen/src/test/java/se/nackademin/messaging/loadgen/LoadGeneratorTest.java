@@ -0,0 +1,49 @@
+package se.nackademin.messaging.loadgen;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class LoadGeneratorTest {
+
+    @Test
+    void recognisesTheRequestBehindAnAuditEntry() {
+        LoadGenerator generator = new LoadGenerator(LoadOptions.parse("--rate=100", "--duration=1s", "--warmup=0s", "--accounts=10"), 5000);
+
+        assertEquals(7, generator.requestOf("OPEN_ACCOUNT", 5000 + 10 + 7, "Account opened"));
+        assertEquals(42, generator.requestOf("DEPOSIT", 5003, "Deposit amount of 42"));
+        assertEquals(-1, generator.requestOf("DEPOSIT", 4999, "Deposit amount of 42"));
+        assertEquals(-1, generator.requestOf("DEPOSIT", 5003, "Deposit amount of lots"));
+        assertEquals(-1, generator.requestOf("OPEN_ACCOUNT", 12, "Account opened"));
+    }
+
+    @Test
+    void readsEntriesFromTheEventStream() {
+        List<String> entries = new ArrayList<>();
+        AuditStream stream = new AuditStream((type, accountId, data, arrivedNanos) -> entries.add(type + " " + accountId + " " + data));
+
+        stream.onLine("id:12", 0);
+        stream.onLine("data:{\"type\":\"DEPOSIT\",\"accountId\":5003,\"timestamp\":\"2021-09-01T10:00:00Z\",\"data\":\"Deposit amount of 42\"}", 0);
+        stream.onLine("", 0);
+        stream.onLine(":heartbeat", 0);
+
+        assertEquals(List.of("DEPOSIT 5003 Deposit amount of 42"), entries);
+    }
+
+    @Test
+    void parsesOptions() {
+        LoadOptions options = LoadOptions.parse("--rate=250", "--duration=2m", "--visibility-timeout=500ms");
+
+        assertEquals(250, options.rate);
+        assertEquals(Duration.ofMinutes(2), options.duration);
+        assertEquals(Duration.ofMillis(500), options.visibilityTimeout);
+        assertEquals(Duration.ofSeconds(10), options.warmup);
+        assertThrows(IllegalArgumentException.class, () -> LoadOptions.parse("--rate=0"));
+        assertThrows(IllegalArgumentException.class, () -> LoadOptions.parse("--speed=fast"));
+        assertThrows(IllegalArgumentException.class, () -> LoadOptions.parseDuration("10"));
+    }
+}